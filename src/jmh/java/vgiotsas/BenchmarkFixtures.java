@@ -0,0 +1,269 @@
+package vgiotsas;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Synthetic inputs of the benchmarks, generated with a fixed seed so every run parses the same data. The sizes follow
+ * a RIS collector: a RIB dump with a million entries, one per prefix of a full IPv4 table spread over the full-feed
+ * peers of the collector, AS paths of 2 to 8 hops behind a handful of transit providers with some prepending, and a
+ * few communities on most routes, of which about 5% carry the target communities.
+ */
+final class BenchmarkFixtures {
+
+    static final int RIB_ENTRIES = 1_000_000;
+    static final int UPDATES = 500_000;
+    static final int PEERS = 24;
+    static final int RELATIONSHIP_LINKS = 500_000;
+
+    // Standard target community of a transit provider, and the community of a Route Server
+    static final String TARGET = "2914:1201";
+    static final String ROUTE_SERVER_TARGET = "6777:6695";
+    static final int ROUTE_SERVER_ASN = 6777;
+    static final String IXP = "AMS-IX";
+
+    static final int START = 1523059200; // 20180407.0000
+    static final int DAY = 86400;
+
+    private static final int[] TRANSIT = {2914, 3356, 1299, 174, 6939, 6453, 3257, 6762};
+    private static final int ASN_POOL = 60_000;
+    // The members of the IXP are the lowest ASNs of the pool
+    private static final int IXP_MEMBERS = 800;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * A route of the RIB: the peer, the prefix and the attributes
+     */
+    static final class Route {
+        final int peer;
+        final String prefix;
+        final String path;
+        final String communities;
+
+        Route(int peer, String prefix, String path, String communities) {
+            this.peer = peer;
+            this.prefix = prefix;
+            this.path = path;
+            this.communities = communities;
+        }
+    }
+
+    /**
+     * @return the routes of a full RIB dump
+     */
+    static Route[] rib() {
+        Random random = new Random(42);
+        Route[] routes = new Route[RIB_ENTRIES];
+        for (int i = 0; i < RIB_ENTRIES; i++) {
+            int peer = i % PEERS;
+            String prefix = (1 + i / 65536 % 222) + "." + (i / 256 % 256) + "." + (i % 256) + ".0/24";
+            int origin = 1 + (int) ((long) i * 7919 % ASN_POOL);
+            String path;
+            String communities;
+            double kind = random.nextDouble();
+            if (kind < 0.04) {
+                // annotated by the transit provider that defines the target community
+                path = path(random, peerAsn(peer), 2914, origin);
+                communities = "2914:410 " + TARGET + " 2914:2000 " + peerAsn(peer) + ":" + random.nextInt(65536);
+            } else if (kind < 0.05) {
+                // annotated by the Route Server, which is not in the path, between two IXP members
+                int member = 1 + random.nextInt(IXP_MEMBERS);
+                path = peerAsn(peer) + " " + member + " " + (member + 1) + " " + origin;
+                communities = ROUTE_SERVER_TARGET + " 6777:65000";
+            } else {
+                path = path(random, peerAsn(peer), TRANSIT[random.nextInt(TRANSIT.length)], origin);
+                StringBuilder sb = new StringBuilder();
+                int count = random.nextInt(7);
+                for (int c = 0; c < count; c++) {
+                    if (c > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(TRANSIT[random.nextInt(TRANSIT.length)]).append(':').append(random.nextInt(65536));
+                }
+                communities = sb.toString();
+            }
+            routes[i] = new Route(peer, prefix, path, communities);
+        }
+        return routes;
+    }
+
+    private static String path(Random random, int peerAsn, int transit, int origin) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(peerAsn);
+        sb.append(' ').append(transit);
+        int middle = random.nextInt(5);
+        for (int i = 0; i < middle; i++) {
+            sb.append(' ').append(IXP_MEMBERS + 1 + random.nextInt(ASN_POOL - IXP_MEMBERS));
+        }
+        sb.append(' ').append(origin);
+        // about 10% of the paths are prepended by the origin
+        if (random.nextInt(10) == 0) {
+            sb.append(' ').append(origin).append(' ').append(origin);
+        }
+        return sb.toString();
+    }
+
+    private static int peerAsn(int peer) {
+        return 64496 + peer;
+    }
+
+    private static String peerIp(int peer) {
+        return "80.249.208." + (peer + 1);
+    }
+
+    /**
+     * @param routes the routes of the RIB
+     * @return the RIB in the output format of bgpreader
+     */
+    static byte[] ribLines(Route[] routes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(RIB_ENTRIES * 140);
+        StringBuilder line = new StringBuilder(256);
+        for (Route route : routes) {
+            line.setLength(0);
+            appendLine(line, 'R', 'R', START - DAY + 10, route, true);
+            write(out, line);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param routes the routes of the RIB
+     * @return updates of random routes of the RIB in the output format of bgpreader, over one day: announcements
+     * that keep or drop the communities of the routes, and withdrawals
+     */
+    static byte[] updateLines(Route[] routes) {
+        Random random = new Random(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(UPDATES * 140);
+        StringBuilder line = new StringBuilder(256);
+        for (int i = 0; i < UPDATES; i++) {
+            Route route = routes[random.nextInt(routes.length)];
+            int ts = START + (int) ((long) i * DAY / UPDATES);
+            line.setLength(0);
+            int kind = random.nextInt(10);
+            if (kind < 3) {
+                appendLine(line, 'U', 'W', ts, route, false);
+            } else {
+                Route announced = kind < 5 ? new Route(route.peer, route.prefix, route.path, "") : route;
+                appendLine(line, 'U', 'A', ts, announced, true);
+            }
+            write(out, line);
+        }
+        return out.toByteArray();
+    }
+
+    private static void appendLine(StringBuilder line, char recType, char elemType, int ts, Route route,
+                                   boolean attributes) {
+        line.append(recType).append('|').append(elemType).append('|').append(ts).append(".000000|ris|rrc00|||")
+                .append(peerAsn(route.peer)).append('|').append(peerIp(route.peer)).append('|')
+                .append(route.prefix).append('|');
+        if (attributes) {
+            String origin = route.path.substring(route.path.lastIndexOf(' ') + 1);
+            line.append(peerIp(route.peer)).append('|').append(route.path).append('|').append(origin).append('|')
+                    .append(route.communities).append("||");
+        } else {
+            line.append("|||||");
+        }
+        line.append('\n');
+    }
+
+    private static void write(ByteArrayOutputStream out, StringBuilder line) {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return the paths of the RIB split into hops, as they are passed to {@link Parser#removePrepending(String[])}
+     */
+    static String[][] paths(Route[] routes, int count) {
+        String[][] paths = new String[count][];
+        for (int i = 0; i < count; i++) {
+            paths[i] = routes[i * (routes.length / count)].path.split(" ");
+        }
+        return paths;
+    }
+
+    /**
+     * @return the reference datasets: the IXP of the Route Server with its members, and the relationships of the
+     * links between the members
+     */
+    static Datasets datasets() {
+        PeeringCartographer.ColocationMap coloMap = new PeeringCartographer.ColocationMap();
+        int[] members = new int[IXP_MEMBERS];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = i + 1;
+        }
+        coloMap.addIxp(IXP, members);
+        AsRelationships relationships = new AsRelationships();
+        for (int i = 1; i < IXP_MEMBERS; i++) {
+            // every third link between consecutive members is p2c, the others are p2p
+            relationships.put(i, i + 1, i % 3 == 0 ? -1 : 0);
+        }
+        HashMap<String, String> routeServers = new HashMap<>();
+        routeServers.put(Integer.toString(ROUTE_SERVER_ASN), IXP);
+        return new Datasets(coloMap, relationships, routeServers);
+    }
+
+    /**
+     * @param outdir the output directory of the results
+     * @param format the format of the results
+     * @return a parser with the reference datasets and the target communities indexed
+     */
+    static CommunitiesParser parser(String outdir, String format) {
+        HashMap<String, String> properties = new HashMap<>();
+        properties.put("communities", TARGET + "," + ROUTE_SERVER_TARGET);
+        properties.put("outdir", outdir);
+        properties.put("format", format);
+        properties.put("offline", "true");
+        CommunitiesParser parser = new CommunitiesParser(properties, datasets());
+        parser.useDatasets(datasets());
+        parser.indexTargets(new ArrayList<>(), -1);
+        return parser;
+    }
+
+    /**
+     * Writes a relationships file in the format of CAIDA's AS Relationships dataset, compressed with bzip2
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    static void writeRelationships(File file) throws IOException {
+        Random random = new Random(3);
+        try (OutputStream out = new BZip2CompressorOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16))) {
+            out.write("# source:topology|BGP|20180301|synthetic\n".getBytes(StandardCharsets.US_ASCII));
+            StringBuilder line = new StringBuilder(64);
+            for (int i = 0; i < RELATIONSHIP_LINKS; i++) {
+                int a = 1 + random.nextInt(ASN_POOL);
+                int b = 1 + random.nextInt(ASN_POOL);
+                line.setLength(0);
+                line.append(a).append('|').append(b).append('|').append(random.nextInt(4) == 0 ? 0 : -1)
+                        .append("|bgp\n");
+                out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and the files in it
+     */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,95 @@
+package vgiotsas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parse of the bgpreader lines done by the three passes of {@link CommunitiesParser}, from the raw output of
+ * bgpreader to the annotated routes: the initial pass annotates the routes of a full RIB, the stability pass checks
+ * the routes of a RIB against the annotated routes, and the monitoring pass updates the status of the annotated
+ * routes from a day of updates. The throughput is in lines per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ParserPassesBenchmark {
+
+    private byte[] rib;
+    private byte[] updates;
+    private CommunitiesParser parser;
+    private RouteTable annotated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkFixtures.Route[] routes = BenchmarkFixtures.rib();
+        rib = BenchmarkFixtures.ribLines(routes);
+        updates = BenchmarkFixtures.updateLines(routes);
+        parser = BenchmarkFixtures.parser(System.getProperty("java.io.tmpdir"), ResultWriter.TEXT);
+        annotated = new RouteTable();
+        initialPass(annotated);
+    }
+
+    /**
+     * The monitoring pass appends to the history of the routes, so every iteration starts from fresh routes
+     */
+    @Setup(Level.Iteration)
+    public void resetRoutes() throws IOException {
+        annotated = new RouteTable();
+        initialPass(annotated);
+    }
+
+    private int initialPass(RouteTable routes) throws IOException {
+        try (ElemSource in = new BgpElemReader(new ByteArrayInputStream(rib))) {
+            parser.annotateRoutes(in, routes, new HashSet<>(), new HashSet<>(), new HashSet<>());
+        }
+        return routes.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.RIB_ENTRIES)
+    public int initialPass() throws IOException {
+        return initialPass(new RouteTable());
+    }
+
+    /**
+     * The RIB is the one that annotated the routes, so the routes stay annotated and the pass only looks them up
+     */
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.RIB_ENTRIES)
+    public int stabilityPass() throws IOException {
+        try (ElemSource in = new BgpElemReader(new ByteArrayInputStream(rib))) {
+            return CommunitiesParser.removeUnstableRoutes(in, annotated);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixtures.UPDATES)
+    public int monitoringPass() throws IOException {
+        BgpElem elem = new BgpElem();
+        RouteTable.Key key = new RouteTable.Key();
+        try (ElemSource in = new BgpElemReader(new ByteArrayInputStream(updates))) {
+            while (in.next(elem)) {
+                CommunitiesParser.monitorElem(elem, annotated, key);
+            }
+        }
+        return annotated.size();
+    }
+}
@@ -0,0 +1,123 @@
+package vgiotsas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The handling of the AS paths of the annotated routes: {@link CommunitiesParser#removePrepending(String[])}, and
+ * the mapping of a community to a link, both for a community of an AS of the path and for a community of a Route
+ * Server that is not in the path, in the String and in the integer versions of
+ * {@link CommunitiesParser#mapCommunityToLink}. The throughput is in paths per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathBenchmark {
+
+    private static final int PATHS = 4096;
+
+    private CommunitiesParser parser;
+    private String[][] prepended;
+    private ArrayList<String>[] direct;
+    private ArrayList<String>[] routeServer;
+    private int[][] directHops;
+    private int[][] routeServerHops;
+
+    @Setup
+    public void setUp() {
+        parser = BenchmarkFixtures.parser(System.getProperty("java.io.tmpdir"), ResultWriter.TEXT);
+        BenchmarkFixtures.Route[] routes = BenchmarkFixtures.rib();
+        prepended = BenchmarkFixtures.paths(routes, PATHS);
+
+        ArrayList<BenchmarkFixtures.Route> directRoutes = new ArrayList<>();
+        ArrayList<BenchmarkFixtures.Route> routeServerRoutes = new ArrayList<>();
+        for (BenchmarkFixtures.Route route : routes) {
+            if (route.communities.contains(BenchmarkFixtures.TARGET)) {
+                directRoutes.add(route);
+            } else if (route.communities.contains(BenchmarkFixtures.ROUTE_SERVER_TARGET)) {
+                routeServerRoutes.add(route);
+            }
+        }
+        direct = nonPrepended(directRoutes);
+        routeServer = nonPrepended(routeServerRoutes);
+        directHops = hops(direct);
+        routeServerHops = hops(routeServer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayList<String>[] nonPrepended(ArrayList<BenchmarkFixtures.Route> routes) {
+        ArrayList<String>[] paths = new ArrayList[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = parser.removePrepending(routes.get(i % routes.size()).path.split(" "));
+        }
+        return paths;
+    }
+
+    private static int[][] hops(ArrayList<String>[] paths) {
+        int[][] hops = new int[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            hops[i] = new int[paths[i].size()];
+            for (int h = 0; h < hops[i].length; h++) {
+                hops[i][h] = Integer.parseInt(paths[i].get(h));
+            }
+        }
+        return hops;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void removePrepending(Blackhole bh) {
+        for (String[] path : prepended) {
+            bh.consume(parser.removePrepending(path));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void mapCommunityToLinkDirect(Blackhole bh) {
+        for (ArrayList<String> path : direct) {
+            bh.consume(parser.mapCommunityToLink(path, "2914"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void mapCommunityToLinkRouteServer(Blackhole bh) {
+        String routeServerAsn = Integer.toString(BenchmarkFixtures.ROUTE_SERVER_ASN);
+        for (ArrayList<String> path : routeServer) {
+            bh.consume(parser.mapCommunityToLink(path, routeServerAsn));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void mapCommunityToLinkDirectHops(Blackhole bh) {
+        for (int[] path : directHops) {
+            bh.consume(parser.mapCommunityToLink(path, path.length, 2914));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public void mapCommunityToLinkRouteServerHops(Blackhole bh) {
+        for (int[] path : routeServerHops) {
+            bh.consume(parser.mapCommunityToLink(path, path.length, BenchmarkFixtures.ROUTE_SERVER_ASN));
+        }
+    }
+}
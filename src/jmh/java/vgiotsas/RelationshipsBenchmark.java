@@ -0,0 +1,151 @@
+package vgiotsas;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AS relationships in the {@link AsRelationships} table against the HashMap of "a b" String keys that it
+ * replaced, from a bzip2 file with as many links as the serial-2 dataset of CAIDA: the load time with
+ * {@link CommunitiesParser#readRelationships(String)}, and the average time of a lookup of which half are hits. The
+ * heap retained by each structure is printed when the benchmark is set up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RelationshipsBenchmark {
+
+    private static final int LOOKUPS = 4096;
+
+    private CommunitiesParser parser;
+    private File file;
+    private AsRelationships table;
+    private HashMap<String, Integer> map;
+    private int[] nearEnds;
+    private int[] farEnds;
+
+    @Setup
+    public void setUp() throws IOException, CompressorException {
+        parser = BenchmarkFixtures.parser(System.getProperty("java.io.tmpdir"), ResultWriter.TEXT);
+        file = File.createTempFile("as-rel", ".txt.bz2");
+        BenchmarkFixtures.writeRelationships(file);
+
+        long before = retainedHeap();
+        table = parser.readRelationships(file.getPath());
+        long afterTable = retainedHeap();
+        map = readStringMap(file);
+        long afterMap = retainedHeap();
+        System.out.println();
+        System.out.println("Retained heap of " + table.size() + " directed links: table " +
+                ((afterTable - before) >> 20) + " MB, String map " + ((afterMap - afterTable) >> 20) + " MB");
+
+        // Half of the lookups are links of the dataset, the other half random pairs of ASNs
+        Random random = new Random(7);
+        long[] keys = table.keys();
+        nearEnds = new int[LOOKUPS];
+        farEnds = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (i % 2 == 0) {
+                long key;
+                do {
+                    key = keys[random.nextInt(keys.length)];
+                } while (key == 0);
+                nearEnds[i] = AsPath.nearEnd(key);
+                farEnds[i] = AsPath.farEnd(key);
+            } else {
+                nearEnds[i] = 1 + random.nextInt(60_000);
+                farEnds[i] = 1 + random.nextInt(60_000);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * The loader that {@link AsRelationships} replaced: two String keys and a String[] per line
+     */
+    private static HashMap<String, Integer> readStringMap(File file) throws IOException, CompressorException {
+        HashMap<String, Integer> relationships = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new CompressorStreamFactory()
+                .createCompressorInputStream(new BufferedInputStream(new FileInputStream(file)))))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    String[] lf = line.split("\\|");
+                    relationships.put(lf[0] + " " + lf[1], Integer.parseInt(lf[2]));
+                    relationships.put(lf[1] + " " + lf[0], Integer.parseInt(lf[2]) * -1);
+                }
+            }
+        }
+        return relationships;
+    }
+
+    private static long retainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public AsRelationships readRelationships() {
+        return parser.readRelationships(file.getPath());
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> readStringMap() throws IOException, CompressorException {
+        return readStringMap(file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(LOOKUPS)
+    public int lookupTable() {
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            sum += table.relationship(nearEnds[i], farEnds[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(LOOKUPS)
+    public int lookupStringMap() {
+        int sum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            Integer relationship = map.get(Integer.toUnsignedString(nearEnds[i]) + " " +
+                    Integer.toUnsignedString(farEnds[i]));
+            sum += relationship == null ? 0 : relationship;
+        }
+        return sum;
+    }
+}
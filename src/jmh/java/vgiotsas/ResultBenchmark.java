@@ -0,0 +1,91 @@
+package vgiotsas;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The output of a run: {@link Result#getCommunitiesTimeline()} over the timeline of two weeks of monitoring, and
+ * {@link CommunitiesParser#writeResults(int, int, HashMap)} of the timelines in every output format
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ResultBenchmark {
+
+    private static final int COMMUNITIES = 500;
+    private static final int ROUTES = 200_000;
+    private static final int CHANGES = 2_000_000;
+    private static final int PERIOD = 14 * BenchmarkFixtures.DAY;
+
+    @Param({ResultWriter.TEXT, ResultWriter.BINARY})
+    public String format;
+
+    private File outdir;
+    private CommunitiesParser parser;
+    private Result result;
+    private HashMap<String, Result.TimeLine> timelines;
+
+    @Setup
+    public void setUp() throws IOException {
+        outdir = Files.createTempDirectory("results").toFile();
+        parser = BenchmarkFixtures.parser(outdir.getPath(), format);
+
+        CommunitySet communities = new CommunitySet();
+        for (int i = 0; i < COMMUNITIES; i++) {
+            communities.add(Community.of(false, 2914, i, 0));
+        }
+        RouteTable routes = new RouteTable();
+        RouteTable.Key key = new RouteTable.Key();
+        int[] rows = new int[ROUTES];
+        for (int i = 0; i < ROUTES; i++) {
+            key.parse("80.249.208." + (1 + i % 24), (1 + i / 65536) + "." + (i / 256 % 256) + "." + (i % 256) +
+                    ".0/24");
+            rows[i] = routes.add(key, communities.get(i % COMMUNITIES), new int[0], 2914, 64496 + i % 24);
+        }
+        result = new Result(new HashSet<>(), new HashSet<>(), new HashSet<>(), routes);
+        result.trackTimeline(new CommunityTimeline(communities, BenchmarkFixtures.START,
+                BenchmarkFixtures.START + PERIOD, CommunityTimeline.DEFAULT_BIN_SECONDS), true);
+        Random random = new Random(11);
+        for (int i = 0; i < CHANGES; i++) {
+            int ts = BenchmarkFixtures.START + (int) ((long) i * PERIOD / CHANGES);
+            routes.updateStatus(rows[random.nextInt(ROUTES)], random.nextInt(2), ts);
+        }
+        timelines = result.getCommunitiesTimeline();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.delete(outdir);
+    }
+
+    @Benchmark
+    public HashMap<String, Result.TimeLine> getCommunitiesTimeline() {
+        return result.getCommunitiesTimeline();
+    }
+
+    @Benchmark
+    public void writeResults() {
+        parser.writeResults(BenchmarkFixtures.START, BenchmarkFixtures.START + PERIOD, timelines);
+    }
+}
@@ -0,0 +1,163 @@
+package vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * Parses IPv4 and IPv6 addresses and prefixes from text in a byte buffer, e.g. a field of a {@link BgpElem}, into
+ * two longs without allocating. An IPv4 address is stored in the lowest 32 bits of {@link #low}. A parser is scratch
+ * space that is reused for every address, so every thread needs its own.
+ */
+class AddressParser {
+
+    // The result of the last parse
+    long high;
+    long low;
+    int length;
+
+    private final int[] groups = new int[8];
+    private final int[] expanded = new int[8];
+
+    /**
+     * Parses an IPv4 address into {@link #low}, or an IPv6 address into {@link #high} and {@link #low}
+     * @param b the buffer with the text of the address
+     * @param from the offset of the first character of the address
+     * @param to the offset after the last character of the address
+     * @return 4 or 6 for a valid address, 0 otherwise
+     */
+    int parse(byte[] b, int from, int to) {
+        boolean v6 = false;
+        for (int i = from; i < to; i++) {
+            if (b[i] == ':') {
+                v6 = true;
+                break;
+            }
+        }
+        if (!v6) {
+            long v4 = parseIpv4(b, from, to);
+            if (v4 < 0) {
+                return 0;
+            }
+            high = 0;
+            low = v4;
+            return 4;
+        }
+        int n = 0;
+        int gap = -1;
+        int i = from;
+        if (to - from >= 2 && b[i] == ':' && b[i + 1] == ':') {
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int groupStart = i;
+            int value = 0;
+            while (i < to && i - groupStart < 5 && Character.digit(b[i], 16) >= 0) {
+                value = value << 4 | Character.digit(b[i], 16);
+                i++;
+            }
+            if (i < to && b[i] == '.') {
+                // Embedded IPv4 address in the last two groups
+                long v4 = parseIpv4(b, groupStart, to);
+                if (v4 < 0 || n > 6) {
+                    return 0;
+                }
+                groups[n++] = (int) (v4 >>> 16);
+                groups[n++] = (int) (v4 & 0xFFFF);
+                i = to;
+                break;
+            }
+            if (i == groupStart || i - groupStart > 4 || n == 8) {
+                return 0;
+            }
+            groups[n++] = value;
+            if (i == to) {
+                break;
+            }
+            if (b[i] != ':' || ++i == to) {
+                return 0;
+            }
+            if (b[i] == ':') {
+                if (gap >= 0) {
+                    return 0;
+                }
+                gap = n;
+                i++;
+            }
+        }
+        if (gap < 0 ? n != 8 : n > 7) {
+            return 0;
+        }
+        if (gap < 0) {
+            System.arraycopy(groups, 0, expanded, 0, 8);
+        } else {
+            Arrays.fill(expanded, 0);
+            System.arraycopy(groups, 0, expanded, 0, gap);
+            System.arraycopy(groups, gap, expanded, 8 - (n - gap), n - gap);
+        }
+        high = 0;
+        low = 0;
+        for (int g = 0; g < 4; g++) {
+            high = high << 16 | expanded[g];
+            low = low << 16 | expanded[g + 4];
+        }
+        return 6;
+    }
+
+    /**
+     * @return the address as an unsigned 32-bit value, or -1 if it's not a valid dotted-decimal address
+     */
+    private static long parseIpv4(byte[] b, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int i = from;
+        while (i < to) {
+            int octet = 0;
+            int digits = 0;
+            while (i < to && b[i] >= '0' && b[i] <= '9' && digits < 4) {
+                octet = octet * 10 + b[i] - '0';
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || octet > 255 || ++octets > 4) {
+                return -1;
+            }
+            value = value << 8 | octet;
+            if (i < to) {
+                if (b[i] != '.' || ++i == to) {
+                    return -1;
+                }
+            }
+        }
+        return octets == 4 ? value : -1;
+    }
+
+    /**
+     * Parses a prefix, e.g. 192.0.2.0/24, into {@link #high}, {@link #low} and {@link #length}
+     * @param b the buffer with the text of the prefix
+     * @param from the offset of the first character of the prefix
+     * @param to the offset after the last character of the prefix
+     * @return 4 or 6 for a valid prefix, 0 otherwise
+     */
+    int parsePrefix(byte[] b, int from, int to) {
+        int slash = to - 1;
+        while (slash > from && b[slash] != '/') {
+            slash--;
+        }
+        if (slash == from || slash == to - 1 || to - slash > 4) {
+            return 0;
+        }
+        int family = parse(b, from, slash);
+        int prefixLength = 0;
+        for (int i = slash + 1; i < to; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return 0;
+            }
+            prefixLength = prefixLength * 10 + b[i] - '0';
+        }
+        if (family == 0 || prefixLength > (family == 4 ? 32 : 128)) {
+            return 0;
+        }
+        length = prefixLength;
+        return family;
+    }
+}
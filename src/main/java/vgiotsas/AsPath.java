@@ -0,0 +1,79 @@
+package vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * Integer-encoded AS path without prepending. The hops are parsed from the AS path field of a {@link BgpElem} into a
+ * scratch buffer that is reused for every elem, and consecutive duplicates are dropped while parsing, so each path is
+ * decoded exactly once and without allocating.
+ *
+ * 32-bit ASNs are stored in the bits of an int, so they have to be printed with {@link Integer#toUnsignedString(int)}.
+ * Hops that are not plain ASNs (e.g. AS sets) are stored as {@link #NO_HOP}.
+ */
+class AsPath {
+
+    // 4294967295 is a reserved ASN, so it can't collide with a real hop
+    static final int NO_HOP = -1;
+
+    private int[] hops = new int[32];
+    private int length = 0;
+
+    /**
+     * Parses the AS path of an elem and removes path prepending, i.e. consecutive duplicates
+     * @param elem the BGP elem
+     * @return true if the path has at least one hop
+     */
+    boolean parse(BgpElem elem) {
+        length = 0;
+        BgpElem.Cursor cursor = elem.hops();
+        while (cursor.next()) {
+            long asn = cursor.asn();
+            int hop = asn < 0 ? NO_HOP : (int) asn;
+            if (length > 0 && hops[length - 1] == hop) {
+                continue;
+            }
+            if (length == hops.length) {
+                hops = Arrays.copyOf(hops, length * 2);
+            }
+            hops[length++] = hop;
+        }
+        return length > 0;
+    }
+
+    /**
+     * @return the scratch buffer with the hops, only the first {@link #length()} values are valid
+     */
+    int[] hops() {
+        return hops;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Packs the near-end and the far-end of an AS link in a long
+     * @param nearEnd the near-end ASN
+     * @param farEnd the far-end ASN
+     * @return the packed link
+     */
+    static long link(int nearEnd, int farEnd) {
+        return ((long) nearEnd << 32) | (farEnd & 0xFFFFFFFFL);
+    }
+
+    static int nearEnd(long link) {
+        return (int) (link >>> 32);
+    }
+
+    static int farEnd(long link) {
+        return (int) link;
+    }
+
+    /**
+     * @param hop an integer-encoded ASN
+     * @return the ASN as a String, or an empty String for {@link #NO_HOP}
+     */
+    static String toString(int hop) {
+        return hop == NO_HOP ? "" : Integer.toUnsignedString(hop);
+    }
+}
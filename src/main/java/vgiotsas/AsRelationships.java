@@ -0,0 +1,217 @@
+package vgiotsas;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * AS relationships table keyed by the AS link. The two 32-bit ASNs of a link are packed into one long key (see
+ * {@link AsPath#link(int, int)}) and stored in an open-addressing table with linear probing, so a lookup doesn't
+ * allocate and the whole table is two primitive arrays instead of one String key, one boxed value and one map node
+ * per direction of every link.
+ *
+ * Every link is stored in both directions, the relationship of the reverse direction is the negated value.
+ */
+class AsRelationships {
+
+    static final int UNKNOWN = Integer.MIN_VALUE;
+
+    // link(0, 0) can't be a real link since ASN 0 is reserved, so it marks the empty slots
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private byte[] values;
+    private int mask;
+    private int size = 0;
+
+    AsRelationships() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param expectedLinks the number of links (in one direction) the table is expected to hold
+     */
+    AsRelationships(int expectedLinks) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedLinks * 2 / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Wraps the arrays of a table that was previously exported with {@link #keys()} and {@link #values()}
+     * @param keys the packed links, the length must be a power of two
+     * @param values the relationship values
+     * @param size the number of directed links in the table
+     */
+    AsRelationships(long[] keys, byte[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Stores the relationship of an AS link and the negated relationship of the reverse link
+     * @param a the first ASN of the link
+     * @param b the second ASN of the link
+     * @param relationship the relationship value, 0 for p2p and +/-1 for p2c/c2p
+     */
+    void put(int a, int b, int relationship) {
+        insert(AsPath.link(a, b), (byte) relationship);
+        insert(AsPath.link(b, a), (byte) -relationship);
+    }
+
+    /**
+     * @param a the near-end ASN
+     * @param b the far-end ASN
+     * @return the relationship value of the link, or {@link #UNKNOWN} if the link is not in the dataset
+     */
+    int relationship(int a, int b) {
+        long key = AsPath.link(a, b);
+        if (key == EMPTY) {
+            return UNKNOWN;
+        }
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == EMPTY) {
+                return UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * @return the number of directed links in the table
+     */
+    int size() {
+        return size;
+    }
+
+    long[] keys() {
+        return keys;
+    }
+
+    byte[] values() {
+        return values;
+    }
+
+    private void insert(long key, byte value) {
+        if (key == EMPTY) {
+            return;
+        }
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            rehash(keys.length << 1);
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        byte[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j]);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        // murmur3 finalizer, the low bits of the packed ASNs alone are poorly distributed
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Reads the lines of CAIDA's AS Relationships dataset from an uncompressed stream. The lines are parsed in place
+     * from the read buffer, comment lines (starting with #) and malformed lines are skipped.
+     * @param in the uncompressed stream of the relationships file
+     * @return the relationships table
+     * @throws IOException if reading from the stream fails
+     */
+    static AsRelationships read(InputStream in) throws IOException {
+        AsRelationships relationships = new AsRelationships(1 << 19);
+        byte[] buf = new byte[1 << 16];
+        long[] fields = new long[3];
+        int field = 0;
+        long value = 0;
+        boolean negative = false;
+        boolean skip = false;
+        boolean digits = false;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            for (int i = 0; i < n; i++) {
+                byte c = buf[i];
+                if (c == '\n') {
+                    if (!skip && field == 2 && digits) {
+                        fields[2] = negative ? -value : value;
+                        field = 3;
+                    }
+                    if (!skip && field >= 3) {
+                        relationships.put((int) fields[0], (int) fields[1], (int) fields[2]);
+                    }
+                    field = 0;
+                    value = 0;
+                    negative = false;
+                    skip = false;
+                    digits = false;
+                } else if (skip) {
+                    continue;
+                } else if (c == '#' && field == 0 && !digits) {
+                    skip = true;
+                } else if (c == '|') {
+                    if (field < 3) {
+                        if (!digits) {
+                            skip = true;
+                        } else {
+                            fields[field] = negative ? -value : value;
+                        }
+                    }
+                    field++;
+                    value = 0;
+                    negative = false;
+                    digits = false;
+                } else if (field < 3) {
+                    if (c >= '0' && c <= '9') {
+                        value = value * 10 + (c - '0');
+                        digits = true;
+                    } else if (c == '-' && !digits && !negative) {
+                        negative = true;
+                    } else if (c != '\r') {
+                        skip = true;
+                    }
+                }
+            }
+        }
+        if (!skip && field == 2 && digits) {
+            relationships.put((int) fields[0], (int) fields[1], (int) (negative ? -value : value));
+        } else if (!skip && field >= 3) {
+            relationships.put((int) fields[0], (int) fields[1], (int) fields[2]);
+        }
+        return relationships;
+    }
+}
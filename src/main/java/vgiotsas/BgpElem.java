@@ -0,0 +1,298 @@
+package vgiotsas;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable view over a single line of bgpreader output. The elem does not copy or split the line, it only records
+ * the offsets of the pipe-delimited fields inside the buffer it wraps, so the same instance can be used for every
+ * line of a BGP stream without allocating.
+ *
+ * Format of bgpreader v2 output:
+ * <rec-type>|<elem-type>|<rec-ts-sec>.<rec-ts-usec>| \
+ *  <project>|<collector>|<router>|<router-ip>|<peer-ASN>|<peer-IP>| \
+ *  <prefix>|<next-hop-IP>|<AS-path>|<origin-AS>| \
+ *  <communities>|<old-state>|<new-state>
+ * https://bgpstream.caida.org/v2-beta
+ *
+ * bgpreader v1 doesn't print the router and router-ip fields, so all the fields after the collector are shifted by
+ * two positions. The layout is detected from the number of fields in the line (v1 prints 14, v2 prints 16), and the
+ * field indexes below always refer to the v2 layout.
+ */
+class BgpElem {
+
+    static final int REC_TYPE = 0;
+    static final int ELEM_TYPE = 1;
+    static final int TIMESTAMP = 2;
+    static final int PROJECT = 3;
+    static final int COLLECTOR = 4;
+    static final int ROUTER = 5;
+    static final int ROUTER_IP = 6;
+    static final int PEER_ASN = 7;
+    static final int PEER_IP = 8;
+    static final int PREFIX = 9;
+    static final int NEXT_HOP = 10;
+    static final int AS_PATH = 11;
+    static final int ORIGIN_AS = 12;
+    static final int COMMUNITIES = 13;
+    static final int OLD_STATE = 14;
+    static final int NEW_STATE = 15;
+
+    private static final int V2_FIELDS = 16;
+    private static final int V1_FIELDS = 14;
+
+    private byte[] buf;
+    private int lineStart;
+    private int lineEnd;
+    private final int[] fieldStart = new int[V2_FIELDS];
+    private final int[] fieldEnd = new int[V2_FIELDS];
+    private int fieldCount;
+    private boolean v1;
+
+    private final Cursor hops = new Cursor();
+    private final Cursor communities = new Cursor();
+
+    /**
+     * Points the elem to a new line and records the offsets of its fields
+     * @param buf the buffer that holds the line
+     * @param from the offset of the first byte of the line
+     * @param to the offset after the last byte of the line (excluding the line terminator)
+     * @return true if the line has at least the fields up to the prefix, false otherwise
+     */
+    boolean wrap(byte[] buf, int from, int to) {
+        this.buf = buf;
+        this.lineStart = from;
+        this.lineEnd = to;
+        int count = 0;
+        int fieldFrom = from;
+        // Find the boundaries of all the fields in a single scan, the offsets are stored in the physical order and
+        // are remapped to the v2 layout afterwards
+        for (int i = from; i <= to && count < V2_FIELDS; i++) {
+            if (i == to || buf[i] == '|') {
+                fieldStart[count] = fieldFrom;
+                fieldEnd[count] = i;
+                count++;
+                fieldFrom = i + 1;
+            }
+        }
+        this.v1 = count <= V1_FIELDS;
+        if (v1) {
+            // v1 layout, move the fields after the collector two positions to the right and leave router and
+            // router-ip empty
+            for (int f = count - 1; f > COLLECTOR; f--) {
+                fieldStart[f + 2] = fieldStart[f];
+                fieldEnd[f + 2] = fieldEnd[f];
+            }
+            for (int f = ROUTER; f <= ROUTER_IP && count > ROUTER; f++) {
+                fieldStart[f] = fieldEnd[COLLECTOR];
+                fieldEnd[f] = fieldEnd[COLLECTOR];
+            }
+            count = count > COLLECTOR + 1 ? count + 2 : count;
+        }
+        this.fieldCount = count;
+        return count > PREFIX;
+    }
+
+    /**
+     * @return the position of a field in the wrapped line, which differs from the v2 field index for the fields
+     * after the collector in the v1 layout
+     */
+    int physicalField(int field) {
+        return v1 && field > COLLECTOR ? field - 2 : field;
+    }
+
+    /**
+     * @return the number of fields in the wrapped line, counted in the v2 layout
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param field the index of the field in the v2 layout
+     * @return true if the field exists in the line and is not empty
+     */
+    boolean has(int field) {
+        return field < fieldCount && fieldEnd[field] > fieldStart[field];
+    }
+
+    int fieldStart(int field) {
+        return fieldStart[field];
+    }
+
+    int fieldEnd(int field) {
+        return fieldEnd[field];
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return the offset of the first byte of the wrapped line in the buffer
+     */
+    int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * @return the offset after the last byte of the wrapped line in the buffer
+     */
+    int lineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * @return the elem type (R for RIB entries, A for announcements, W for withdrawals, S for state messages), or
+     * 0 if the line has no elem type
+     */
+    char elemType() {
+        return has(ELEM_TYPE) ? (char) buf[fieldStart[ELEM_TYPE]] : 0;
+    }
+
+    /**
+     * Parses the seconds part of the record timestamp
+     * @return the epoch timestamp in seconds, or -1 if the field is not numeric
+     */
+    int timestamp() {
+        if (!has(TIMESTAMP)) {
+            return -1;
+        }
+        int ts = 0;
+        for (int i = fieldStart[TIMESTAMP]; i < fieldEnd[TIMESTAMP] && buf[i] != '.'; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            ts = ts * 10 + digit;
+        }
+        return ts;
+    }
+
+    /**
+     * Compares a field with a String without copying the field
+     * @param field the index of the field in the v2 layout
+     * @param value the String to compare with
+     * @return true if the field has exactly the same characters as the value
+     */
+    boolean fieldEquals(int field, String value) {
+        return field < fieldCount && regionEquals(fieldStart[field], fieldEnd[field], value);
+    }
+
+    /**
+     * Copies a field into a new String. Use it only for values that need to outlive the elem, e.g. the keys of the
+     * stored routes.
+     * @param field the index of the field in the v2 layout
+     * @return the value of the field, or an empty String if the field doesn't exist
+     */
+    String field(int field) {
+        if (field >= fieldCount) {
+            return "";
+        }
+        return new String(buf, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return a cursor over the hops of the AS path, reset to the first hop
+     */
+    Cursor hops() {
+        hops.reset(AS_PATH);
+        return hops;
+    }
+
+    /**
+     * @return a cursor over the attached communities, reset to the first community
+     */
+    Cursor communities() {
+        communities.reset(COMMUNITIES);
+        return communities;
+    }
+
+    private boolean regionEquals(int from, int to, String value) {
+        if (to - from != value.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (buf[i] != value.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iterates the space-separated tokens of a field, e.g. the hops of the AS path or the attached communities.
+     * The cursors are owned by the elem, so the hops and the communities can be iterated at the same time.
+     */
+    class Cursor {
+        private int limit;
+        private int tokenStart;
+        private int tokenEnd;
+
+        private void reset(int field) {
+            if (field < fieldCount) {
+                tokenEnd = fieldStart[field];
+                limit = fieldEnd[field];
+            } else {
+                tokenEnd = 0;
+                limit = 0;
+            }
+            tokenStart = tokenEnd;
+        }
+
+        /**
+         * Moves to the next token
+         * @return true if there is a next token, false if the end of the field has been reached
+         */
+        boolean next() {
+            int i = tokenEnd;
+            while (i < limit && buf[i] == ' ') {
+                i++;
+            }
+            if (i >= limit) {
+                tokenStart = tokenEnd = limit;
+                return false;
+            }
+            tokenStart = i;
+            while (i < limit && buf[i] != ' ') {
+                i++;
+            }
+            tokenEnd = i;
+            return true;
+        }
+
+        int start() {
+            return tokenStart;
+        }
+
+        int end() {
+            return tokenEnd;
+        }
+
+        boolean tokenEquals(String value) {
+            return regionEquals(tokenStart, tokenEnd, value);
+        }
+
+        String token() {
+            return new String(buf, tokenStart, tokenEnd - tokenStart, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Parses the current token as an ASN
+         * @return the ASN, or -1 if the token is not a plain ASN (e.g. an AS set)
+         */
+        long asn() {
+            if (tokenEnd == tokenStart || tokenEnd - tokenStart > 10) {
+                return -1;
+            }
+            long asn = 0;
+            for (int i = tokenStart; i < tokenEnd; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                asn = asn * 10 + digit;
+            }
+            return asn;
+        }
+    }
+}
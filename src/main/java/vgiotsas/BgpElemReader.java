@@ -0,0 +1,164 @@
+package vgiotsas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Cuts the output of bgpreader into lines and points a {@link BgpElem} to each of them. The lines are never copied
+ * out of the read buffer, the buffer only grows if a single line doesn't fit in it.
+ */
+class BgpElemReader implements ElemSource {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int lineStart = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    // Optional in-process prefix filter, and the position of the prefix in the lines once the layout is known
+    private PrefixTrie prefixFilter = null;
+    private final AddressParser parser = new AddressParser();
+    private int prefixField = -1;
+
+    // Counts of the lines since the last flush to the metrics, which are updated once per buffer fill
+    private long lines = 0;
+    private long rejected = 0;
+    private long filtered = 0;
+    private long elems = 0;
+    private boolean first = true;
+
+    BgpElemReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Skips the lines whose prefix doesn't match the filter. The prefix is found and checked in the raw line, so the
+     * rejected lines are never split into fields.
+     * @param filter the prefixes to keep, or null to keep all the lines
+     */
+    void setPrefixFilter(PrefixTrie filter) {
+        this.prefixFilter = filter;
+    }
+
+    /**
+     * Reads the next line that has at least the fields up to the prefix and wraps it in the given elem. Shorter
+     * lines (e.g. empty lines or bgpreader messages) are skipped.
+     * @param elem the elem to which the line is wrapped
+     * @return true if a line was read, false at the end of the stream
+     * @throws IOException if reading from the stream fails
+     */
+    @Override
+    public boolean next(BgpElem elem) throws IOException {
+        while (true) {
+            int scanFrom = lineStart;
+            int newline = -1;
+            while (newline == -1) {
+                for (int i = scanFrom; i < limit; i++) {
+                    if (buf[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline == -1) {
+                    if (eof) {
+                        if (lineStart >= limit) {
+                            return false;
+                        }
+                        // last line without a line terminator
+                        newline = limit;
+                        break;
+                    }
+                    scanFrom = limit - lineStart;
+                    fill();
+                    scanFrom += lineStart;
+                }
+            }
+            int lineEnd = newline;
+            if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            int from = lineStart;
+            lineStart = Math.min(newline + 1, limit);
+            lines++;
+            if (prefixFilter != null && prefixField >= 0 && !prefixMatches(from, lineEnd)) {
+                filtered++;
+                continue;
+            }
+            if (elem.wrap(buf, from, lineEnd)) {
+                if (prefixFilter != null && prefixField < 0) {
+                    // The first line tells the layout of the stream
+                    prefixField = elem.physicalField(BgpElem.PREFIX);
+                    if (!prefixFilter.matches(parser, buf, elem.fieldStart(BgpElem.PREFIX),
+                            elem.fieldEnd(BgpElem.PREFIX))) {
+                        filtered++;
+                        continue;
+                    }
+                }
+                elems++;
+                if (first) {
+                    first = false;
+                    Metrics.firstElem();
+                }
+                return true;
+            }
+            rejected++;
+        }
+    }
+
+    /**
+     * Finds the prefix in a raw line and checks it against the prefix filter
+     */
+    private boolean prefixMatches(int from, int to) {
+        int field = 0;
+        int fieldFrom = from;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '|') {
+                if (field == prefixField) {
+                    return prefixFilter.matches(parser, buf, fieldFrom, i);
+                }
+                field++;
+                fieldFrom = i + 1;
+            }
+        }
+        return field == prefixField && prefixFilter.matches(parser, buf, fieldFrom, to);
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more bytes after them, growing the buffer if it's
+     * full with a single line
+     */
+    private void fill() throws IOException {
+        flushMetrics();
+        int unread = limit - lineStart;
+        if (lineStart > 0) {
+            System.arraycopy(buf, lineStart, buf, 0, unread);
+        } else if (unread == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        lineStart = 0;
+        limit = unread;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n == -1) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    private void flushMetrics() {
+        Metrics.LINES.add(lines);
+        Metrics.LINES_REJECTED.add(rejected);
+        Metrics.LINES_FILTERED.add(filtered);
+        Metrics.ELEMS.add(elems);
+        lines = rejected = filtered = elems = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushMetrics();
+        in.close();
+    }
+}
@@ -0,0 +1,271 @@
+package vgiotsas;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Online change-point detection on the number of activated routes of every target community, and of every annotated
+ * link of a community, while the routes are monitored. Every series keeps a baseline, an exponentially weighted
+ * moving average of its number of routes over time with a configurable half-life, and every status change of a route
+ * is checked against the baseline of its community and its link as it happens:
+ * <ul>
+ *     <li>{@link #EWMA}: an event is raised when the number of routes deviates from the baseline by more than the
+ *     threshold, as a fraction of the baseline;</li>
+ *     <li>{@link #CUSUM}: the relative deviations beyond the threshold are accumulated, in both directions, and an
+ *     event is raised when a sum exceeds the CUSUM limit, so a smaller but persistent shift is detected too.</li>
+ * </ul>
+ * After an event the baseline follows the series for the settling time and then restarts from the new number of
+ * routes, so a shift raises one event. A series without routes when the monitoring starts is only checked once it
+ * has been observed for one half-life. The deviations of the series with fewer than min_routes routes are relative
+ * to min_routes, so a series that appears or disappears raises an event only if it has enough routes.
+ *
+ * A status change costs a constant number of operations on two series, which are locked separately, and the series
+ * of the links are found by community and link in a primitive index, so the detector can be shared by the shards of a {@link ShardedPipeline}, whose changes are observed up to a few batches apart in
+ * stream time. The events are appended to the events file as they are
+ * raised, one tab-separated line per event: the timestamp, the community, the near-end and far-end ASNs of the link
+ * (empty for the community), drop or rise, the baseline and the number of routes.
+ */
+class ChangeDetector {
+
+    static final String EWMA = "ewma";
+    static final String CUSUM = "cusum";
+
+    private final CommunitySet communities;
+    private final boolean cusum;
+    private final double decayPerSecond;
+    private final int warmupSeconds;
+    private final double threshold;
+    private final double limit;
+    private final int settleSeconds;
+    private final int minRoutes;
+    private final boolean links;
+    private final String eventsFile;
+
+    private final Series[] communitySeries;
+    // The series of every link of a community by the ID of the link and the community, guarded by the index
+    private final LongPairIndex linkIds = new LongPairIndex();
+    private Series[] linkSeries = new Series[16];
+    private long events = 0;
+
+    /**
+     * The number of routes of a community or a link, and its baseline
+     */
+    private static final class Series {
+        int routes = 0;
+        double baseline = 0;
+        double sumDown = 0;
+        double sumUp = 0;
+        // The timestamp of the first and the last observation, -1 until the series is observed
+        int since = -1;
+        int last = -1;
+        // The end of the settling time after the last event
+        int settled = 0;
+    }
+
+    /**
+     * @param communities the target communities
+     * @param method {@link #EWMA} or {@link #CUSUM}
+     * @param halfLifeSeconds the half-life of the baselines, and the time a series is observed before it's checked
+     * @param threshold the relative deviation from the baseline that raises an event with EWMA, or that is tolerated
+     *                  before the deviations are accumulated with CUSUM
+     * @param limit the sum of the relative deviations that raises an event with CUSUM
+     * @param settleSeconds the time after an event during which the baseline follows the series
+     * @param minRoutes the number of routes below which the deviations are relative to min_routes instead of the
+     *                  baseline, so that the series with few routes don't raise events for single routes
+     * @param links true to also check the series of every link of a community
+     * @param eventsFile the file the events are appended to, truncated unless append is true
+     * @param append true to keep the events of a previous run, e.g. when the run resumes from a checkpoint
+     * @throws IOException if the events file can't be created
+     */
+    ChangeDetector(CommunitySet communities, String method, int halfLifeSeconds, double threshold, double limit,
+                   int settleSeconds, int minRoutes, boolean links, String eventsFile, boolean append)
+            throws IOException {
+        if (!method.equals(EWMA) && !method.equals(CUSUM)) {
+            throw new IllegalArgumentException("Unknown change-point method " + method + ", expected " + EWMA +
+                    " or " + CUSUM);
+        }
+        this.communities = communities;
+        this.cusum = method.equals(CUSUM);
+        this.decayPerSecond = Math.log(2) / Math.max(1, halfLifeSeconds);
+        this.warmupSeconds = halfLifeSeconds;
+        this.threshold = threshold;
+        this.limit = limit;
+        this.settleSeconds = settleSeconds;
+        this.minRoutes = Math.max(1, minRoutes);
+        this.links = links;
+        this.eventsFile = eventsFile;
+        this.communitySeries = new Series[communities.size()];
+        for (int c = 0; c < communities.size(); c++) {
+            communitySeries[c] = new Series();
+        }
+        File dir = new File(eventsFile).getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create the directory of the events file " + dir);
+        }
+        new FileOutputStream(eventsFile, append).close();
+    }
+
+    /**
+     * Checks a status change of a route against the baselines of its community and its link
+     * @param community the target community of the route
+     * @param nearEnd the near-end ASN of the annotated link
+     * @param farEnd the far-end ASN of the annotated link
+     * @param ts the epoch timestamp of the change
+     * @param delta 1 for an activation, -1 for a withdrawal
+     */
+    void observe(Community community, int nearEnd, int farEnd, int ts, int delta) {
+        int c = communities.indexOf(community);
+        if (c == CommunitySet.MISSING) {
+            return;
+        }
+        observe(communitySeries[c], c, AsPath.NO_HOP, AsPath.NO_HOP, ts, delta);
+        if (links) {
+            observe(linkSeries(c, nearEnd, farEnd), c, nearEnd, farEnd, ts, delta);
+        }
+    }
+
+    /**
+     * Changes the number of routes of a community and its link, and their baselines, without checking them, e.g.
+     * when the routes of the bootstrap are added to the monitored routes or when they are replaced by a new
+     * generation
+     * @param community the target community of the route
+     * @param nearEnd the near-end ASN of the annotated link
+     * @param farEnd the far-end ASN of the annotated link
+     * @param delta the change of the number of activated routes
+     */
+    void adjust(Community community, int nearEnd, int farEnd, int delta) {
+        int c = communities.indexOf(community);
+        if (c == CommunitySet.MISSING) {
+            return;
+        }
+        adjust(communitySeries[c], delta);
+        if (links) {
+            adjust(linkSeries(c, nearEnd, farEnd), delta);
+        }
+    }
+
+    /**
+     * @return the series of a link of a community, added if the link is new
+     */
+    private Series linkSeries(int community, int nearEnd, int farEnd) {
+        synchronized (linkIds) {
+            int id = linkIds.add(AsPath.link(nearEnd, farEnd), 0, community);
+            if (id == linkSeries.length) {
+                linkSeries = Arrays.copyOf(linkSeries, id * 2);
+            }
+            if (linkSeries[id] == null) {
+                linkSeries[id] = new Series();
+            }
+            return linkSeries[id];
+        }
+    }
+
+    private static void adjust(Series series, int delta) {
+        synchronized (series) {
+            series.routes += delta;
+            series.baseline += delta;
+        }
+    }
+
+    /**
+     * Observes all the series again from scratch, e.g. when a new generation of routes replaces the monitored one
+     */
+    void restart() {
+        for (Series series : communitySeries) {
+            restart(series);
+        }
+        synchronized (linkIds) {
+            for (int id = 0; id < linkIds.size(); id++) {
+                restart(linkSeries[id]);
+            }
+        }
+    }
+
+    private static void restart(Series series) {
+        synchronized (series) {
+            series.since = -1;
+            series.last = -1;
+            series.sumDown = 0;
+            series.sumUp = 0;
+        }
+    }
+
+    private void observe(Series series, int community, int nearEnd, int farEnd, int ts, int delta) {
+        String kind = null;
+        double baseline;
+        int routes;
+        synchronized (series) {
+            if (series.since < 0) {
+                // A series with routes before its first change has been stable since the routes were counted,
+                // a new series is observed for one half-life before it's checked
+                series.since = series.routes > 0 ? ts - warmupSeconds : ts;
+                series.last = ts;
+                series.baseline = series.routes;
+            }
+            // The number of routes before the change held since the last observation
+            int elapsed = ts - series.last;
+            if (elapsed > 0) {
+                series.baseline += (1 - Math.exp(-decayPerSecond * elapsed)) * (series.routes - series.baseline);
+                series.last = ts;
+            }
+            series.routes += delta;
+            routes = series.routes;
+            baseline = series.baseline;
+            if (ts - series.since < warmupSeconds || ts < series.settled) {
+                // The baseline follows the series until it has been observed for one half-life, and after an event
+                // until the shift has settled
+                series.baseline = routes;
+                return;
+            }
+            double deviation = (routes - baseline) / Math.max(baseline, minRoutes);
+            if (cusum) {
+                series.sumDown = Math.max(0, series.sumDown - deviation - threshold);
+                series.sumUp = Math.max(0, series.sumUp + deviation - threshold);
+                if (series.sumDown > limit) {
+                    kind = "drop";
+                } else if (series.sumUp > limit) {
+                    kind = "rise";
+                }
+            } else if (Math.abs(deviation) > threshold) {
+                kind = deviation < 0 ? "drop" : "rise";
+            }
+            if (kind != null) {
+                series.baseline = routes;
+                series.sumDown = 0;
+                series.sumUp = 0;
+                series.settled = ts + settleSeconds;
+            }
+        }
+        if (kind != null) {
+            emit(ts, communities.get(community), nearEnd, farEnd, kind, baseline, routes);
+        }
+    }
+
+    private synchronized void emit(int ts, Community community, int nearEnd, int farEnd, String kind,
+                                   double baseline, int routes) {
+        events++;
+        Metrics.CHANGE_POINTS.increment();
+        String line = ts + "\t" + community + "\t" + AsPath.toString(nearEnd) + "\t" + AsPath.toString(farEnd) +
+                "\t" + kind + "\t" + String.format("%.1f", baseline) + "\t" + routes;
+        System.out.println("Change point: " + line.replace('\t', ' '));
+        // The events are rare, so the file is only open while an event is appended to it
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(eventsFile, true), StandardCharsets.UTF_8)) {
+            out.write(line);
+            out.write('\n');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the number of events raised so far
+     */
+    synchronized long events() {
+        return events;
+    }
+}
@@ -0,0 +1,252 @@
+package vgiotsas;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Checkpoint of the monitoring state, from which the monitoring of the annotated routes can be resumed after a
+ * crash instead of starting over with the bootstrap and the stability period: the annotated routes with their
+ * status and history, the collectors, peers and prefixes of the routes, the timeline, and the timestamp from which
+ * the stream must be read again.
+ *
+ * Layout of the file (big-endian):
+ * <magic>|<version>|<created-ms>|<resume-ts>|<end-ts>|<communities>|<keep-history>|
+ *  <collectors>|<peers>|<prefixes>|<table-count>|<routes of every table>|<has-timeline>|<timeline>
+ * Strings are stored in modified UTF-8, string sets as their size followed by the strings. The routes are stored as
+ * in {@link RouteTable#write} and the timeline as in {@link CommunityTimeline#write}.
+ */
+class Checkpoint {
+
+    private static final int MAGIC = 0x4350434B; // "CPCK"
+    static final int VERSION = 1;
+
+    final Result result;
+    final int resumeTs;
+    final int end;
+    final String communities;
+    final boolean keepHistory;
+
+    private Checkpoint(Result result, int resumeTs, int end, String communities, boolean keepHistory) {
+        this.result = result;
+        this.resumeTs = resumeTs;
+        this.end = end;
+        this.communities = communities;
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * Takes a checkpoint at regular intervals of the stream time. The status of the routes and the counters of the
+     * timeline are copied while the stream is stopped, which only takes a copy of a few arrays, and the checkpoint
+     * is written on a background thread while the stream goes on. If the previous checkpoint is still being written
+     * the next one is skipped.
+     */
+    static class Scheduler implements ShardedPipeline.Barrier, Closeable {
+
+        private final String file;
+        private final int interval;
+        private final int end;
+        private final String communities;
+        private final boolean keepHistory;
+        private final IntFunction<List<Result>> results;
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        private Future<?> pending = null;
+        private long next;
+
+        /**
+         * @param file the path to the checkpoint file, replaced by every checkpoint
+         * @param start the epoch timestamp of the start of the monitoring
+         * @param end the epoch timestamp of the end of the monitoring
+         * @param intervalSeconds the interval between the checkpoints in stream time
+         * @param communities the target communities, to check that a resumed run has the same targets
+         * @param keepHistory true if the routes keep the history of their status changes
+         * @param results returns the results to checkpoint at a timestamp, called while the stream is stopped
+         */
+        Scheduler(String file, int start, int end, int intervalSeconds, String communities, boolean keepHistory,
+                  IntFunction<List<Result>> results) {
+            this.file = file;
+            this.interval = Math.max(1, intervalSeconds);
+            this.end = end;
+            this.communities = communities;
+            this.keepHistory = keepHistory;
+            this.results = results;
+            this.next = (long) start + this.interval;
+        }
+
+        @Override
+        public boolean due(int ts) {
+            return ts >= next;
+        }
+
+        /**
+         * Takes a checkpoint, all the elems before the given timestamp must have been processed
+         * @param ts the timestamp of the next elem, from which the stream is read again when the run is resumed
+         */
+        @Override
+        public void reached(int ts) {
+            while (next <= ts) {
+                next += interval;
+            }
+            if (pending != null && !pending.isDone()) {
+                System.out.println("Skipping the checkpoint at " + ts + ", the previous one is still being written");
+                return;
+            }
+            List<Result> checkpointed = results.apply(ts);
+            List<RouteTable.StatusSnapshot> snapshots = new ArrayList<>();
+            CommunityTimeline timeline = null;
+            for (Result result : checkpointed) {
+                snapshots.add(result.getRoutes().snapshotStatus());
+                if (result.getTimeline() != null) {
+                    timeline = result.getTimeline();
+                }
+            }
+            CommunityTimeline checkpointedTimeline = timeline;
+            int[] counts = timeline == null ? null : timeline.copyCounts();
+            pending = writer.submit(() -> {
+                long started = System.currentTimeMillis();
+                write(file, ts, end, communities, keepHistory, checkpointed, snapshots, checkpointedTimeline,
+                        counts);
+                System.out.println("Wrote checkpoint " + file + " at " + ts + " in " +
+                        (System.currentTimeMillis() - started) + " ms");
+                return null;
+            });
+        }
+
+        /**
+         * Waits until the last checkpoint is written
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (pending != null) {
+                    pending.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } finally {
+                writer.shutdown();
+            }
+        }
+    }
+
+    private static void write(String checkpointFile, int resumeTs, int end, String communities, boolean keepHistory,
+                              List<Result> results, List<RouteTable.StatusSnapshot> snapshots,
+                              CommunityTimeline timeline, int[] counts) throws IOException {
+        File tmp = new File(checkpointFile + ".tmp");
+        File dir = tmp.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create the directory of the checkpoint " + dir);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(resumeTs);
+            out.writeInt(end);
+            out.writeUTF(communities);
+            out.writeBoolean(keepHistory);
+
+            HashSet<String> collectors = new HashSet<>();
+            HashSet<String> peers = new HashSet<>();
+            HashSet<String> prefixes = new HashSet<>();
+            for (Result result : results) {
+                collectors.addAll(result.getCollectors());
+                peers.addAll(result.getPeers());
+                prefixes.addAll(result.getPrefixes());
+            }
+            writeSet(out, collectors);
+            writeSet(out, peers);
+            writeSet(out, prefixes);
+
+            out.writeInt(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                results.get(i).getRoutes().write(out, snapshots.get(i));
+            }
+            out.writeBoolean(timeline != null);
+            if (timeline != null) {
+                timeline.write(out, counts);
+            }
+        }
+        File target = new File(checkpointFile);
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            throw new IOException("Unable to move " + tmp + " to " + target);
+        }
+    }
+
+    /**
+     * Reads a checkpoint file
+     * @param checkpointFile the path to the checkpoint file
+     * @param targets the target communities, which index the timeline
+     * @return the checkpoint, or null if the file is not a checkpoint of the current version
+     * @throws IOException if the file can't be read
+     */
+    static Checkpoint read(String checkpointFile, CommunitySet targets) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile),
+                1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                System.err.println(checkpointFile + " is not a checkpoint");
+                return null;
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                System.err.println("Checkpoint version " + version + " is not supported, expected " + VERSION);
+                return null;
+            }
+            in.readLong(); // creation time
+            int resumeTs = in.readInt();
+            int end = in.readInt();
+            String communities = in.readUTF();
+            boolean keepHistory = in.readBoolean();
+
+            HashSet<String> collectors = readSet(in);
+            HashSet<String> peers = readSet(in);
+            HashSet<String> prefixes = readSet(in);
+            RouteTable routes = new RouteTable();
+            int tables = in.readInt();
+            for (int i = 0; i < tables; i++) {
+                routes.read(in);
+            }
+            Result result = new Result(collectors, peers, prefixes, routes);
+            if (in.readBoolean()) {
+                result.resumeTimeline(CommunityTimeline.read(in, targets), keepHistory);
+            }
+            return new Checkpoint(result, resumeTs, end, communities, keepHistory);
+        }
+    }
+
+    private static void writeSet(DataOutputStream out, HashSet<String> set) throws IOException {
+        out.writeInt(set.size());
+        for (String s : set) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static HashSet<String> readSet(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        HashSet<String> set = new HashSet<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            set.add(in.readUTF());
+        }
+        return set;
+    }
+}
@@ -7,48 +7,76 @@ import org.kohsuke.args4j.CmdLineParser;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
 
 import static org.kohsuke.args4j.ExampleMode.ALL;
 
-class CliParser {
+class CliParser extends QueryOptions {
 
     private final static String defaultCollectors = "all";
 
     private final static String defaultFacilities = "all";
 
     @Option(name = "--period",
-            required=true,
-            usage="Time period for which BGP data will be collected.\nFormat: YYYYMMDD.hhmm,YYYYMMDD.hhmm")
+            required=false,
+            usage="Time period for which BGP data will be collected, required unless --live is given.\n" +
+                    "Format: YYYYMMDD.hhmm,YYYYMMDD.hhmm")
     private String period = "";
 
-    @Option(name="--communities",
-            required=true,
-            usage="Comma-separated list of 32-bit BGP Community values.")
-    private String communities = "";
+    @Option(name="--queries",
+            required=false,
+            forbids={"--communities", "--facilities", "--live", "--resume"},
+            usage="File with one query per line, each with its own --communities, --facilities, --overlap and " +
+                    "--outdir. All the queries are answered in one pass over the BGP data.")
+    private String queries = "";
 
     @Option(name="--collectors",
             required=false,
             usage="Comma-separated list of BGP Collectors.")
     private String collectors = defaultCollectors;
 
-    @Option(name="--outdir",
+    @Option(name="--offline",
+            required=false,
+            usage="Don't contact PeeringDB and Euro-IX, use the cached responses or local stand-ins of the endpoints.")
+    private boolean offline = false;
+
+    @Option(name="--mrt",
+            required=false,
+            usage="Comma-separated list of local MRT files or directories (TABLE_DUMP_V2 RIBs and BGP4MP updates, " +
+                    "optionally gz/bz2 compressed) to parse in-process instead of running bgpreader.")
+    private String mrt = "";
+
+    @Option(name="--bin",
             required=false,
-            usage="Path to the output directory.")
-    private String outdir = ".";
+            usage="Width of the bins of the output timelines in seconds.")
+    private int bin = CommunityTimeline.DEFAULT_BIN_SECONDS;
 
-    @Option(name="--facilities",
+    @Option(name="--format",
             required=false,
-            usage="Comma-separated list of facility names to restrict the scope of the analyzed AS links.")
-    private String facilities = defaultFacilities;
+            usage="Format of the output: text (one file per community) or binary (one indexed file for all the " +
+                    "communities).")
+    private String format = ResultWriter.TEXT;
 
-    @Option(name="--overlap",
+    @Option(name="--live",
             required=false,
-            depends={"--facilities"},
-            usage="Number of maximum overlapping facilities between the near-end and far-end ASes " +
-                    "in the cities of the facilities defined in the `--facilities` parameter.")
-    private int overlap=-1;
+            usage="Monitor a live stream that starts now (or at the start of --period) and has no end, " +
+                    "appending the timeline bins to the output files as they close.")
+    private boolean live = false;
+
+    @Option(name="--resume",
+            required=false,
+            usage="Resume the monitoring of an interrupted run with the same arguments from its last checkpoint, " +
+                    "see the checkpoint_minutes property.")
+    private boolean resume = false;
+
+    @Option(name="--backfill",
+            required=false,
+            forbids={"--live", "--resume", "--queries"},
+            usage="Split the monitoring period in N time slices that are parsed in parallel, each by its own " +
+                    "bgpreader, and stitch them into the same output as a serial run.")
+    private int backfill = 0;
 
     @Option(name = "-h", aliases = "--help", required = false, usage = "Print help text")
     private boolean printHelp = false;
@@ -102,21 +130,41 @@ class CliParser {
         String[] period;
         long startTs = 0;
         long endTs = 0;
-        // parse the period argument
-        try{
-            period = this.period.split(",");
-            startTs = this.dateToEpoch(period[0]);
-            endTs = this.dateToEpoch(period[1]);
-            if (startTs >= endTs){
+        // parse the period argument, a live stream without a period starts now and has no end
+        if (this.live && this.period.isEmpty()){
+            startTs = Instant.now().getEpochSecond();
+            endTs = Integer.MAX_VALUE;
+        }
+        else {
+            try{
+                period = this.period.split(",");
+                startTs = this.dateToEpoch(period[0]);
+                endTs = this.dateToEpoch(period[1]);
+                if (startTs >= endTs){
+                    System.err.println("The period argument is invalid. " +
+                            "The start datetime should be before the end datetime.");
+                    System.exit(-1);
+                }
+            }
+            catch (java.lang.ArrayIndexOutOfBoundsException e) {
                 System.err.println("The period argument is invalid. " +
-                        "The start datetime should be before the end datetime.");
+                        "Please provide two comma-separated datetimes in the format YYYMMMDD.hhmm " +
+                        "(e.g. 20180124.0127,20180125.1010).");
                 System.exit(-1);
             }
         }
-        catch (java.lang.ArrayIndexOutOfBoundsException e) {
-            System.err.println("The period argument is invalid. " +
-                    "Please provide two comma-separated datetimes in the format YYYMMMDD.hhmm " +
-                    "(e.g. 20180124.0127,20180125.1010).");
+
+        if (this.communities.isEmpty() && this.queries.isEmpty()){
+            System.err.println("The communities argument is missing. Please provide the target communities with " +
+                    "--communities, or a file of queries with --queries.");
+            System.exit(-1);
+        }
+        if (this.bin <= 0){
+            System.err.println("The bin argument is invalid. The bin width should be a positive number of seconds.");
+            System.exit(-1);
+        }
+        if (!this.format.equals(ResultWriter.TEXT) && !this.format.equals(ResultWriter.BINARY)){
+            System.err.println("The format argument is invalid. The format should be text or binary.");
             System.exit(-1);
         }
 
@@ -127,6 +175,26 @@ class CliParser {
         cliArgs.put("outdir", this.outdir);
         cliArgs.put("facilities", this.facilities);
         cliArgs.put("overlap", Long.toString(this.overlap));
+        cliArgs.put("bin", Integer.toString(this.bin));
+        cliArgs.put("format", this.format);
+        if (this.offline) {
+            cliArgs.put("offline", "true");
+        }
+        if (this.live) {
+            cliArgs.put("live", "true");
+        }
+        if (this.resume) {
+            cliArgs.put("resume", "true");
+        }
+        if (!this.queries.isEmpty()) {
+            cliArgs.put("queries", this.queries);
+        }
+        if (this.backfill > 1) {
+            cliArgs.put("backfill", Integer.toString(this.backfill));
+        }
+        if (!this.mrt.isEmpty()) {
+            cliArgs.put("mrt", this.mrt);
+        }
         return cliArgs;
     }
 
@@ -6,61 +6,271 @@ import org.apache.commons.compress.compressors.CompressorStreamFactory;
 
 import java.io.*;
 import java.util.*;
-import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 class CommunitiesParser implements Parser {
 
     private HashMap<String, String> routeServerASNs;
+    // Route Server ASNs sorted for binary search, and the IDs of the corresponding IXPs in the colocation map
+    private int[] rsAsns = new int[0];
+    private int[] rsIxps = new int[0];
     private PeeringCartographer.ColocationMap coloMap;
-    private HashMap<String, Integer> relationships = null;
+    private AsRelationships relationships = null;
     private HashMap<String, String> properties;
     private static Result result;
-    private static boolean monitoring = false;
+    private Datasets datasets = null;
+    // Completes when the datasets that are needed to parse the BGP data have been loaded and indexed
+    private CompletableFuture<Void> datasetsReady = CompletableFuture.completedFuture(null);
+    private final HttpCache httpCache;
+    // The target communities, the ASNs that define them and the IDs of the target facilities
+    private CommunitySet targetCommunities = new CommunitySet();
+    private int[] targetAsns = new int[0];
+    private int[] facilityIds = new int[0];
+    private int requestedOverlap = -1;
+    // The timing of the phases of this parser, shared by the engines of all the shards and queries of its stream
+    private final Metrics.Phases phases = new Metrics.Phases();
     CommunitiesParser(HashMap<String, String> properties) {
+        this(properties, null);
+    }
+
+    /**
+     * @param properties the command-line arguments and the configuration properties
+     * @param datasets the reference datasets loaded from a snapshot, or null to load them from their sources
+     */
+    CommunitiesParser(HashMap<String, String> properties, Datasets datasets) {
         this.properties = properties;
+        this.datasets = datasets;
+        this.httpCache = HttpCache.fromProperties(properties);
     }
 
-    Thread t1 = new Thread(new Runnable(){
-        public void run(){
-            Date date = new Date();
-            Long currentTs = Instant.now().getEpochSecond();
+    /**
+     * Loads all the reference datasets from their source files and URLs
+     * @return the loaded datasets
+     */
+    Datasets loadDatasets(){
+        return loadDatasetsAsync(true).join();
+    }
 
-            try {
-                while(CommunitiesParser.monitoring){
-                    int routesNum = 0;
-                    synchronized (this) {
-                        for (String k : CommunitiesParser.result.getRoutes().keySet()) {
-                            routesNum += CommunitiesParser.result.getRoutes().get(k).size();
-                        }
-                    }
-                    System.out.println(routesNum);
-                    Thread.sleep(60000);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Starts loading the reference datasets in parallel. Each loader runs on its own thread and reports how long it
+     * took. The PeeringDB facilities are only loaded if they are needed.
+     * @param withFacilities true to load the facility memberships from PeeringDB
+     * @return a future that completes when all the datasets have been loaded
+     */
+    CompletableFuture<Datasets> loadDatasetsAsync(boolean withFacilities){
+        ExecutorService loaders = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "dataset-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        // Construct the colocation map
+        CompletableFuture<PeeringCartographer.ColocationMap> facilities = withFacilities
+                ? timed("PeeringDB facilities", () -> PeeringCartographer.getFacilityMap(this.httpCache,
+                        this.properties.get("pdb_netfac_url")), loaders)
+                : CompletableFuture.completedFuture(new PeeringCartographer.ColocationMap());
+        CompletableFuture<HashMap<String, int[]>> ixpMembers = timed("IXP members",
+                () -> PeeringCartographer.getIXPMembers(
+                        this.properties.get("ix_dataset"),
+                        this.properties.get("ix_asn_dataset")), loaders);
+
+        // Read the external datasets
+        CompletableFuture<AsRelationships> relationships = timed("AS relationships",
+                () -> readRelationships(this.properties.get("relationships_file")), loaders);
+        CompletableFuture<HashMap<String, String>> routeServerASNs = timed("Route Server ASNs",
+                () -> PeeringCartographer.getRouteServerASNs(this.httpCache,
+                        this.properties.get("pdb_rsasn_url"),
+                        this.properties.get("euroix_url")), loaders);
+
+        CompletableFuture<Datasets> datasets = CompletableFuture
+                .allOf(facilities, ixpMembers, relationships, routeServerASNs)
+                .thenApply(v -> {
+                    PeeringCartographer.ColocationMap coloMap = facilities.join();
+                    ixpMembers.join().forEach(coloMap::addIxp);
+                    return new Datasets(coloMap, relationships.join(), routeServerASNs.join());
+                });
+        datasets.whenComplete((d, e) -> loaders.shutdown());
+        return datasets;
+    }
+
+    /**
+     * Runs a dataset loader asynchronously and prints its duration
+     * @param name the name of the dataset
+     * @param loader the function that loads the dataset
+     * @param executor the executor that runs the loader
+     * @return the future of the loaded dataset
+     */
+    private static <T> CompletableFuture<T> timed(String name, Supplier<T> loader, ExecutorService executor){
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            T dataset = loader.get();
+            System.out.println("Loaded " + name + " in " + (System.currentTimeMillis() - start) + " ms");
+            return dataset;
+        }, executor);
+    }
+
+    /**
+     * Blocks until the datasets that are needed to parse the BGP data are ready
+     */
+    private void awaitDatasets(){
+        this.datasetsReady.join();
+    }
+
+    /**
+     * Starts a bgpreader process. Its output is drained into a bounded in-memory buffer, so that bgpreader keeps
+     * running while the caller is waiting for the datasets.
+     * @param command the bgpreader command
+     * @return the buffered stdout of bgpreader
+     * @throws IOException if the process can't be started
+     */
+    private PrefetchingInputStream startBgpreader(String command) throws IOException {
+        // stderr goes straight to ours, otherwise a verbose bgpreader fills the pipe and blocks
+        Process child = new ProcessBuilder(command.trim().split("\\s+"))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int bufferMb = Integer.parseInt(this.properties.getOrDefault("bgpreader_buffer_mb", "64"));
+        return new PrefetchingInputStream(child.getInputStream(), bufferMb << 20, "bgpreader-stdout");
+    }
+
+    /**
+     * Opens the BGP stream of a pass, either by running bgpreader or, if MRT archives were given with --mrt, by
+     * decoding the archives in-process. The bgpreader filters of the command are not applied to the archives, the
+     * passes check the peers and prefixes of the elems themselves.
+     * @param command the bgpreader command
+     * @param start the start of the time window in epoch seconds
+     * @param end the end of the time window in epoch seconds
+     * @param ribs true to read RIB dumps
+     * @param updates true to read updates
+     * @param prefixFilter the prefixes of the elems to keep, or null to keep all the elems. The other elems are
+     *                     dropped before they are parsed.
+     * @return the stream of elems
+     */
+    private ElemSource openElems(String command, int start, int end, boolean ribs, boolean updates,
+                                 PrefixTrie prefixFilter) throws IOException {
+        String mrt = this.properties.get("mrt");
+        if (mrt != null && !mrt.isEmpty()) {
+            int batchSize = Integer.parseInt(this.properties.getOrDefault("merge_batch_size", "1024"));
+            int queueDepth = Integer.parseInt(this.properties.getOrDefault("merge_queue_depth", "16"));
+            return MrtReader.open(mrt, this.properties.get("collectors"), start, end, ribs, updates, batchSize,
+                    queueDepth, prefixFilter);
         }
-    });
+        System.out.println(command);
+        BgpElemReader reader = new BgpElemReader(startBgpreader(command));
+        reader.setPrefixFilter(prefixFilter);
+        return reader;
+    }
 
     /**
-     * Executes the different phases of the parsing process
+     * Builds the in-process prefix filter of the passes that follow the initial pass. bgpreader also gets the
+     * prefixes with -k when the list is short enough, otherwise the trie is the only prefix filter.
+     * @return the trie of the prefixes of the annotated routes
+     */
+    private PrefixTrie annotatedPrefixes() {
+        PrefixTrie trie = PrefixTrie.fromPrefixes(this.result.getPrefixes());
+        System.out.println("In-process prefix filter with " + trie.size() + " prefixes");
+        return trie;
+    }
+
+    /**
+     * Executes the different phases of the parsing process, with its metrics exposed
      */
     @Override
     public void startParser(){
-        // Construct the colocation map
-        coloMap = PeeringCartographer.getColoMap(
-                this.properties.get("pdb_netfac_url"),
-                this.properties.get("ix_dataset"),
-                this.properties.get("ix_asn_dataset")
-        );
+        Metrics.expose(Integer.parseInt(this.properties.getOrDefault("metrics_port", "0")));
+        Metrics.publishPhases(this.phases);
+        Metrics.Registration routes = Metrics.annotatedRoutes(() -> {
+            Result current = CommunitiesParser.result;
+            return current == null ? 0 : current.routeCount();
+        });
+        try {
+            executePhases();
+        } finally {
+            routes.close();
+        }
+    }
 
-        // Read the external datasets
+    /**
+     * Executes the phases with the engine of the options, see {@link #startParser()}
+     */
+    private void executePhases(){
+        // Load the datasets in the background, the initial pass starts bgpreader right away and waits for them only
+        // before it parses the first elem. The facility maps are only needed to filter the far-end hops.
+        long loadStart = System.currentTimeMillis();
+        boolean needFacilities = !this.properties.get("facilities").equals(CliParser.getDefaultFacilities());
+        // With a queries file every query has its own targets, the stream is parsed once for all of them
+        List<Query> queries = null;
+        String queriesFile = this.properties.getOrDefault("queries", "");
+        if (!queriesFile.isEmpty()) {
+            queries = Query.read(queriesFile);
+            if (queries == null) {
+                return;
+            }
+            needFacilities = false;
+            for (Query query : queries) {
+                needFacilities |= !query.facilities().isEmpty();
+            }
+        }
+        CompletableFuture<Datasets> loading = this.datasets != null
+                ? CompletableFuture.completedFuture(this.datasets)
+                : loadDatasetsAsync(needFacilities);
+        this.datasetsReady = loading.thenAccept(d -> {
+            useDatasets(d);
+            System.out.println("Datasets ready in " + (System.currentTimeMillis() - loadStart) + " ms");
+        });
 
-        this.relationships = readRelationships(this.properties.get("relationships_file"));
+        int start_ts = Integer.parseInt(this.properties.get("start"));
+        int init_start = start_ts - 3600*24;
+        List<String> requestedFacilities = new ArrayList<>();
+        if (!this.properties.get("facilities").equals(CliParser.getDefaultFacilities())){
+            requestedFacilities = Arrays.asList(this.properties.get("facilities").split(","));
+        }
+        int requestedOverlap = Integer.parseInt(this.properties.get("overlap"));
+
+        if (queries != null) {
+            int stability_end = start_ts + Integer.parseInt(this.properties.get("stability_hours")) * 3600;
+            queryAnnotatedPaths(queries, init_start, start_ts, stability_end,
+                    Integer.parseInt(this.properties.get("end")));
+            return;
+        }
 
-        this.routeServerASNs = PeeringCartographer.getRouteServerASNs(
-                this.properties.get("pdb_rsasn_url"),
-                this.properties.get("euroix_url"));
+        // In live mode the stream has no end, the annotated routes are bootstrapped again periodically
+        if (Boolean.parseBoolean(this.properties.getOrDefault("live", "false"))){
+            liveAnnotatedPaths(start_ts, requestedFacilities, requestedOverlap);
+            return;
+        }
+
+        if (Boolean.parseBoolean(this.properties.getOrDefault("resume", "false"))){
+            resumeAnnotatedPaths(requestedFacilities, requestedOverlap);
+            return;
+        }
+
+        // A long period can be backfilled with the monitoring period split in slices that are parsed in parallel
+        int slices = Integer.parseInt(this.properties.getOrDefault("backfill", "0"));
+        if (slices > 1){
+            backfillAnnotatedPaths(slices, init_start, start_ts, requestedFacilities, requestedOverlap);
+            return;
+        }
+
+        // By default a single bgpreader stream is parsed by the streaming engine, the "passes" engine runs bgpreader
+        // once for each phase
+        if (!this.properties.getOrDefault("engine", "stream").equals("passes")){
+            int stability_end = start_ts + Integer.parseInt(this.properties.get("stability_hours")) * 3600;
+            int monitoring_end = Integer.parseInt(this.properties.get("end"));
+            this.result = streamAnnotatedPaths(init_start, start_ts, stability_end, monitoring_end,
+                    requestedFacilities, requestedOverlap);
+            if (this.result.routeCount() > 0){
+                System.out.println("Calculate timeline");
+                HashMap<String, Result.TimeLine> communitiesTimeline = this.result.getCommunitiesTimeline();
+                System.out.println("Write output");
+                writeResults(stability_end, monitoring_end, communitiesTimeline);
+            }
+            return;
+        }
 
         String optionalArgs = this.constructOptionalArgs(
                 this.properties.get("collectors"),
@@ -68,21 +278,11 @@ class CommunitiesParser implements Parser {
                 "",
                 "");
         // Run an initial pass to find if there are any routes annotated with the target communities
-        int start_ts = Integer.parseInt(this.properties.get("start"));
-        int init_start = start_ts - 3600*24;
-        List<String> requestedFacilities = new ArrayList<>();
-        if (!this.properties.get("facilities").equals(CliParser.getDefaultFacilities())){
-            requestedFacilities = Arrays.asList(this.properties.get("facilities").split(","));
-        }
-
-        int requestedOverlap = Integer.parseInt(this.properties.get("overlap"));
+        this.phases.enter(StreamEngine.BOOTSTRAP);
         this.result = getAnnotatedPaths(optionalArgs, init_start, start_ts, requestedFacilities, requestedOverlap);
 
         // If the initial pass discovered annotated routes, filter-out the unstable ones
-        int routesNum = 0;
-        for (String k: this.result.getRoutes().keySet()) {
-            routesNum += this.result.getRoutes().get(k).size();
-        }
+        int routesNum = this.result.routeCount();
 
         System.out.println("Annotated routes after initial pass: " + routesNum);
         if (routesNum > 0){
@@ -94,14 +294,10 @@ class CommunitiesParser implements Parser {
                     String.join(", ", this.result.getPeers()),
                     String.join(", ", this.result.getPrefixes())
             );
-            this.monitoring = true;
-            t1.start();
+            this.phases.enter(StreamEngine.STABILITY);
             filterUnstablePaths(optionalArgs, start_ts, stability_end);
             // check if there are any routes left after filtering-out the unstable ones
-            routesNum = 0;
-            for (String k: this.result.getRoutes().keySet()) {
-                routesNum += this.result.getRoutes().get(k).size();
-            }
+            routesNum = this.result.routeCount();
             System.out.println("Annotated routes after filtering: " + routesNum);
             // if we still have annotated routes left, start monitoring their updates for the duration of the measurement period
             if (routesNum > 0){
@@ -113,8 +309,10 @@ class CommunitiesParser implements Parser {
                         String.join(", ", this.result.getPrefixes())
                 );
 
+                this.result.trackTimeline(newTimeline(stability_end, monitoring_end), keepRouteHistory());
+                this.phases.enter(StreamEngine.MONITORING);
                 monitorAnnotatedPaths(optionalArgs, stability_end, monitoring_end);
-                this.monitoring = false;
+                this.phases.enter(StreamEngine.FINISHED);
                 System.out.println("Calculate timeline");
                 // Parse the results to generate the timeline of routes annotated with target communities
                 HashMap<String, Result.TimeLine> communitiesTimeline = this.result.getCommunitiesTimeline();
@@ -125,51 +323,326 @@ class CommunitiesParser implements Parser {
         }
     }
 
-    @Override
-    public void writeResults(int startTs, int endTs, HashMap<String, Result.TimeLine> communitiesTimeline){
-        PrintWriter writer = null;
+    /**
+     * Resumes the monitoring of the annotated routes from the last checkpoint of an interrupted run, instead of
+     * bootstrapping the routes and filtering the unstable ones again, and writes the results.
+     * @param targetFacilities the names of the facilities where the far-end hops must be colocated, empty for all
+     * @param requestedOverlap the number of facilities the far-end hops must have in the city of the target facility
+     */
+    private void resumeAnnotatedPaths(List<String> targetFacilities, int requestedOverlap){
+        awaitDatasets();
+        indexTargets(targetFacilities, requestedOverlap);
+        String file = checkpointFile();
+        Checkpoint checkpoint;
         try {
+            checkpoint = Checkpoint.read(file, this.targetCommunities);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (checkpoint == null) {
+            return;
+        }
+        if (!checkpoint.communities.equals(this.properties.get("communities"))) {
+            System.err.println("The checkpoint " + file + " is for the communities " + checkpoint.communities +
+                    ", not " + this.properties.get("communities"));
+            return;
+        }
+        this.result = checkpoint.result;
+        ChangeDetector detector = newDetector(true);
+        if (detector != null) {
+            this.result.detectChanges(detector);
+        }
+        System.out.println("Resuming the monitoring of " + this.result.routeCount() + " annotated routes at " +
+                checkpoint.resumeTs);
+        String optionalArgs = this.constructOptionalArgs(
+                String.join(", ", this.result.getCollectors()),
+                "",
+                String.join(", ", this.result.getPeers()),
+                String.join(", ", this.result.getPrefixes())
+        );
+        this.phases.enter(StreamEngine.MONITORING);
+        monitorAnnotatedPaths(optionalArgs, checkpoint.resumeTs, checkpoint.end);
+        this.phases.enter(StreamEngine.FINISHED);
+        System.out.println("Calculate timeline");
+        HashMap<String, Result.TimeLine> communitiesTimeline = this.result.getCommunitiesTimeline();
+        System.out.println("Write output");
+        writeResults(checkpoint.resumeTs, checkpoint.end, communitiesTimeline);
+    }
 
-            for (String community : communitiesTimeline.keySet()){
-                writer = new PrintWriter(community+"-results.txt", "UTF-8");
-                Map<Integer, Integer> tsMap = new TreeMap<>(communitiesTimeline.get(community).pathsByTs);
-                //Set<Integer, Integer> timestamps = tsMap.entrySet();
-
-                int nextMinute = startTs;
-                Iterator<Integer> itr = tsMap.keySet().iterator();
-                int nextTs = itr.next();
-                //Map.Entry<Integer, Integer> tsEntry = tsMap.entrySet().iterator().next();
-                //int nextTs = tsEntry.getKey();
-                int nextValue = tsMap.get(nextTs);
-                int totalPaths = 0;
-                while (nextTs < nextMinute){
-                    totalPaths += nextValue;
-                    nextTs = itr.next();
-                    nextValue = tsMap.get(nextTs);
-                }
+    /**
+     * Backfills the measurement period with the monitoring period split in time slices that are monitored in
+     * parallel, each by its own bgpreader, instead of one serial stream of updates. The bootstrap and the stability
+     * phases run first with the engine of the engine property, since a serial run only finds the annotated routes
+     * before the monitoring starts. Every slice then monitors its own copy of the annotated routes, starting from
+     * their status after the stability phase, and adds their status changes to the same timeline.
+     *
+     * A slice doesn't know the status of the routes at its start, i.e. their status at the end of the previous
+     * slice, so the slices are stitched in time order once they are all done. The first update of a route in a
+     * slice is where a serial run changes the route from its status at the end of the previous slice, instead of the
+     * status the slice started from, so the difference is added to the timeline at the time of that update. The
+     * routes that a slice doesn't update keep their status into the next slice. The output is the same as the output
+     * of a serial run.
+     *
+     * @param slices the number of time slices of the monitoring period
+     * @param init_start the start of the bootstrap day
+     * @param start_ts the start of the measurement period
+     * @param targetFacilities the names of the facilities where the far-end hops must be colocated, empty for all
+     * @param requestedOverlap the number of facilities the far-end hops must have in the city of the target facility
+     */
+    private void backfillAnnotatedPaths(int slices, int init_start, int start_ts, List<String> targetFacilities,
+                                        int requestedOverlap){
+        int stability_end = start_ts + Integer.parseInt(this.properties.get("stability_hours")) * 3600;
+        int monitoring_end = Integer.parseInt(this.properties.get("end"));
+        boolean passes = this.properties.getOrDefault("engine", "stream").equals("passes");
+        if (!this.properties.getOrDefault("changepoint", "off").equals("off")) {
+            System.err.println("Change-point detection is off in backfill mode, the slices are not parsed in time " +
+                    "order");
+        }
+        if (passes) {
+            this.phases.enter(StreamEngine.BOOTSTRAP);
+            this.result = getAnnotatedPaths(this.constructOptionalArgs(this.properties.get("collectors"),
+                    this.properties.get("communities"), "", ""), init_start, start_ts, targetFacilities,
+                    requestedOverlap);
+            System.out.println("Annotated routes after initial pass: " + this.result.routeCount());
+            if (this.result.routeCount() > 0) {
+                this.phases.enter(StreamEngine.STABILITY);
+                filterUnstablePaths(this.constructOptionalArgs(
+                        String.join(", ", this.result.getCollectors()),
+                        "",
+                        String.join(", ", this.result.getPeers()),
+                        String.join(", ", this.result.getPrefixes())), start_ts, stability_end);
+                System.out.println("Annotated routes after filtering: " + this.result.routeCount());
+            }
+        } else {
+            // The stream ends with the stability phase
+            this.result = streamAnnotatedPaths(init_start, start_ts, stability_end, stability_end,
+                    targetFacilities, requestedOverlap);
+        }
+        if (this.result.routeCount() == 0) {
+            return;
+        }
 
-                while (nextMinute < endTs){
-                    while (nextTs >= nextMinute && nextTs < nextMinute + 180){
-                        totalPaths += nextValue;
-                        if (itr.hasNext()){
-                            nextTs = itr.next();
-                            nextValue = tsMap.get(nextTs);
-                        }
-                        else{
-                            break;
-                        }
-                    }
-                    writer.println(nextMinute + "\t" + totalPaths);
-                    nextMinute += 180;
+        this.phases.enter(StreamEngine.MONITORING);
+        long started = System.currentTimeMillis();
+        int width = Integer.parseInt(this.properties.getOrDefault("bin",
+                Integer.toString(CommunityTimeline.DEFAULT_BIN_SECONDS)));
+        CommunityTimeline timeline = new CommunityTimeline(this.targetCommunities, stability_end, monitoring_end,
+                width);
+        String optionalArgs = this.constructOptionalArgs(
+                String.join(", ", this.result.getCollectors()),
+                "",
+                String.join(", ", this.result.getPeers()),
+                String.join(", ", this.result.getPrefixes())
+        );
+        PrefixTrie prefixFilter = annotatedPrefixes();
+        int[] bounds = new int[slices + 1];
+        for (int i = 0; i <= slices; i++) {
+            bounds[i] = (int) (stability_end + (long) (monitoring_end - stability_end) * i / slices);
+        }
+        // Every slice monitors a copy of the routes, the copies have the same rows
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < slices; i++) {
+            RouteTable routes = new RouteTable();
+            routes.addAll(this.result.getRoutes());
+            Result slice = new Result(this.result.getCollectors(), this.result.getPeers(),
+                    this.result.getPrefixes(), routes);
+            // The status of the routes at the start of the monitoring is only added to the timeline once
+            if (i == 0) {
+                slice.trackTimeline(timeline, keepRouteHistory());
+            } else {
+                slice.resumeTimeline(timeline, keepRouteHistory());
+            }
+            results.add(slice);
+        }
+        RouteTable first = results.get(0).getRoutes();
+        int[] initialStatus = new int[first.rows()];
+        for (int row = 0; row < first.rows(); row++) {
+            initialStatus[row] = first.isLive(row) ? first.status(row) : 0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(slices, r -> {
+            Thread t = new Thread(r, "backfill-slice");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<int[]>> firstUpdates = new ArrayList<>();
+        for (int i = 0; i < slices; i++) {
+            RouteTable routes = results.get(i).getRoutes();
+            int from = bounds[i];
+            int windowEnd = bounds[i + 1];
+            // The serial stream engine stops at the end of the period, the monitoring pass reads the whole window
+            int until = i == slices - 1 && passes ? Integer.MAX_VALUE : windowEnd;
+            firstUpdates.add(executor.submit(() -> monitorSlice(optionalArgs, from, windowEnd, until, routes,
+                    prefixFilter)));
+        }
+        List<int[]> updated = new ArrayList<>();
+        try {
+            for (Future<int[]> future : firstUpdates) {
+                updated.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Stitch the slices in time order, with the status of every route at the start of the next slice
+        int[] serialStatus = initialStatus.clone();
+        long corrections = 0;
+        for (int i = 0; i < slices; i++) {
+            RouteTable routes = results.get(i).getRoutes();
+            int[] firstUpdate = updated.get(i);
+            for (int row = 0; row < routes.rows(); row++) {
+                if (!routes.isLive(row) || firstUpdate[row] == 0) {
+                    continue;
                 }
+                int delta = initialStatus[row] - serialStatus[row];
+                if (delta != 0) {
+                    timeline.add(routes.targetCommunity(row), firstUpdate[row], delta);
+                    corrections++;
+                }
+                serialStatus[row] = routes.status(row);
+            }
+        }
+        System.out.println("Backfilled " + slices + " slices in " + (System.currentTimeMillis() - started) +
+                " ms, " + corrections + " routes stitched at the slice boundaries");
+
+        this.phases.enter(StreamEngine.FINISHED);
+        this.result = results.get(0);
+        System.out.println("Calculate timeline");
+        HashMap<String, Result.TimeLine> communitiesTimeline = this.result.getCommunitiesTimeline();
+        System.out.println("Write output");
+        writeResults(stability_end, monitoring_end, communitiesTimeline);
+    }
 
-                writer.close();
+    /**
+     * Monitors a copy of the annotated routes during a time slice of the monitoring period
+     * @param optionalArgs optional arguments of the bgpreader command to filter the parsed BGP data
+     * @param start the start of the slice
+     * @param windowEnd the end of the time window of bgpreader
+     * @param end the end of the slice, the updates at or after it belong to the next slice
+     * @param routes the copy of the routes of the slice
+     * @param prefixFilter the prefixes of the annotated routes
+     * @return the timestamp of the first update of every row in the slice, 0 if the route wasn't updated
+     */
+    private int[] monitorSlice(String optionalArgs, int start, int windowEnd, int end, RouteTable routes,
+                               PrefixTrie prefixFilter){
+        String command = properties.get("bgpreader_bin") +
+                " -w " + start + "," + windowEnd +
+                " -t updates" +
+                optionalArgs;
+        int[] firstUpdate = new int[routes.rows()];
+        long started = System.currentTimeMillis();
+        long elems = 0;
+        try (ElemSource in = openElems(command, start, windowEnd, false, true, prefixFilter)) {
+            BgpElem elem = new BgpElem();
+            RouteTable.Key key = new RouteTable.Key();
+            while (in.next(elem)) {
+                int ts = elem.timestamp();
+                if (ts < start || ts >= end) {
+                    continue;
+                }
+                elems++;
+                int row = monitorElem(elem, routes, key);
+                if (row != RouteTable.NONE && firstUpdate[row] == 0) {
+                    firstUpdate[row] = ts;
+                }
             }
+            key.flushMetrics();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Slice " + start + "," + windowEnd + ": " + elems + " updates in " +
+                (System.currentTimeMillis() - started) + " ms");
+        return firstUpdate;
+    }
 
-        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+    @Override
+    public void writeResults(int startTs, int endTs, HashMap<String, Result.TimeLine> communitiesTimeline){
+        String format = this.properties.getOrDefault("format", ResultWriter.TEXT);
+        ResultWriter writer = new ResultWriter(this.properties.getOrDefault("outdir", "."),
+                Runtime.getRuntime().availableProcessors());
+        try {
+            writer.write(communitiesTimeline, format);
+        } catch (IOException e) {
             e.printStackTrace();
         }
+    }
+
+    /**
+     * @param start the start of the monitoring period
+     * @param end the end of the monitoring period
+     * @return an empty timeline of the target communities for the monitoring period
+     */
+    private CommunityTimeline newTimeline(int start, int end) {
+        int width = Integer.parseInt(this.properties.getOrDefault("bin",
+                Integer.toString(CommunityTimeline.DEFAULT_BIN_SECONDS)));
+        CommunityTimeline timeline = new CommunityTimeline(this.targetCommunities, start, end, width);
+        timeline.detectChanges(newDetector(false));
+        return timeline;
+    }
+
+    /**
+     * @param append true to keep the events of the interrupted run that is resumed
+     * @return the change-point detector of the changepoint property, or null if the detection is off
+     */
+    private ChangeDetector newDetector(boolean append) {
+        String method = this.properties.getOrDefault("changepoint", "off");
+        if (method.isEmpty() || method.equals("off")) {
+            return null;
+        }
+        String file = this.properties.get("changepoint_file");
+        if (file == null || file.isEmpty()) {
+            file = new File(this.properties.getOrDefault("outdir", "."), "events.txt").getPath();
+        }
+        try {
+            return new ChangeDetector(this.targetCommunities, method,
+                    Integer.parseInt(this.properties.getOrDefault("changepoint_half_life_minutes", "60")) * 60,
+                    Double.parseDouble(this.properties.getOrDefault("changepoint_threshold", "0.3")),
+                    Double.parseDouble(this.properties.getOrDefault("changepoint_cusum_limit", "2")),
+                    Integer.parseInt(this.properties.getOrDefault("changepoint_settle_minutes", "5")) * 60,
+                    Integer.parseInt(this.properties.getOrDefault("changepoint_min_routes", "10")),
+                    Boolean.parseBoolean(this.properties.getOrDefault("changepoint_links", "true")),
+                    file, append);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Change-point detection is off: " + e.getMessage());
+            return null;
+        }
+    }
 
+    /**
+     * @param start the start of the monitoring period, the first checkpoint is taken checkpoint_minutes after it
+     * @param end the end of the monitoring period
+     * @param results returns the monitored results at the timestamp of a checkpoint
+     * @return the scheduler of the checkpoints, or null if checkpoint_minutes is 0
+     */
+    private Checkpoint.Scheduler newCheckpoints(int start, int end, IntFunction<List<Result>> results) {
+        int minutes = Integer.parseInt(this.properties.getOrDefault("checkpoint_minutes", "0"));
+        if (minutes <= 0) {
+            return null;
+        }
+        return new Checkpoint.Scheduler(checkpointFile(), start, end, minutes * 60,
+                this.properties.get("communities"), keepRouteHistory(), results);
+    }
+
+    /**
+     * @return the path of the checkpoint file, by default checkpoint.bin in the output directory
+     */
+    private String checkpointFile() {
+        String file = this.properties.get("checkpoint_file");
+        if (file == null || file.isEmpty()) {
+            file = new File(this.properties.getOrDefault("outdir", "."), "checkpoint.bin").getPath();
+        }
+        return file;
+    }
+
+    /**
+     * @return false if the status changes of every route should be dropped once they are added to the timeline
+     */
+    private boolean keepRouteHistory() {
+        return Boolean.parseBoolean(this.properties.getOrDefault("route_history", "true"));
     }
 
     /**
@@ -205,23 +678,13 @@ class CommunitiesParser implements Parser {
      * @return the mapping between AS links and relationship type
      */
     @Override
-    public HashMap<String, Integer> readRelationships(String fileIn) {
-        HashMap<String, Integer> relationships = new HashMap<>();
+    public AsRelationships readRelationships(String fileIn) {
+        AsRelationships relationships = new AsRelationships();
         try {
             FileInputStream fin = new FileInputStream(fileIn);
             BufferedInputStream bis = new BufferedInputStream(fin);
-            CompressorInputStream input = new CompressorStreamFactory().createCompressorInputStream(bis);
-            BufferedReader br2 = new BufferedReader(new InputStreamReader(input));
-
-            String line;
-            while ((line = br2.readLine()) != null) {
-                if (!line.startsWith("#")){
-                    String[] lf = line.split("\\|");
-                    String link = lf[0] + " " + lf[1];
-                    String invLink = lf[1] + " " + lf[0];
-                    relationships.put(link, Integer.parseInt(lf[2]));
-                    relationships.put(invLink, Integer.parseInt(lf[2]) * -1);
-                }
+            try (CompressorInputStream input = new CompressorStreamFactory().createCompressorInputStream(bis)) {
+                relationships = AsRelationships.read(input);
             }
         }
         catch(IOException | CompressorException e){
@@ -248,7 +711,9 @@ class CommunitiesParser implements Parser {
             }
         }
 
-        if (!communities.isEmpty()){
+        // The community filter of bgpreader only takes standard communities, so if any target is a large
+        // community the stream is not filtered by community and the elems are only matched in-process
+        if (!communities.isEmpty() && !communities.matches(".*:\\d*:.*")){
             for (String y: communities.split(",")) {
                 args.append(" -y ").append(y);
             }
@@ -260,6 +725,7 @@ class CommunitiesParser implements Parser {
             }
         }
 
+        // Long prefix lists don't fit in the arguments, the passes also filter the prefixes in-process with a trie
         if (!prefixes.isEmpty() && prefixes.length() < 1000) {
             for (String y : prefixes.split(",")) {
                 args.append(" -k ").append(y);
@@ -269,6 +735,71 @@ class CommunitiesParser implements Parser {
         return args.toString();
     }
 
+    /**
+     * Sets the reference datasets that map the communities to AS links and indexes the Route Servers
+     * @param datasets the loaded datasets
+     */
+    void useDatasets(Datasets datasets) {
+        this.datasets = datasets;
+        this.coloMap = datasets.coloMap;
+        this.relationships = datasets.relationships;
+        this.routeServerASNs = datasets.routeServerASNs;
+        indexRouteServers();
+    }
+
+    /**
+     * Encodes the Route Server ASNs as a sorted int array and resolves the IDs of the corresponding IXPs, so that
+     * {@link #mapCommunityToLink(int[], int, int)} can find them with a binary search instead of comparing Strings
+     */
+    private void indexRouteServers() {
+        int[] asns = new int[this.routeServerASNs.size()];
+        int n = 0;
+        for (String asn : this.routeServerASNs.keySet()) {
+            try {
+                asns[n] = (int) Long.parseLong(asn);
+                n++;
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid Route Server ASN " + asn);
+            }
+        }
+        asns = Arrays.copyOf(asns, n);
+        Arrays.sort(asns);
+        int[] ixps = new int[asns.length];
+        for (int i = 0; i < asns.length; i++) {
+            ixps[i] = this.coloMap.ixpId(this.routeServerASNs.get(Integer.toUnsignedString(asns[i])));
+        }
+        this.rsAsns = asns;
+        this.rsIxps = ixps;
+    }
+
+    /**
+     * Looks up the relationship of an AS link given as Strings
+     * @param a the near-end ASN
+     * @param b the far-end ASN
+     * @return the relationship value, or AsRelationships.UNKNOWN if the relationship is not known
+     */
+    private int relationship(String a, String b) {
+        try {
+            return this.relationships.relationship((int) Long.parseLong(a), (int) Long.parseLong(b));
+        } catch (NumberFormatException e) {
+            return AsRelationships.UNKNOWN;
+        }
+    }
+
+    /**
+     * Checks if an ASN given as a String is a member of an IXP
+     * @param ixp the IXP ID
+     * @param hop the ASN
+     * @return true if the ASN is connected to the IXP
+     */
+    private boolean isIxpMember(int ixp, String hop) {
+        try {
+            return this.coloMap.isIxpMember(ixp, (int) Long.parseLong(hop));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     /**
      * Finds which link in an AS path is annotated by a 32-bit community based on the top-16 bits of the community,
      * which by convention correspond to the ASN that defines the community value
@@ -297,12 +828,13 @@ class CommunitiesParser implements Parser {
                 farEnd = path.get(hopIndex + 1);
             }
             // case 2
-            else if(this.coloMap.ixpMembers.containsKey(ixpName)) {
+            else if(this.coloMap.ixpId(ixpName) >= 0) {
+                int ixp = this.coloMap.ixpId(ixpName);
                 int index = 0;
                 int neIndex = -1;
                 int feIndex = -1;
                 for(String hop: path){
-                    if(this.coloMap.ixpMembers.get(ixpName).contains(hop)){
+                    if(isIxpMember(ixp, hop)){
                         if (neIndex == -1){
                             nearEnd = hop;
                             neIndex = index;
@@ -310,8 +842,8 @@ class CommunitiesParser implements Parser {
                             if (index - neIndex == 1){
                                 farEnd = hop;
                                 feIndex = index;
-                                String link = nearEnd + " " + farEnd;
-                                if (!this.relationships.containsKey(link) || this.relationships.get(link) == 0){
+                                int rel = relationship(nearEnd, farEnd);
+                                if (rel == AsRelationships.UNKNOWN || rel == 0){
                                     break; // we found the annotated link, stop searching
                                 }
                             }
@@ -324,8 +856,8 @@ class CommunitiesParser implements Parser {
                         // if we have more than two consecutive IXP members in the path, check the relationships and
                         // select the near-end and far-end that have a p2p relationship
                         else if (index - feIndex == 1){
-                            String link = farEnd + " " + hop;
-                            if (!this.relationships.containsKey(link) || this.relationships.get(link) == 0){
+                            int rel = relationship(farEnd, hop);
+                            if (rel == AsRelationships.UNKNOWN || rel == 0){
                                 nearEnd = farEnd;
                                 farEnd = hop;
                                 break; // we found the annotated link, stop searching
@@ -349,6 +881,84 @@ class CommunitiesParser implements Parser {
         return new String[]{nearEnd, farEnd};
     }
 
+    /**
+     * Finds which link in an integer-encoded AS path is annotated by a community. Works the same way as
+     * {@link #mapCommunityToLink(ArrayList, String)}, but compares primitive ASNs instead of Strings.
+     * @param path the hops of the AS path without prepending
+     * @param pathLength the number of valid hops in the path array
+     * @param communityAsn the ASN that defines the community value (the top 16 bits for 32-bit communities)
+     * @return the annotated AS link packed with {@link AsPath#link(int, int)}, the near-end and/or the far-end are
+     * {@link AsPath#NO_HOP} if they can't be mapped
+     */
+    @Override
+    public long mapCommunityToLink(int[] path, int pathLength, int communityAsn){
+        int nearEnd = AsPath.NO_HOP;
+        int farEnd = AsPath.NO_HOP;
+        int hopIndex = -1;
+        for (int i = 0; i < pathLength; i++) {
+            if (path[i] == communityAsn) {
+                hopIndex = i;
+                break;
+            }
+        }
+        int rs = Arrays.binarySearch(this.rsAsns, communityAsn);
+        if (rs >= 0){
+            // case 1: the Route Server ASN appears in the path
+            if (hopIndex > 0 && hopIndex < pathLength - 1){
+                nearEnd = path[hopIndex - 1];
+                farEnd = path[hopIndex + 1];
+            }
+            // case 2: find the consecutive IXP members that are likely to peer over the Route Server
+            else if (this.rsIxps[rs] >= 0) {
+                int ixp = this.rsIxps[rs];
+                int neIndex = -1;
+                int feIndex = -1;
+                for (int index = 0; index < pathLength; index++) {
+                    int hop = path[index];
+                    if (!this.coloMap.isIxpMember(ixp, hop)) {
+                        continue;
+                    }
+                    if (neIndex == -1){
+                        nearEnd = hop;
+                        neIndex = index;
+                    }else if(feIndex == -1){
+                        if (index - neIndex == 1){
+                            farEnd = hop;
+                            feIndex = index;
+                            int rel = this.relationships.relationship(nearEnd, farEnd);
+                            if (rel == AsRelationships.UNKNOWN || rel == 0){
+                                break; // we found the annotated link, stop searching
+                            }
+                        }
+                        // if the near-end and the far-end are not consecutive, reset the near-end
+                        else{
+                            nearEnd = hop;
+                            neIndex = index;
+                        }
+                    }
+                    // if we have more than two consecutive IXP members in the path, check the relationships and
+                    // select the near-end and far-end that have a p2p relationship
+                    else if (index - feIndex == 1){
+                        int rel = this.relationships.relationship(farEnd, hop);
+                        if (rel == AsRelationships.UNKNOWN || rel == 0){
+                            nearEnd = farEnd;
+                            farEnd = hop;
+                            break; // we found the annotated link, stop searching
+                        }
+                    }
+                }
+            }
+        }
+        else if (hopIndex >= 0){
+            nearEnd = path[hopIndex];
+            if (hopIndex < pathLength - 1) {
+                farEnd = path[hopIndex + 1];
+            }
+        }
+
+        return AsPath.link(nearEnd, farEnd);
+    }
+
     /**
      * The initial pass on BGP data to collect all the paths in the start of the measurment period that are annotated
      * with the given communities. The initial paths. The initial pass begins one day before the provided measurement
@@ -366,90 +976,581 @@ class CommunitiesParser implements Parser {
                 " -t ribs" +
                 " -P " + 3600*24 + "" +
                 optionalArgs;
-        System.out.println(command);
 
         HashSet<String> usefulCollectors = new HashSet<>();
         HashSet<String> usefulPeers = new HashSet<>();
         HashSet<String> usefulPrefixes = new HashSet<>();
-        HashMap<String, HashMap<String, Route> > annotatedRoutes = new HashMap<>();
+        RouteTable annotatedRoutes = new RouteTable();
 
-        HashSet<String> targetCommunities = new HashSet<>(Arrays.asList(this.properties.get("communities").split(",")));
-        Process child;
         try {
-            child = Runtime.getRuntime().exec(command);
-            BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                // Format of bgpreader output:
-                // <rec-type>|<elem-type>|<rec-ts-sec>.<rec-ts-usec>| \
-                //  <project>|<collector>|<router>|<router-ip>|<peer-ASN>|<peer-IP>| \
-                //  <prefix>|<next-hop-IP>|<AS-path>|<origin-AS>| \
-                //  <communities>|<old-state>|<new-state>
-                // https://bgpstream.caida.org/v2-beta
-                String[] bgpFields = line.split("\\|");
-                if (bgpFields[1].equals("R") && bgpFields.length > 9){
-                    // For each community attached in the path that is part of the target communities provided by the
-                    // user, find which AS link it annotates and inster the annotated BGP route in a HashMap that stores
-                    // the annotated routes and the corresponding communities
-                    String[] attachedCommunities = bgpFields[11].split(" ");
-                    String timestamp = bgpFields[2].split("\\.")[0];
-                    String peerIp = bgpFields[6];
-                    String prefix = bgpFields[7];
-                    for (String community: attachedCommunities) {
-                        ArrayList<String> path = removePrepending(bgpFields[9].split(" "));
-                        if (targetCommunities.contains(community)){
-                            String top16bits = community.split(":")[0];
-                            // if the top16 bits correspond to a Route Server ASN
-                            String[] annotatedHops = this.mapCommunityToLink(path, top16bits);
-                            if (!annotatedHops[0].isEmpty()){
-                                boolean parseRoute = true;
-                                // If certain facilities have been requested, check if the far-end hop is colocated in
-                                // the target facilities
-                                if (!targetFacilities.isEmpty()){
-                                    parseRoute = false;
-                                    if (!annotatedHops[1].isEmpty()){
-                                        for (String facility : targetFacilities){
-                                            if (this.coloMap.facMembers.containsKey(facility) && this.coloMap.facMembers.get(facility).contains(annotatedHops[1])){
-                                                String facilityCity = this.coloMap.facilityCity.get(facility);
-                                                int overlapSize = this.coloMap.autsysFacilities.get(annotatedHops[1]).get(facilityCity).size();
-                                                if(overlapSize == requestedOverlap || requestedOverlap == -1){
-                                                    parseRoute = true;
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                    }
+            ElemSource source = openElems(command, init_start, init_end, true, false, null);
+            awaitDatasets();
+            indexTargets(targetFacilities, requestedOverlap);
+            try (ElemSource in = source) {
+                annotateRoutes(in, annotatedRoutes, usefulCollectors, usefulPeers, usefulPrefixes);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-                                }
-                                if (parseRoute){
-                                    Route annotatedRoute = new Route(
-                                            community,
-                                            attachedCommunities,
-                                            annotatedHops[0],
-                                            annotatedHops[1],
-                                            prefix,
-                                            peerIp);
-                                    annotatedRoute.updateStatus(1, timestamp);
-                                    if (!annotatedRoutes.containsKey(peerIp)){
-                                        annotatedRoutes.put(peerIp, new HashMap<>());
-                                    }
-                                    annotatedRoutes.get(peerIp).put(prefix, annotatedRoute);
-                                    usefulCollectors.add(bgpFields[4]);
-                                    usefulPeers.add(bgpFields[7]);
-                                    usefulPrefixes.add(prefix);
+        return new Result(usefulCollectors, usefulPeers, usefulPrefixes, annotatedRoutes);
+    }
+
+    /**
+     * Annotates the routes of the RIB entries of a stream, the loop of the initial pass
+     * @param in the stream of the initial pass
+     * @param annotatedRoutes the table to which the annotated routes are added
+     * @param usefulCollectors the collectors with annotated routes
+     * @param usefulPeers the peers with annotated routes
+     * @param usefulPrefixes the prefixes with annotated routes
+     * @throws IOException if reading from the stream fails
+     */
+    void annotateRoutes(ElemSource in, RouteTable annotatedRoutes, HashSet<String> usefulCollectors,
+                        HashSet<String> usefulPeers, HashSet<String> usefulPrefixes) throws IOException {
+        BgpElem elem = new BgpElem();
+        AsPath path = new AsPath();
+        RouteTable.Key key = new RouteTable.Key();
+        while (in.next(elem)) {
+            if (elem.elemType() != 'R' || !key.parse(elem)) {
+                continue;
+            }
+            if (annotate(elem, path, annotatedRoutes, key) != RouteTable.NONE){
+                usefulCollectors.add(elem.field(BgpElem.COLLECTOR));
+                usefulPeers.add(elem.field(BgpElem.PEER_IP));
+                usefulPrefixes.add(elem.field(BgpElem.PREFIX));
+            }
+        }
+    }
+
+    /**
+     * Parses a single bgpreader stream of RIBs and updates that covers the bootstrap day, the stability period and
+     * the measurement period, and moves the annotated routes through the three phases with a {@link StreamEngine}.
+     * The stream can't be filtered by community in bgpreader, since the monitoring needs the updates that remove
+     * the target communities, so only the collectors are passed to bgpreader. The stream is stopped early if no
+     * annotated route is left after the bootstrap or the stability phase.
+     *
+     * @param init_start the start of the bootstrap day
+     * @param start_ts the start of the measurement period
+     * @param stability_end the end of the stability period
+     * @param end_ts the end of the measurement period
+     * @param targetFacilities the names of the facilities where the far-end hops must be colocated, empty for all
+     * @param requestedOverlap the number of facilities the far-end hops must have in the city of the target facility
+     * @return the annotated routes that were stable and their status changes during the measurement period
+     */
+    Result streamAnnotatedPaths(int init_start, int start_ts, int stability_end, int end_ts,
+                                List<String> targetFacilities, int requestedOverlap){
+        String baseCommand = properties.get("bgpreader_bin") +
+                " -w " + init_start + "," + end_ts +
+                " -t ribs -t updates" +
+                " -P " + 3600*24;
+
+        int workers = Integer.parseInt(this.properties.getOrDefault("pipeline_workers", "1"));
+        List<StreamEngine> engines = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            engines.add(new StreamEngine(this, start_ts, stability_end, end_ts, workers <= 1, this.phases));
+        }
+        try {
+            ElemSource source = openStream(baseCommand, init_start, end_ts);
+            indexTargets(targetFacilities, requestedOverlap);
+            // The shards add the status changes of their routes to the same timeline. Without a monitoring phase,
+            // e.g. when the monitoring is backfilled in slices, the routes keep their history instead.
+            CommunityTimeline timeline = null;
+            if (end_ts > stability_end) {
+                timeline = newTimeline(stability_end, end_ts);
+                for (StreamEngine engine : engines) {
+                    engine.trackTimeline(timeline, keepRouteHistory());
+                }
+            }
+            // The monitored routes of all the shards are checkpointed together, the shards that haven't seen an
+            // elem of the monitoring phase yet are moved to it first
+            IntFunction<List<Result>> monitored = ts -> {
+                List<Result> results = new ArrayList<>();
+                for (StreamEngine engine : engines) {
+                    engine.advanceTo(ts);
+                    results.add(engine.result());
+                }
+                return results;
+            };
+            Metrics.Registration routes = Metrics.annotatedRoutes(() -> {
+                long count = 0;
+                for (StreamEngine engine : engines) {
+                    count += engine.routeCount();
+                }
+                return count;
+            });
+            try (ElemSource in = source;
+                 Checkpoint.Scheduler checkpoints = newCheckpoints(stability_end, end_ts, monitored)) {
+                if (workers > 1) {
+                    ShardedPipeline.Barrier barrier = checkpoints;
+                    if (timeline != null && timeline.detector() != null) {
+                        // The shards enter the monitoring phase together, so the detector has counted the routes of
+                        // every shard before it checks the first status change
+                        barrier = monitoringBarrier(stability_end, monitored, checkpoints);
+                    }
+                    newPipeline(engines).run(in, barrier);
+                } else {
+                    StreamEngine engine = engines.get(0);
+                    BgpElem elem = new BgpElem();
+                    while (in.next(elem)) {
+                        if (checkpoints != null && checkpoints.due(elem.timestamp())) {
+                            checkpoints.reached(elem.timestamp());
+                        }
+                        engine.accept(elem);
+                        if (engine.done()) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                routes.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (engines.size() == 1) {
+            engines.get(0).finish();
+            return engines.get(0).result();
+        }
+
+        // Report the totals of the shards
+        int afterBootstrap = 0;
+        int afterStability = 0;
+        long unstable = 0;
+        List<Result> results = new ArrayList<>();
+        for (StreamEngine engine : engines) {
+            engine.finish();
+            afterBootstrap += engine.routesAfterBootstrap();
+            afterStability += engine.routesAfterStability();
+            unstable += engine.unstable();
+            results.add(engine.result());
+        }
+        System.out.println("Annotated routes after initial pass: " + afterBootstrap);
+        System.out.println("Annotated routes after filtering: " + afterStability + " (" + unstable + " unstable)");
+        return Result.merge(results);
+    }
+
+    /**
+     * Creates a barrier that stops the shards once at the first elem of the monitoring phase
+     * @param start the epoch timestamp of the start of the monitoring
+     * @param monitored moves all the shards to the phase of a timestamp
+     * @param next the barrier that is checked too, or null
+     * @return the barrier
+     */
+    private static ShardedPipeline.Barrier monitoringBarrier(int start, IntFunction<List<Result>> monitored,
+                                                             ShardedPipeline.Barrier next) {
+        return new ShardedPipeline.Barrier() {
+            private boolean monitoring = false;
+
+            @Override
+            public boolean due(int ts) {
+                return (!monitoring && ts >= start) || (next != null && next.due(ts));
+            }
+
+            @Override
+            public void reached(int ts) {
+                if (!monitoring && ts >= start) {
+                    monitoring = true;
+                    monitored.apply(ts);
+                }
+                if (next != null && next.due(ts)) {
+                    next.reached(ts);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a pipeline that shards the stream among the given workers, configured by the pipeline_batch_size,
+     * pipeline_queue_depth and pipeline_report_seconds properties
+     * @param workers one worker per shard
+     * @return the pipeline
+     */
+    private ShardedPipeline newPipeline(List<? extends ShardedPipeline.Worker> workers){
+        return new ShardedPipeline(workers,
+                Integer.parseInt(this.properties.getOrDefault("pipeline_batch_size", "1024")),
+                Integer.parseInt(this.properties.getOrDefault("pipeline_queue_depth", "16")),
+                Integer.parseInt(this.properties.getOrDefault("pipeline_report_seconds", "60")));
+    }
+
+    /**
+     * Answers the queries of a queries file in one pass over a single stream, instead of one run per query. Every
+     * query has its own targets, facilities, overlap and output directory, and its own annotated routes, timeline and
+     * results, while the datasets are loaded once and the elems are read and matched against the targets of all the
+     * queries once by a {@link MultiQueryEngine}. The stream is stopped early if none of the queries has annotated
+     * routes left after the bootstrap or the stability phase.
+     *
+     * @param queries the queries
+     * @param init_start the start of the bootstrap day
+     * @param start_ts the start of the measurement period
+     * @param stability_end the end of the stability period
+     * @param end_ts the end of the measurement period
+     */
+    void queryAnnotatedPaths(List<Query> queries, int init_start, int start_ts, int stability_end, int end_ts){
+        String baseCommand = properties.get("bgpreader_bin") +
+                " -w " + init_start + "," + end_ts +
+                " -t ribs -t updates" +
+                " -P " + 3600*24;
+
+        int workers = Math.max(1, Integer.parseInt(this.properties.getOrDefault("pipeline_workers", "1")));
+        List<CommunitiesParser> parsers = new ArrayList<>();
+        for (Query query : queries) {
+            parsers.add(new CommunitiesParser(query.properties(this.properties)));
+        }
+        // The engines of every query, one per shard
+        List<List<StreamEngine>> engines = new ArrayList<>();
+        try {
+            ElemSource source = openStream(baseCommand, init_start, end_ts);
+            List<CommunitySet> targets = new ArrayList<>();
+            boolean detectChanges = false;
+            for (int q = 0; q < queries.size(); q++) {
+                CommunitiesParser parser = parsers.get(q);
+                parser.useDatasets(this.datasets);
+                parser.indexTargets(queries.get(q).facilities(), queries.get(q).overlap());
+                targets.add(parser.targets());
+                // The shards of a query add the status changes of their routes to the same timeline
+                CommunityTimeline timeline = parser.newTimeline(stability_end, end_ts);
+                detectChanges |= timeline.detector() != null;
+                List<StreamEngine> shards = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    StreamEngine engine = new StreamEngine(parser, start_ts, stability_end, end_ts, false, this.phases);
+                    engine.trackTimeline(timeline, parser.keepRouteHistory());
+                    shards.add(engine);
+                }
+                engines.add(shards);
+            }
+            List<MultiQueryEngine> dispatchers = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                List<StreamEngine> shard = new ArrayList<>();
+                for (List<StreamEngine> shards : engines) {
+                    shard.add(shards.get(i));
+                }
+                dispatchers.add(new MultiQueryEngine(shard, targets));
+            }
+            System.out.println("Answering " + queries.size() + " queries of " +
+                    dispatchers.get(0).communityCount() + " communities in one pass");
+            Metrics.Registration routes = Metrics.annotatedRoutes(() -> {
+                long count = 0;
+                for (List<StreamEngine> shards : engines) {
+                    for (StreamEngine engine : shards) {
+                        count += engine.routeCount();
+                    }
+                }
+                return count;
+            });
+            try (ElemSource in = source) {
+                if (workers > 1) {
+                    ShardedPipeline.Barrier barrier = null;
+                    if (detectChanges) {
+                        // The shards enter the monitoring phase together, see streamAnnotatedPaths
+                        barrier = monitoringBarrier(stability_end, ts -> {
+                            for (List<StreamEngine> shards : engines) {
+                                for (StreamEngine engine : shards) {
+                                    engine.advanceTo(ts);
                                 }
                             }
+                            return Collections.emptyList();
+                        }, null);
+                    }
+                    newPipeline(dispatchers).run(in, barrier);
+                } else {
+                    MultiQueryEngine dispatcher = dispatchers.get(0);
+                    BgpElem elem = new BgpElem();
+                    while (in.next(elem)) {
+                        dispatcher.accept(elem);
+                        if (dispatcher.done()) {
+                            break;
                         }
                     }
                 }
+            } finally {
+                routes.close();
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (engines.size() < queries.size()) {
+            return;
+        }
 
-            in.close();
+        // Report and write the results of every query
+        for (int q = 0; q < queries.size(); q++) {
+            int afterBootstrap = 0;
+            int afterStability = 0;
+            long unstable = 0;
+            List<Result> results = new ArrayList<>();
+            for (StreamEngine engine : engines.get(q)) {
+                engine.finish();
+                afterBootstrap += engine.routesAfterBootstrap();
+                afterStability += engine.routesAfterStability();
+                unstable += engine.unstable();
+                results.add(engine.result());
+            }
+            Result result = results.size() == 1 ? results.get(0) : Result.merge(results);
+            System.out.println("Query " + queries.get(q).outdir() + ": annotated routes after initial pass: " +
+                    afterBootstrap + ", after filtering: " + afterStability + " (" + unstable + " unstable)");
+            if (result.routeCount() > 0) {
+                parsers.get(q).writeResults(stability_end, end_ts, result.getCommunitiesTimeline());
+            }
+        }
+    }
+
+    /**
+     * Opens the single stream of RIBs and updates of the stream engine: the MRT archives given with --mrt, one
+     * bgpreader per collector group merged by timestamp, or a single bgpreader. Blocks until the datasets are ready,
+     * while the output of bgpreader is buffered.
+     * @param baseCommand the bgpreader command without the collectors
+     * @param init_start the start of the bootstrap day
+     * @param end_ts the end of the stream
+     * @return the stream of elems
+     * @throws IOException if bgpreader can't be started or the archives can't be opened
+     */
+    private ElemSource openStream(String baseCommand, int init_start, int end_ts) throws IOException {
+        List<List<String>> groups = collectorGroups();
+        ElemSource source;
+        long buffered = 0;
+        String mrt = this.properties.get("mrt");
+        if (mrt != null && !mrt.isEmpty()) {
+            source = openElems(baseCommand, init_start, end_ts, true, true, null);
+            awaitDatasets();
+        } else if (groups.size() > 1) {
+            // One bgpreader per collector group, merged by timestamp
+            List<PrefetchingInputStream> streams = new ArrayList<>();
+            List<BgpElemReader> readers = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (List<String> group : groups) {
+                String command = baseCommand + this.constructOptionalArgs(String.join(",", group), "", "", "");
+                System.out.println(command);
+                PrefetchingInputStream stdout = startBgpreader(command);
+                streams.add(stdout);
+                readers.add(new BgpElemReader(stdout));
+                names.add(String.join(",", group));
+            }
+            int batchSize = Integer.parseInt(this.properties.getOrDefault("merge_batch_size", "1024"));
+            int queueDepth = Integer.parseInt(this.properties.getOrDefault("merge_queue_depth", "16"));
+            source = new MergingElemSource(readers, names, batchSize, queueDepth);
+            awaitDatasets();
+            for (PrefetchingInputStream stream : streams) {
+                buffered += stream.bufferedBytes();
+            }
+        } else {
+            String command = baseCommand +
+                    this.constructOptionalArgs(this.properties.get("collectors"), "", "", "");
+            System.out.println(command);
+            PrefetchingInputStream stdout = startBgpreader(command);
+            source = new BgpElemReader(stdout);
+            awaitDatasets();
+            buffered = stdout.bufferedBytes();
+        }
+        if (mrt == null || mrt.isEmpty()) {
+            System.out.println("bgpreader output buffered while loading the datasets: " + buffered + " bytes");
+        }
+        return source;
+    }
+
+    /**
+     * Splits the requested collectors in collector_readers groups, each group is read by its own bgpreader process.
+     * If all the collectors are requested, the collectors listed in the known_collectors property are split.
+     * @return the collector groups, a single empty group if the collectors are read by a single bgpreader
+     */
+    private List<List<String>> collectorGroups(){
+        int readers = Integer.parseInt(this.properties.getOrDefault("collector_readers", "1"));
+        String collectors = this.properties.get("collectors");
+        if (collectors.equals(CliParser.getDefaultCollectors())) {
+            collectors = this.properties.getOrDefault("known_collectors", "");
+            if (readers > 1 && collectors.isEmpty()) {
+                System.err.println("known_collectors is not set, all the collectors are read by a single bgpreader");
+            }
+        }
+        List<List<String>> groups = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String collector : collectors.split(",")) {
+            if (!collector.trim().isEmpty()) {
+                names.add(collector.trim());
+            }
+        }
+        readers = Math.min(readers, names.size());
+        if (readers <= 1) {
+            groups.add(new ArrayList<>());
+            return groups;
+        }
+        for (int i = 0; i < readers; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            groups.get(i % readers).add(names.get(i));
+        }
+        return groups;
+    }
+
+    /**
+     * Parses an unbounded bgpreader stream of RIBs and updates, e.g. a live stream, with a {@link LiveEngine}, and
+     * appends the bins of the timelines to the output files as they close. The annotated routes are bootstrapped
+     * from the stream again every live_rebootstrap_hours, with the datasets that were loaded at the start.
+     *
+     * @param start_ts the start of the stream
+     * @param targetFacilities the names of the facilities where the far-end hops must be colocated, empty for all
+     * @param requestedOverlap the number of facilities the far-end hops must have in the city of the target facility
+     */
+    void liveAnnotatedPaths(int start_ts, List<String> targetFacilities, int requestedOverlap){
+        // bgpreader runs in live mode when the time window has no end
+        String command = properties.get("bgpreader_bin") +
+                " -w " + start_ts +
+                " -t ribs -t updates" +
+                this.constructOptionalArgs(this.properties.get("collectors"), "", "", "");
+        ResultWriter writer = new ResultWriter(this.properties.getOrDefault("outdir", "."), 1);
+        try (ElemSource in = openElems(command, start_ts, Integer.MAX_VALUE, true, true, null);
+             ResultWriter.Appender appender = writer.appender()) {
+            awaitDatasets();
+            indexTargets(targetFacilities, requestedOverlap);
+            int width = Integer.parseInt(this.properties.getOrDefault("bin",
+                    Integer.toString(CommunityTimeline.DEFAULT_BIN_SECONDS)));
+            LiveEngine engine = new LiveEngine(this, start_ts, width, appender,
+                    hoursProperty("live_bootstrap_hours", 8),
+                    hoursProperty("stability_hours", 48),
+                    hoursProperty("live_rebootstrap_hours", 24),
+                    hoursProperty("live_window_hours", 24),
+                    keepRouteHistory());
+            engine.timeline().detectChanges(newDetector(false));
+            BgpElem elem = new BgpElem();
+            Metrics.Registration routes = Metrics.annotatedRoutes(engine::routeCount);
+            try {
+                while (in.next(elem)) {
+                    engine.accept(elem);
+                }
+            } finally {
+                routes.close();
+            }
+            System.out.println("The stream ended with " + engine.routeCount() + " monitored routes");
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
-        return new Result(usefulCollectors, usefulPeers, usefulPrefixes, annotatedRoutes);
+    /**
+     * @return a duration property given in hours, in seconds
+     */
+    private int hoursProperty(String name, int defaultHours) {
+        return Integer.parseInt(this.properties.getOrDefault(name, Integer.toString(defaultHours))) * 3600;
+    }
+
+    /**
+     * @return the target communities, indexed by {@link #indexTargets(List, int)}
+     */
+    CommunitySet targets() {
+        return this.targetCommunities;
+    }
+
+    /**
+     * Parses the target communities and resolves the IDs of the target facilities once, before the BGP data is
+     * parsed. The datasets must be ready.
+     * @param targetFacilities the names of the facilities where the far-end hops must be colocated, empty for all
+     * @param requestedOverlap the number of facilities the far-end hops must have in the city of the target facility,
+     *                         or -1 for any number
+     */
+    void indexTargets(List<String> targetFacilities, int requestedOverlap){
+        this.targetCommunities = new CommunitySet();
+        for (String community : this.properties.get("communities").split(",")) {
+            try {
+                this.targetCommunities.add(Community.parse(community));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring invalid community " + community);
+            }
+        }
+        // The ASN that defines each target community, i.e. the top 16 bits of a standard community or the global
+        // administrator of a large community, resolved once instead of for every annotated elem
+        this.targetAsns = new int[this.targetCommunities.size()];
+        for (int i = 0; i < this.targetAsns.length; i++) {
+            this.targetAsns[i] = this.targetCommunities.get(i).asn();
+        }
+        this.facilityIds = new int[targetFacilities.size()];
+        for (int i = 0; i < this.facilityIds.length; i++) {
+            this.facilityIds[i] = this.coloMap.facilityId(targetFacilities.get(i));
+        }
+        this.requestedOverlap = requestedOverlap;
+    }
+
+    /**
+     * For each community attached to a route that is part of the target communities provided by the user, finds
+     * which AS link it annotates and checks if the far-end of the link is in the target facilities. The path is
+     * decoded only if the route carries a target community. Requires {@link #indexTargets(List, int)}.
+     * @param elem a RIB entry or an announcement
+     * @param path the scratch AS path in which the path of the elem is decoded
+     * @param routes the table to which the annotated route is added, replacing the previous route of the peer and
+     *               the prefix
+     * @param key the peer IP and the prefix of the elem, encoded with {@link RouteTable.Key#parse(BgpElem)}
+     * @return the row of the annotated route activated at the timestamp of the elem, or RouteTable.NONE if the route
+     * is not annotated with a target community. If several target communities match, the last one annotates the
+     * route.
+     */
+    int annotate(BgpElem elem, AsPath path, RouteTable routes, RouteTable.Key key){
+        int annotatedTarget = -1;
+        long annotatedLink = 0;
+        boolean pathParsed = false;
+        byte[] buf = elem.buffer();
+        BgpElem.Cursor communities = elem.communities();
+        while (communities.next()) {
+            int target = this.targetCommunities.find(buf, communities.start(), communities.end());
+            if (target == CommunitySet.MISSING) {
+                continue;
+            }
+            if (!pathParsed) {
+                if (!path.parse(elem)) {
+                    break;
+                }
+                pathParsed = true;
+            }
+            long link = this.mapCommunityToLink(path.hops(), path.length(), this.targetAsns[target]);
+            if (AsPath.nearEnd(link) == AsPath.NO_HOP){
+                continue;
+            }
+            int farEndAsn = AsPath.farEnd(link);
+            boolean parseRoute = true;
+            // If certain facilities have been requested, check if the far-end hop is colocated in the target
+            // facilities
+            if (this.facilityIds.length > 0){
+                parseRoute = false;
+                if (farEndAsn != AsPath.NO_HOP){
+                    for (int facility : this.facilityIds){
+                        if (facility >= 0 && this.coloMap.isFacilityMember(facility, farEndAsn)){
+                            int facilityCity = this.coloMap.facilityCity(facility);
+                            int overlapSize = this.coloMap.facilitiesInCity(farEndAsn, facilityCity);
+                            if(overlapSize == this.requestedOverlap || this.requestedOverlap == -1){
+                                parseRoute = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            if (parseRoute){
+                annotatedTarget = target;
+                annotatedLink = link;
+            }
+        }
+        if (annotatedTarget == -1){
+            return RouteTable.NONE;
+        }
+        int row = routes.add(key, this.targetCommunities.get(annotatedTarget), Community.packAll(elem),
+                AsPath.nearEnd(annotatedLink), AsPath.farEnd(annotatedLink));
+        routes.updateStatus(row, 1, elem.timestamp());
+        return row;
+    }
+
+    /**
+     * Checks if any of the communities attached to the elem is the given community
+     * @param elem the BGP elem
+     * @param community the community to look for
+     * @return true if the community is attached to the elem
+     */
+    static boolean hasCommunity(BgpElem elem, Community community) {
+        byte[] buf = elem.buffer();
+        BgpElem.Cursor communities = elem.communities();
+        while (communities.next()) {
+            if (community.matches(buf, communities.start(), communities.end())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -469,52 +1570,47 @@ class CommunitiesParser implements Parser {
             int start_ts,
             int end_ts)
     {
-        HashMap<String, HashMap<String, Route>> initialRoutes = this.result.getRoutes();
+        RouteTable initialRoutes = this.result.getRoutes();
         String command = properties.get("bgpreader_bin") +
                 " -w " + start_ts + "," + end_ts +
                 " -t ribs" +
                 optionalArgs;
-        System.out.println(command);
 
-        Process child;
-        try {
-            child = Runtime.getRuntime().exec(command);
-            BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                // Format of bgpreader output:
-                // <rec-type>|<elem-type>|<rec-ts-sec>.<rec-ts-usec>| \
-                //  <project>|<collector>|<router>|<router-ip>|<peer-ASN>|<peer-IP>| \
-                //  <prefix>|<next-hop-IP>|<AS-path>|<origin-AS>| \
-                //  <communities>|<old-state>|<new-state>
-                // https://bgpstream.caida.org/v2-beta
-                String[] bgpFields = line.split("\\|");
-                if (bgpFields[1].equals("R") && bgpFields.length > 13){
-                    String peerIp = bgpFields[8];
-                    String prefix = bgpFields[9];
-                    // If the route was initially annotated with a target community, check if it's still annotated
-                    // with the same community
-                    if (initialRoutes.containsKey(peerIp) && initialRoutes.get(peerIp).containsKey(prefix)){
-                        List<String> attachedCommunities = Arrays.asList(bgpFields[13].split(" "));
-                        Route  r = initialRoutes.get(peerIp).get(prefix);
-                        if (!attachedCommunities.contains(r.getTargetCommunity())){
-                            r = null;
-                            initialRoutes.get(peerIp).remove(prefix);
-                            if (initialRoutes.get(peerIp).size() == 0){
-                                initialRoutes.remove(peerIp);
-                            }
-                        }
-                        //r.updateStatus(attachedCommunities.contains(r.getTargetCommunity()) ? 1 : 0, timestamp);
-                    }
-                }
-            }
-
-            in.close();
+        try (ElemSource in = openElems(command, start_ts, end_ts, true, false, annotatedPrefixes())) {
+            removeUnstableRoutes(in, initialRoutes);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Removes the annotated routes that a RIB entry of a stream no longer annotates with their target community,
+     * the loop of the stability pass
+     * @param in the stream of the stability pass
+     * @param initialRoutes the routes of the initial pass
+     * @return the number of removed routes
+     * @throws IOException if reading from the stream fails
+     */
+    static int removeUnstableRoutes(ElemSource in, RouteTable initialRoutes) throws IOException {
+        int removed = 0;
+        BgpElem elem = new BgpElem();
+        RouteTable.Key key = new RouteTable.Key();
+        while (in.next(elem)) {
+            if (elem.elemType() != 'R') {
+                continue;
+            }
+            int row = initialRoutes.find(elem, key);
+            // If the route was initially annotated with a target community, check if it's still annotated
+            // with the same community
+            if (row != RouteTable.NONE && !hasCommunity(elem, initialRoutes.targetCommunity(row))) {
+                initialRoutes.remove(row);
+                removed++;
+            }
+        }
+        key.flushMetrics();
+        return removed;
+    }
+
     /**
      * The function that monitors the annotated paths for changes in the communities attribute or explicit withdrawals
      * Every time a change is detected the status of the route is updated, and the corresponding timestamp is recorded.
@@ -530,54 +1626,84 @@ class CommunitiesParser implements Parser {
             int start_ts,
             int end_ts){
 
-        HashMap<String, HashMap<String, Route>> annotatedRoutes = this.result.getRoutes();
+        RouteTable annotatedRoutes = this.result.getRoutes();
         String command = properties.get("bgpreader_bin") +
                 " -w " + start_ts + "," + end_ts +
                 " -t updates" +
                 optionalArgs;
-        System.out.println(command);
 
-        Process child;
-        try {
-            child = Runtime.getRuntime().exec(command);
-            BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                // Format of bgpreader output:
-                // <rec-type>|<elem-type>|<rec-ts-sec>.<rec-ts-usec>| \
-                //  <project>|<collector>|<router>|<router-ip>|<peer-ASN>|<peer-IP>| \
-                //  <prefix>|<next-hop-IP>|<AS-path>|<origin-AS>| \
-                //  <communities>|<old-state>|<new-state>
-                // https://bgpstream.caida.org/v2-beta
-                String[] bgpFields = line.split("\\|");
-                if ( bgpFields.length > 9) {
-                    String timestamp = bgpFields[2].split("\\.")[0];
-                    String peerIp = bgpFields[8];
-                    String prefix = bgpFields[9];
-
-                    if (annotatedRoutes.containsKey(peerIp) && annotatedRoutes.get(peerIp).containsKey(prefix)) {
-                        if (bgpFields[1].equals("A") && bgpFields.length > 13) {
-                            // If the route is not annotated with the target community, set the status to withrawn,
-                            // otherwise set the status to activated (if it has previously withdrawn).
-                            List<String> attachedCommunities = Arrays.asList(bgpFields[13].split(" "));
-                            Route r = annotatedRoutes.get(peerIp).get(prefix);
-                            r.updateStatus(attachedCommunities.contains(r.getTargetCommunity()) ? 1 : 0, timestamp);
-                            this.result.setRoute(peerIp, prefix, r);
+        int workers = Integer.parseInt(this.properties.getOrDefault("pipeline_workers", "1"));
+        Result monitored = this.result;
+        try (ElemSource in = openElems(command, start_ts, end_ts, false, true, annotatedPrefixes());
+             Checkpoint.Scheduler checkpoints = newCheckpoints(start_ts, end_ts,
+                     ts -> Collections.singletonList(monitored))) {
+            if (workers > 1) {
+                // The routes are only looked up by the workers, and each route is only updated by its shard
+                List<ShardedPipeline.Worker> monitors = new ArrayList<>();
+                List<RouteTable.Key> keys = new ArrayList<>();
+                for (int i = 0; i < workers; i++) {
+                    RouteTable.Key key = new RouteTable.Key();
+                    keys.add(key);
+                    monitors.add(new ShardedPipeline.Worker() {
+                        @Override
+                        public void accept(BgpElem elem) {
+                            monitorElem(elem, annotatedRoutes, key);
                         }
-                        // If the route was withdrawn set the status to withdrawn
-                        else if (bgpFields[1].equals("W")) {
-                            Route r = annotatedRoutes.get(peerIp).get(prefix);
-                            r.updateStatus(0, timestamp);
-                            this.result.setRoute(peerIp, prefix, r);
+
+                        @Override
+                        public boolean done() {
+                            return false;
                         }
+                    });
+                }
+                newPipeline(monitors).run(in, checkpoints);
+                for (RouteTable.Key key : keys) {
+                    key.flushMetrics();
+                }
+            } else {
+                BgpElem elem = new BgpElem();
+                RouteTable.Key key = new RouteTable.Key();
+                while (in.next(elem)) {
+                    if (checkpoints != null && checkpoints.due(elem.timestamp())) {
+                        checkpoints.reached(elem.timestamp());
                     }
+                    monitorElem(elem, annotatedRoutes, key);
                 }
+                key.flushMetrics();
             }
-
-            in.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Updates the status of an annotated route from an announcement or a withdrawal
+     * @param elem the BGP elem
+     * @param annotatedRoutes the annotated routes
+     * @param key the scratch key of the thread
+     * @return the row of the route that the elem updates, even if its status doesn't change, or RouteTable.NONE if
+     * the elem doesn't update an annotated route
+     */
+    static int monitorElem(BgpElem elem, RouteTable annotatedRoutes, RouteTable.Key key){
+        int row = annotatedRoutes.find(elem, key);
+        if (row == RouteTable.NONE) {
+            return RouteTable.NONE;
+        }
+        char elemType = elem.elemType();
+        if (elemType == 'A' && elem.fieldCount() > BgpElem.COMMUNITIES) {
+            // If the route is not annotated with the target community, set the status to withrawn,
+            // otherwise set the status to activated (if it has previously withdrawn).
+            annotatedRoutes.updateStatus(row, hasCommunity(elem, annotatedRoutes.targetCommunity(row)) ? 1 : 0,
+                    elem.timestamp());
+        }
+        // If the route was withdrawn set the status to withdrawn
+        else if (elemType == 'W') {
+            annotatedRoutes.updateStatus(row, 0, elem.timestamp());
+        }
+        else {
+            return RouteTable.NONE;
+        }
+        return row;
+    }
+
 }
@@ -0,0 +1,232 @@
+package vgiotsas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A BGP community parsed into integers, either a standard community (RFC 1997, asn:value) packed in 32 bits, or a
+ * large community (RFC 8092, global:local1:local2) of three 32-bit fields. The fields are unsigned, stored in the bits
+ * of ints.
+ *
+ * The communities of the elems are compared with the targets field by field, straight from the text of the elem and
+ * without building Strings.
+ */
+final class Community {
+
+    final boolean large;
+    // The ASN of a standard community, or the global administrator of a large community
+    final int global;
+    // The value of a standard community, or the first local data part of a large community
+    final int local1;
+    // The second local data part of a large community, 0 for a standard community
+    final int local2;
+
+    private Community(boolean large, int global, int local1, int local2) {
+        this.large = large;
+        this.global = global;
+        this.local1 = local1;
+        this.local2 = local2;
+    }
+
+    /**
+     * @param large true for a large community
+     * @param global the ASN of a standard community, or the global administrator of a large community
+     * @param local1 the value of a standard community, or the first local data part of a large community
+     * @param local2 the second local data part of a large community, 0 for a standard community
+     * @return the community
+     */
+    static Community of(boolean large, int global, int local1, int local2) {
+        return new Community(large, global, local1, local2);
+    }
+
+    /**
+     * @param text a standard community, e.g. 2914:1201, or a large community, e.g. 2914:1201:0
+     * @return the community
+     * @throws IllegalArgumentException if the text is not a valid community
+     */
+    static Community parse(String text) {
+        String[] parts = text.trim().split(":", -1);
+        if (parts.length != 2 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid community " + text);
+        }
+        long max = parts.length == 2 ? 0xFFFFL : 0xFFFFFFFFL;
+        long[] values = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            byte[] digits = parts[i].getBytes();
+            values[i] = parsePart(digits, 0, digits.length);
+            if (values[i] < 0 || values[i] > max) {
+                throw new IllegalArgumentException("Invalid community " + text);
+            }
+        }
+        return new Community(parts.length == 3, (int) values[0], (int) values[1],
+                parts.length == 3 ? (int) values[2] : 0);
+    }
+
+    /**
+     * @return the standard community packed in 32 bits, the ASN in the top 16 bits
+     */
+    int packed() {
+        return global << 16 | local1;
+    }
+
+    /**
+     * @return the ASN of the network that defines the community, i.e. the top 16 bits of a standard community or
+     * the global administrator of a large community
+     */
+    int asn() {
+        return global;
+    }
+
+    /**
+     * Compares the community with a token of an elem
+     * @param b the buffer of the elem
+     * @param from the offset of the first character of the token
+     * @param to the offset after the last character of the token
+     * @return true if the token is this community
+     */
+    boolean matches(byte[] b, int from, int to) {
+        int colon1 = indexOf(b, from, to);
+        if (colon1 < 0) {
+            return false;
+        }
+        int colon2 = indexOf(b, colon1 + 1, to);
+        if (large != colon2 >= 0) {
+            return false;
+        }
+        if (parsePart(b, from, colon1) != (global & 0xFFFFFFFFL)) {
+            return false;
+        }
+        if (!large) {
+            return parsePart(b, colon1 + 1, to) == local1;
+        }
+        return parsePart(b, colon1 + 1, colon2) == (local1 & 0xFFFFFFFFL)
+                && parsePart(b, colon2 + 1, to) == (local2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Packs all the communities attached to an elem in an int array: the number
+     * of standard communities, the standard communities packed in 32 bits, and the three fields of every large
+     * community. Tokens that are not communities are skipped.
+     * @param elem the elem
+     * @return the packed communities
+     */
+    static int[] packAll(BgpElem elem) {
+        BgpElem.Cursor cursor = elem.communities();
+        byte[] b = elem.buffer();
+        int[] packed = new int[8];
+        int standard = 0;
+        int size = 1;
+        // The large communities are collected after the standard ones, in a separate buffer
+        int[] large = null;
+        int largeSize = 0;
+        while (cursor.next()) {
+            int from = cursor.start();
+            int to = cursor.end();
+            int colon1 = indexOf(b, from, to);
+            if (colon1 < 0) {
+                continue;
+            }
+            int colon2 = indexOf(b, colon1 + 1, to);
+            long global = parsePart(b, from, colon1);
+            if (colon2 < 0) {
+                long value = parsePart(b, colon1 + 1, to);
+                if (global < 0 || global > 0xFFFF || value < 0 || value > 0xFFFF) {
+                    continue;
+                }
+                if (size == packed.length) {
+                    packed = Arrays.copyOf(packed, size * 2);
+                }
+                packed[size++] = (int) (global << 16 | value);
+                standard++;
+            } else {
+                long local1 = parsePart(b, colon1 + 1, colon2);
+                long local2 = parsePart(b, colon2 + 1, to);
+                if (global < 0 || local1 < 0 || local2 < 0) {
+                    continue;
+                }
+                if (large == null) {
+                    large = new int[6];
+                } else if (largeSize + 3 > large.length) {
+                    large = Arrays.copyOf(large, large.length * 2);
+                }
+                large[largeSize++] = (int) global;
+                large[largeSize++] = (int) local1;
+                large[largeSize++] = (int) local2;
+            }
+        }
+        int[] result = Arrays.copyOf(packed, size + largeSize);
+        result[0] = standard;
+        if (largeSize > 0) {
+            System.arraycopy(large, 0, result, size, largeSize);
+        }
+        return result;
+    }
+
+    /**
+     * @param packed communities packed with {@link #packAll(BgpElem)}
+     * @return the communities as text
+     */
+    static List<String> unpackAll(int[] packed) {
+        List<String> communities = new ArrayList<>();
+        int standard = packed[0];
+        for (int i = 1; i <= standard; i++) {
+            communities.add((packed[i] >>> 16) + ":" + (packed[i] & 0xFFFF));
+        }
+        for (int i = standard + 1; i + 2 < packed.length; i += 3) {
+            communities.add(Integer.toUnsignedString(packed[i]) + ":" + Integer.toUnsignedString(packed[i + 1]) +
+                    ":" + Integer.toUnsignedString(packed[i + 2]));
+        }
+        return communities;
+    }
+
+    static int indexOf(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == ':') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the unsigned 32-bit decimal number in the range, or -1 if the range is not one
+     */
+    static long parsePart(byte[] b, int from, int to) {
+        if (from >= to || to - from > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value > 0xFFFFFFFFL ? -1 : value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Community)) {
+            return false;
+        }
+        Community c = (Community) o;
+        return large == c.large && global == c.global && local1 == c.local1 && local2 == c.local2;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((global * 31 + local1) * 31 + local2) * 2 + (large ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        if (!large) {
+            return (global & 0xFFFF) + ":" + (local1 & 0xFFFF);
+        }
+        return Integer.toUnsignedString(global) + ":" + Integer.toUnsignedString(local1) + ":" +
+                Integer.toUnsignedString(local2);
+    }
+}
@@ -0,0 +1,91 @@
+package vgiotsas;
+
+import java.util.ArrayList;
+
+/**
+ * Set of the target communities, with a dense index for every community in the order they are added. The
+ * communities are kept as packed integers in a {@link LongPairIndex}: the standard communities as their 32 bits, the
+ * large communities as the global administrator and the first local part in one long and the second local part in
+ * the other. A community of an elem is looked up by parsing its text into the same key, without building a String.
+ */
+class CommunitySet {
+
+    static final int MISSING = LongPairIndex.MISSING;
+
+    private final LongPairIndex index = new LongPairIndex();
+    private final ArrayList<Community> communities = new ArrayList<>();
+    private boolean hasLarge = false;
+
+    /**
+     * Adds a community to the set if it's not already in it
+     * @return the index of the community
+     */
+    int add(Community community) {
+        int id = community.large
+                ? index.add((community.global & 0xFFFFFFFFL) << 32 | (community.local1 & 0xFFFFFFFFL),
+                        community.local2 & 0xFFFFFFFFL, 1)
+                : index.add(community.packed() & 0xFFFFFFFFL, 0, 0);
+        if (id == communities.size()) {
+            communities.add(community);
+            hasLarge |= community.large;
+        }
+        return id;
+    }
+
+    /**
+     * Looks up a community given as text, e.g. a token of the communities of an elem
+     * @param b the buffer with the text
+     * @param from the offset of the first character of the community
+     * @param to the offset after the last character of the community
+     * @return the index of the community, or {@link #MISSING} if it's not in the set or not a valid community
+     */
+    int find(byte[] b, int from, int to) {
+        int colon1 = Community.indexOf(b, from, to);
+        if (colon1 < 0) {
+            return MISSING;
+        }
+        int colon2 = Community.indexOf(b, colon1 + 1, to);
+        long global = Community.parsePart(b, from, colon1);
+        if (colon2 < 0) {
+            long value = Community.parsePart(b, colon1 + 1, to);
+            if (global < 0 || global > 0xFFFF || value < 0 || value > 0xFFFF) {
+                return MISSING;
+            }
+            return index.get(global << 16 | value, 0, 0);
+        }
+        if (!hasLarge) {
+            return MISSING;
+        }
+        long local1 = Community.parsePart(b, colon1 + 1, colon2);
+        long local2 = Community.parsePart(b, colon2 + 1, to);
+        if (global < 0 || local1 < 0 || local2 < 0) {
+            return MISSING;
+        }
+        return index.get(global << 32 | local1, local2, 1);
+    }
+
+    /**
+     * @return the index of the community, or {@link #MISSING} if it's not in the set
+     */
+    int indexOf(Community community) {
+        return community.large
+                ? index.get((community.global & 0xFFFFFFFFL) << 32 | (community.local1 & 0xFFFFFFFFL),
+                        community.local2 & 0xFFFFFFFFL, 1)
+                : index.get(community.packed() & 0xFFFFFFFFL, 0, 0);
+    }
+
+    Community get(int i) {
+        return communities.get(i);
+    }
+
+    int size() {
+        return communities.size();
+    }
+
+    /**
+     * @return true if any of the communities is a large community
+     */
+    boolean hasLarge() {
+        return hasLarge;
+    }
+}
@@ -0,0 +1,226 @@
+package vgiotsas;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Number of activated routes of every target community over time, in fixed-width bins of the measurement period.
+ * Every status change of a route adds +1 (activation) or -1 (withdrawal) to the bin of its timestamp, the changes
+ * before the period are summed in one counter and the changes after the last bin are dropped. The memory is bounded
+ * by the number of communities times the number of bins, however many changes the routes go through.
+ *
+ * The counters are atomic, so the shards of a {@link ShardedPipeline} can share one timeline, and a snapshot can be
+ * read at any time while the routes are monitored.
+ *
+ * For an unbounded stream the bins are a ring: {@link #roll(int, BinListener)} closes the bins that end before the
+ * time of the stream, folds them into the running totals and reuses their counters for the next bins, so the
+ * memory doesn't grow with the duration of the stream. Rolling must not run concurrently with {@link #add}.
+ */
+class CommunityTimeline {
+
+    static final int DEFAULT_BIN_SECONDS = 180;
+
+    /**
+     * Receives the number of activated routes of every community when a bin closes
+     */
+    interface BinListener {
+        void closed(Community community, int binStart, int paths);
+    }
+
+    private final CommunitySet communities;
+    private final int origin;
+    private final int width;
+    private final int bins;
+    // For every community, the sum of the changes before the first open bin followed by the sum of the changes of
+    // each open bin, in a ring
+    private final AtomicIntegerArray counts;
+    // The number of the oldest bin that is still open
+    private long firstOpen = 0;
+    private volatile ChangeDetector detector = null;
+
+    /**
+     * @param communities the target communities
+     * @param origin the epoch timestamp of the start of the first bin
+     * @param end the epoch timestamp of the end of the period, the last bin is the one that contains it
+     * @param width the width of the bins in seconds
+     */
+    CommunityTimeline(CommunitySet communities, int origin, int end, int width) {
+        this.communities = communities;
+        this.origin = origin;
+        this.width = width;
+        this.bins = Math.max(0, (int) (((long) end - origin + width - 1) / width));
+        this.counts = new AtomicIntegerArray(communities.size() * (bins + 1));
+    }
+
+    /**
+     * Creates a timeline for an unbounded stream, to be rolled with {@link #roll(int, BinListener)}
+     * @param communities the target communities
+     * @param origin the epoch timestamp of the start of the first bin
+     * @param width the width of the bins in seconds
+     * @param bins the number of bins that are open at the same time, i.e. the size of the ring
+     * @return the timeline
+     */
+    static CommunityTimeline ring(CommunitySet communities, int origin, int width, int bins) {
+        return new CommunityTimeline(communities, origin, origin + bins * width, width);
+    }
+
+    /**
+     * Checks the status changes of the routes that track the timeline with a change-point detector
+     * @param detector the detector, or null to stop checking the changes
+     */
+    void detectChanges(ChangeDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * @return the change-point detector of the timeline, or null if the changes are not checked
+     */
+    ChangeDetector detector() {
+        return detector;
+    }
+
+    /**
+     * Adds a status change of a route
+     * @param community the target community of the route
+     * @param ts the epoch timestamp of the change
+     * @param delta 1 for an activation, -1 for a withdrawal, or the opposite to retract a change
+     */
+    void add(Community community, int ts, int delta) {
+        int c = communities.indexOf(community);
+        if (c == CommunitySet.MISSING) {
+            return;
+        }
+        int bin;
+        long number = ts < origin ? -1 : ((long) ts - origin) / width;
+        if (number < firstOpen) {
+            bin = 0;
+        } else if (number >= firstOpen + bins) {
+            return;
+        } else {
+            bin = (int) (number % bins) + 1;
+        }
+        counts.addAndGet(c * (bins + 1) + bin, delta);
+    }
+
+    /**
+     * Closes the bins that end at or before a timestamp
+     * @param ts the epoch timestamp of the stream
+     * @param listener receives the number of activated routes of every community at the end of every closed bin
+     * @return the number of closed bins
+     */
+    int roll(int ts, BinListener listener) {
+        int closed = 0;
+        while (bins > 0 && ts >= origin + (firstOpen + 1) * width) {
+            int slot = (int) (firstOpen % bins) + 1;
+            int binStart = (int) (origin + firstOpen * width);
+            for (int c = 0; c < communities.size(); c++) {
+                int base = c * (bins + 1);
+                int total = counts.get(base) + counts.getAndSet(base + slot, 0);
+                counts.set(base, total);
+                listener.closed(communities.get(c), binStart, total);
+            }
+            firstOpen++;
+            closed++;
+        }
+        return closed;
+    }
+
+    /**
+     * @return the number of activated routes of every community at the end of every open bin, for the communities
+     * that have any routes
+     */
+    HashMap<String, Result.TimeLine> snapshot() {
+        HashMap<String, Result.TimeLine> timelines = new HashMap<>();
+        for (int c = 0; c < communities.size(); c++) {
+            int base = c * (bins + 1);
+            boolean hasRoutes = false;
+            int[] paths = new int[bins];
+            int total = counts.get(base);
+            hasRoutes |= total != 0;
+            for (int b = 0; b < bins; b++) {
+                int delta = counts.get(base + (int) ((firstOpen + b) % bins) + 1);
+                hasRoutes |= delta != 0;
+                total += delta;
+                paths[b] = total;
+            }
+            if (hasRoutes) {
+                timelines.put(communities.get(c).toString(),
+                        new Result.TimeLine((int) (origin + firstOpen * width), width, paths));
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     * @return a copy of the counters, to be written with {@link #write(DataOutputStream, int[])}
+     */
+    int[] copyCounts() {
+        int[] copy = new int[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Writes the bins and a copy of the counters (big-endian):
+     * <origin>|<width>|<bins>|<first open bin>|<community-count>|for every community: <community>|<counters>
+     * @param out the output
+     * @param copy the counters, copied with {@link #copyCounts()}
+     * @throws IOException if the output fails
+     */
+    void write(DataOutputStream out, int[] copy) throws IOException {
+        out.writeInt(origin);
+        out.writeInt(width);
+        out.writeInt(bins);
+        out.writeLong(firstOpen);
+        out.writeInt(communities.size());
+        for (int c = 0; c < communities.size(); c++) {
+            out.writeUTF(communities.get(c).toString());
+            for (int b = 0; b <= bins; b++) {
+                out.writeInt(copy[c * (bins + 1) + b]);
+            }
+        }
+    }
+
+    /**
+     * Reads a timeline written by {@link #write(DataOutputStream, int[])}
+     * @param in the input
+     * @param communities the target communities, the counters of the other communities are skipped
+     * @return the timeline
+     * @throws IOException if the input fails
+     */
+    static CommunityTimeline read(DataInputStream in, CommunitySet communities) throws IOException {
+        int origin = in.readInt();
+        int width = in.readInt();
+        int bins = in.readInt();
+        CommunityTimeline timeline = ring(communities, origin, width, bins);
+        timeline.firstOpen = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int c = communities.indexOf(Community.parse(in.readUTF()));
+            for (int b = 0; b <= bins; b++) {
+                int value = in.readInt();
+                if (c != CommunitySet.MISSING) {
+                    timeline.counts.set(c * (bins + 1) + b, value);
+                }
+            }
+        }
+        return timeline;
+    }
+
+    int origin() {
+        return origin;
+    }
+
+    int width() {
+        return width;
+    }
+
+    int bins() {
+        return bins;
+    }
+}
@@ -0,0 +1,219 @@
+package vgiotsas;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiled binary snapshot of the reference datasets (AS relationships, colocation map, IXP members and Route Server
+ * ASNs). Parsing the sources takes several seconds at every start, while the snapshot is memory-mapped and copied
+ * into the in-memory structures in bulk.
+ *
+ * Layout of the file (big-endian):
+ * <magic>|<version>|<created-ms>|
+ *  <relationships-capacity>|<relationships-size>|<keys as long[capacity]>|<values as byte[capacity]>|
+ *  <asn-count>|<ASNs by ID>|<city-count>|<city names by ID>|
+ *  <facility-count>|<facility name, city ID and member bitset by ID>|<ixp-count>|<IXP name and member bitset by ID>|
+ *  <routeServerASNs>
+ * Strings are stored as their UTF-8 length followed by the UTF-8 bytes, bitsets as the number of words followed by
+ * the words, and maps as their size followed by the entries.
+ */
+class DatasetSnapshot {
+
+    private static final int MAGIC = 0x43504453; // "CPDS"
+    static final int VERSION = 2;
+
+    /**
+     * Checks if the snapshot can be used instead of the source files, i.e. if it exists and it's newer than all the
+     * local source files of the datasets
+     * @param snapshotFile the path to the snapshot file
+     * @param properties the configuration properties with the paths of the source files
+     * @return true if the snapshot is newer than all its source files
+     */
+    static boolean isFresh(String snapshotFile, HashMap<String, String> properties) {
+        File snapshot = new File(snapshotFile);
+        if (!snapshot.isFile()) {
+            return false;
+        }
+        for (String source : new String[]{"relationships_file", "ix_dataset", "ix_asn_dataset"}) {
+            String path = properties.get(source);
+            if (path != null && new File(path).lastModified() >= snapshot.lastModified()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serialises the datasets into a snapshot file
+     * @param datasets the datasets loaded from their sources
+     * @param snapshotFile the path to the snapshot file
+     * @throws IOException if the file can't be written
+     */
+    static void write(Datasets datasets, String snapshotFile) throws IOException {
+        File tmp = new File(snapshotFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+
+            long[] keys = datasets.relationships.keys();
+            out.writeInt(keys.length);
+            out.writeInt(datasets.relationships.size());
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+            out.write(datasets.relationships.values());
+
+            PeeringCartographer.ColocationMap coloMap = datasets.coloMap;
+            out.writeInt(coloMap.asnCount);
+            for (int i = 0; i < coloMap.asnCount; i++) {
+                out.writeInt(coloMap.asns[i]);
+            }
+            out.writeInt(coloMap.cityNames.size());
+            for (String city : coloMap.cityNames) {
+                writeString(out, city);
+            }
+            out.writeInt(coloMap.facilityNames.size());
+            for (int f = 0; f < coloMap.facilityNames.size(); f++) {
+                writeString(out, coloMap.facilityNames.get(f));
+                out.writeInt(coloMap.facilityCity(f));
+                writeBitSet(out, coloMap.facMembers.get(f));
+            }
+            out.writeInt(coloMap.ixpNames.size());
+            for (int x = 0; x < coloMap.ixpNames.size(); x++) {
+                writeString(out, coloMap.ixpNames.get(x));
+                writeBitSet(out, coloMap.ixpMembers.get(x));
+            }
+            writeMap(out, datasets.routeServerASNs);
+        }
+        File target = new File(snapshotFile);
+        if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+            throw new IOException("Unable to move " + tmp + " to " + target);
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot file and loads the datasets it contains
+     * @param snapshotFile the path to the snapshot file
+     * @return the datasets, or null if the file is not a snapshot of the current version
+     * @throws IOException if the file can't be read
+     */
+    static Datasets read(String snapshotFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC) {
+                System.err.println(snapshotFile + " is not a dataset snapshot");
+                return null;
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                System.err.println("Dataset snapshot version " + version + " is not supported, expected " + VERSION);
+                return null;
+            }
+            buf.getLong(); // creation time
+
+            int capacity = buf.getInt();
+            int size = buf.getInt();
+            long[] keys = new long[capacity];
+            buf.asLongBuffer().get(keys);
+            buf.position(buf.position() + capacity * 8);
+            byte[] values = new byte[capacity];
+            buf.get(values);
+            AsRelationships relationships = new AsRelationships(keys, values, size);
+
+            PeeringCartographer.ColocationMap coloMap = new PeeringCartographer.ColocationMap();
+            int asnCount = buf.getInt();
+            coloMap.asns = new int[Math.max(1, asnCount)];
+            coloMap.asnIds = new IntIntMap(asnCount);
+            for (int i = 0; i < asnCount; i++) {
+                coloMap.asns[i] = buf.getInt();
+                coloMap.asnIds.put(coloMap.asns[i], i);
+            }
+            coloMap.asnCount = asnCount;
+            int cities = buf.getInt();
+            for (int c = 0; c < cities; c++) {
+                String city = readString(buf);
+                coloMap.cityIds.put(city, c);
+                coloMap.cityNames.add(city);
+                coloMap.cityFacilities.add(new BitSet());
+            }
+            int facilities = buf.getInt();
+            coloMap.facilityCity = new int[Math.max(1, facilities)];
+            for (int f = 0; f < facilities; f++) {
+                String name = readString(buf);
+                coloMap.facilityIds.put(name, f);
+                coloMap.facilityNames.add(name);
+                coloMap.facilityCity[f] = buf.getInt();
+                coloMap.cityFacilities.get(coloMap.facilityCity[f]).set(f);
+                coloMap.facMembers.add(readBitSet(buf));
+            }
+            int ixps = buf.getInt();
+            for (int x = 0; x < ixps; x++) {
+                String name = readString(buf);
+                coloMap.ixpIds.put(name, x);
+                coloMap.ixpNames.add(name);
+                coloMap.ixpMembers.add(readBitSet(buf));
+            }
+            HashMap<String, String> routeServerASNs = readMap(buf);
+            return new Datasets(coloMap, relationships, routeServerASNs);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static HashMap<String, String> readMap(ByteBuffer buf) {
+        int n = buf.getInt();
+        HashMap<String, String> map = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            String key = readString(buf);
+            map.put(key, readString(buf));
+        }
+        return map;
+    }
+
+    private static void writeBitSet(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static BitSet readBitSet(ByteBuffer buf) {
+        long[] words = new long[buf.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buf.getLong();
+        }
+        return BitSet.valueOf(words);
+    }
+}
@@ -0,0 +1,22 @@
+package vgiotsas;
+
+import java.util.HashMap;
+
+/**
+ * The reference datasets that are needed to map the communities to AS links, loaded either from their sources or
+ * from a compiled {@link DatasetSnapshot}.
+ */
+class Datasets {
+    PeeringCartographer.ColocationMap coloMap;
+    AsRelationships relationships;
+    // Maps Route Server ASN -> IXP name
+    HashMap<String, String> routeServerASNs;
+
+    Datasets(PeeringCartographer.ColocationMap coloMap,
+             AsRelationships relationships,
+             HashMap<String, String> routeServerASNs){
+        this.coloMap = coloMap;
+        this.relationships = relationships;
+        this.routeServerASNs = routeServerASNs;
+    }
+}
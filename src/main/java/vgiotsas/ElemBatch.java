@@ -0,0 +1,69 @@
+package vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * A batch of bgpreader lines copied into one byte array, with the offsets and the timestamp of every line. Batches
+ * are handed between threads instead of single lines, so that the queues are touched once per batch.
+ */
+class ElemBatch {
+
+    final byte[] data;
+    final int[] starts;
+    final int[] ends;
+    final int[] timestamps;
+    int count = 0;
+    private int size = 0;
+    private byte[] oversized = null;
+
+    /**
+     * @param maxElems the maximum number of lines in the batch
+     * @param maxBytes the maximum number of bytes in the batch, a single longer line is still accepted
+     */
+    ElemBatch(int maxElems, int maxBytes) {
+        this.data = new byte[maxBytes];
+        this.starts = new int[maxElems];
+        this.ends = new int[maxElems];
+        this.timestamps = new int[maxElems];
+    }
+
+    /**
+     * Copies the line of an elem into the batch
+     * @param elem the elem
+     * @return false if the batch is full and the line was not added
+     */
+    boolean add(BgpElem elem) {
+        int length = elem.lineEnd() - elem.lineStart();
+        if (count == starts.length) {
+            return false;
+        }
+        if (size + length > data.length) {
+            if (count > 0) {
+                return false;
+            }
+            // A single line that doesn't fit in the batch gets a batch of its own
+            oversized = Arrays.copyOfRange(elem.buffer(), elem.lineStart(), elem.lineEnd());
+            starts[0] = 0;
+            ends[0] = length;
+            timestamps[0] = elem.timestamp();
+            count = 1;
+            return true;
+        }
+        System.arraycopy(elem.buffer(), elem.lineStart(), data, size, length);
+        starts[count] = size;
+        ends[count] = size + length;
+        timestamps[count] = elem.timestamp();
+        size += length;
+        count++;
+        return true;
+    }
+
+    /**
+     * Wraps a line of the batch in an elem
+     * @param i the index of the line
+     * @param elem the elem to which the line is wrapped
+     */
+    void wrap(int i, BgpElem elem) {
+        elem.wrap(oversized != null ? oversized : data, starts[i], ends[i]);
+    }
+}
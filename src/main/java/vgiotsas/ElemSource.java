@@ -0,0 +1,20 @@
+package vgiotsas;
+
+import java.io.IOException;
+
+/**
+ * A stream of BGP elems, e.g. the output of one bgpreader process or the merged output of several of them
+ */
+interface ElemSource extends AutoCloseable {
+
+    /**
+     * Wraps the next elem of the stream in the given elem. The wrapped line stays valid until the next call.
+     * @param elem the elem to which the line is wrapped
+     * @return true if an elem was read, false at the end of the stream
+     * @throws IOException if reading from the stream fails
+     */
+    boolean next(BgpElem elem) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
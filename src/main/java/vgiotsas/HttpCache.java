@@ -0,0 +1,201 @@
+package vgiotsas;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Properties;
+
+/**
+ * On-disk cache of the responses of the PeeringDB and Euro-IX endpoints, keyed by URL. A cached response is served
+ * without contacting the server while it's younger than the TTL. After that it is revalidated with a conditional
+ * request (If-None-Match/If-Modified-Since), so an unchanged response costs a 304 instead of the full download.
+ *
+ * In offline mode remote servers are never contacted: responses are served from the cache regardless of their age,
+ * and only local stand-ins (file: URLs, plain file paths or servers on the loopback interface) are read directly.
+ */
+class HttpCache {
+
+    private static final String USER_AGENT = "Mozilla/5.0";
+
+    private final File dir;
+    private final long ttlMillis;
+    private final boolean offline;
+
+    /**
+     * @param dir the directory where the responses are stored, or null to disable caching
+     * @param ttlSeconds the number of seconds during which a cached response is served without revalidation
+     * @param offline true to never contact remote servers
+     */
+    HttpCache(String dir, long ttlSeconds, boolean offline) {
+        this.dir = dir == null || dir.isEmpty() ? null : new File(dir);
+        this.ttlMillis = ttlSeconds * 1000;
+        this.offline = offline;
+    }
+
+    /**
+     * Creates the cache from the http_cache_dir, http_cache_ttl_hours and offline properties
+     * @param properties the command-line arguments and the configuration properties
+     * @return the configured cache
+     */
+    static HttpCache fromProperties(HashMap<String, String> properties) {
+        return new HttpCache(
+                properties.get("http_cache_dir"),
+                Long.parseLong(properties.getOrDefault("http_cache_ttl_hours", "24")) * 3600,
+                Boolean.parseBoolean(properties.getOrDefault("offline", "false")));
+    }
+
+    /**
+     * Opens the body of the response to a GET request, from the cache if possible
+     * @param url the URL of the request, or the path of a local file
+     * @return the stream of the response body
+     * @throws IOException if the response is neither reachable nor cached
+     */
+    InputStream open(String url) throws IOException {
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            return url.startsWith("file:") ? new URL(url).openStream() : new FileInputStream(url);
+        }
+        if (dir == null) {
+            if (offline && !isLoopback(url)) {
+                throw new IOException("Offline mode and no cache directory configured for " + url);
+            }
+            return connect(url, null).getInputStream();
+        }
+
+        String key = key(url);
+        File body = new File(dir, key + ".body");
+        File metaFile = new File(dir, key + ".properties");
+        Properties meta = readMeta(metaFile);
+        boolean cached = body.isFile() && meta != null;
+
+        if (cached && (offline || System.currentTimeMillis() - fetchedAt(meta) < ttlMillis)) {
+            return new FileInputStream(body);
+        }
+        if (offline && !isLoopback(url)) {
+            throw new IOException("Offline mode and no cached response for " + url);
+        }
+
+        try {
+            HttpURLConnection con = connect(url, cached ? meta : null);
+            int status = con.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+                meta.setProperty("fetched_at", Long.toString(System.currentTimeMillis()));
+                writeMeta(metaFile, meta);
+                con.disconnect();
+                return new FileInputStream(body);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create the cache directory " + dir);
+            }
+            File tmp = new File(dir, key + ".tmp");
+            try (InputStream in = con.getInputStream(); OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buf = new byte[1 << 16];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            Files.move(tmp.toPath(), body.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Properties fresh = new Properties();
+            fresh.setProperty("url", url);
+            fresh.setProperty("fetched_at", Long.toString(System.currentTimeMillis()));
+            if (con.getHeaderField("ETag") != null) {
+                fresh.setProperty("etag", con.getHeaderField("ETag"));
+            }
+            if (con.getHeaderField("Last-Modified") != null) {
+                fresh.setProperty("last_modified", con.getHeaderField("Last-Modified"));
+            }
+            writeMeta(metaFile, fresh);
+            return new FileInputStream(body);
+        } catch (IOException e) {
+            if (cached) {
+                System.err.println("Couldn't revalidate " + url + ", using the cached response (" + e.getMessage() + ")");
+                return new FileInputStream(body);
+            }
+            throw e;
+        }
+    }
+
+    private HttpURLConnection connect(String url, Properties meta) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        HttpURLConnection con = (HttpURLConnection) connection;
+        con.setRequestMethod("GET");
+        con.setRequestProperty("User-Agent", USER_AGENT);
+        if (meta != null) {
+            if (meta.getProperty("etag") != null) {
+                con.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+            }
+            if (meta.getProperty("last_modified") != null) {
+                con.setRequestProperty("If-Modified-Since", meta.getProperty("last_modified"));
+            }
+        }
+        return con;
+    }
+
+    private static boolean isLoopback(String url) {
+        try {
+            return InetAddress.getByName(new URL(url).getHost()).isLoopbackAddress();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long fetchedAt(Properties meta) {
+        try {
+            return Long.parseLong(meta.getProperty("fetched_at", "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Properties readMeta(File metaFile) {
+        if (!metaFile.isFile()) {
+            return null;
+        }
+        Properties meta = new Properties();
+        try (InputStream in = new FileInputStream(metaFile)) {
+            meta.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) throws IOException {
+        try (OutputStream out = new FileOutputStream(metaFile)) {
+            meta.store(out, null);
+        }
+    }
+
+    /**
+     * @param url the URL of the request
+     * @return the SHA-1 digest of the URL in hex, used as the name of the cached files
+     */
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package vgiotsas;
+
+/**
+ * Open-addressing hash map from int keys to int values with linear probing. Lookups and updates don't box the keys
+ * or the values, and the map is two primitive arrays.
+ */
+class IntIntMap {
+
+    static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of keys the map is expected to hold
+     */
+    IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, or {@link #MISSING} if the key is not in the map
+     */
+    int get(int key) {
+        for (int i = slot(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    boolean containsKey(int key) {
+        for (int i = slot(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps a key to a value, replacing the previous value of the key
+     * @param key the key
+     * @param value the value
+     */
+    void put(int key, int value) {
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            rehash(keys.length << 1);
+        }
+        int i = slot(key);
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Calls the consumer for every entry of the map, in no particular order
+     * @param consumer the function that receives the keys and the values
+     */
+    void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                int i = slot(oldKeys[j]);
+                while (used[i]) {
+                    i = (i + 1) & mask;
+                }
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
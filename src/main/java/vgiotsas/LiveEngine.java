@@ -0,0 +1,129 @@
+package vgiotsas;
+
+/**
+ * Monitors the annotated routes of an unbounded stream, e.g. a live bgpreader stream, in generations of
+ * {@link StreamEngine}s. A generation bootstraps its routes from the RIB entries and the announcements of
+ * bootstrap_hours, filters the unstable ones for stability_hours, and then monitors them. Every
+ * rebootstrap_hours a new generation starts bootstrapping next to the monitored one, and it replaces the monitored
+ * generation when it reaches its own monitoring phase, so the routes follow the changes of the paths without
+ * restarting the stream or reloading the datasets.
+ *
+ * The status changes of the monitored generation are added to a {@link CommunityTimeline} ring, whose bins are
+ * passed to a listener as they close, and the history of the routes is kept for a sliding window. The memory is
+ * bounded by the routes of at most two generations and the bins of the ring, however long the stream runs.
+ */
+class LiveEngine {
+
+    // The bins that are open at the same time, the elems of a stream are in time order
+    private static final int OPEN_BINS = 2;
+    private static final int EVICTION_SECONDS = 3600;
+
+    private final CommunitiesParser parser;
+    private final CommunityTimeline timeline;
+    private final CommunityTimeline.BinListener listener;
+    private final int bootstrapSeconds;
+    private final int stabilitySeconds;
+    private final int rebootstrapSeconds;
+    private final int windowSeconds;
+    private final boolean keepHistory;
+
+    private StreamEngine monitored = null;
+    private StreamEngine bootstrapping;
+    private int nextBootstrap;
+    private int nextEviction;
+    private int generations = 1;
+
+    /**
+     * @param parser the parser that annotates the routes, its targets must have been indexed
+     * @param start the epoch timestamp of the start of the stream, when the first generation starts bootstrapping
+     * @param binWidth the width of the timeline bins in seconds
+     * @param listener receives the bins of the timeline as they close
+     * @param bootstrapSeconds the duration of the bootstrap phase of every generation
+     * @param stabilitySeconds the duration of the stability phase of every generation
+     * @param rebootstrapSeconds the interval between the starts of consecutive generations
+     * @param windowSeconds the age after which the status changes of the routes are evicted from their history
+     * @param keepHistory false to keep no history of the status changes of the routes, only their timeline
+     */
+    LiveEngine(CommunitiesParser parser, int start, int binWidth, CommunityTimeline.BinListener listener,
+               int bootstrapSeconds, int stabilitySeconds, int rebootstrapSeconds, int windowSeconds,
+               boolean keepHistory) {
+        this.parser = parser;
+        this.listener = listener;
+        this.bootstrapSeconds = bootstrapSeconds;
+        this.stabilitySeconds = stabilitySeconds;
+        this.rebootstrapSeconds = Math.max(rebootstrapSeconds, 1);
+        this.windowSeconds = windowSeconds;
+        this.keepHistory = keepHistory;
+        // The timeline starts when the first generation starts monitoring
+        this.timeline = CommunityTimeline.ring(parser.targets(), start + bootstrapSeconds + stabilitySeconds,
+                binWidth, OPEN_BINS);
+        this.bootstrapping = newGeneration(start);
+        // The metrics time the phases of the first generation until the next one is monitored
+        Metrics.publishPhases(this.bootstrapping.phases());
+        this.nextBootstrap = start + this.rebootstrapSeconds;
+        this.nextEviction = start + EVICTION_SECONDS;
+    }
+
+    private StreamEngine newGeneration(int start) {
+        StreamEngine generation = new StreamEngine(parser, start + bootstrapSeconds,
+                start + bootstrapSeconds + stabilitySeconds, Integer.MAX_VALUE, true, new Metrics.Phases());
+        generation.trackTimeline(timeline, keepHistory);
+        return generation;
+    }
+
+    /**
+     * Moves the routes of the generations through their phases
+     * @param elem a RIB entry, an announcement or a withdrawal
+     */
+    void accept(BgpElem elem) {
+        int ts = elem.timestamp();
+        timeline.roll(ts, listener);
+        if (bootstrapping == null && ts >= nextBootstrap) {
+            generations++;
+            System.out.println("Bootstrapping generation " + generations + " of the annotated routes at " + ts);
+            bootstrapping = newGeneration(ts);
+            nextBootstrap = ts + rebootstrapSeconds;
+        }
+        if (monitored != null) {
+            monitored.accept(elem);
+        }
+        if (bootstrapping != null) {
+            bootstrapping.accept(elem);
+            // The new generation added its routes to the timeline when it entered the monitoring phase
+            if (bootstrapping.phase() >= StreamEngine.MONITORING) {
+                if (monitored != null) {
+                    monitored.result().untrackTimeline(ts);
+                }
+                // The baselines of the change points start over with the routes of the new generation
+                if (timeline.detector() != null) {
+                    timeline.detector().restart();
+                }
+                monitored = bootstrapping;
+                bootstrapping = null;
+                Metrics.publishPhases(monitored.phases());
+                System.out.println("Monitoring " + monitored.routeCount() + " annotated routes of generation " +
+                        generations);
+            }
+        }
+        if (ts >= nextEviction) {
+            if (monitored != null) {
+                monitored.result().getRoutes().evictHistory(ts - windowSeconds);
+            }
+            nextEviction = ts + EVICTION_SECONDS;
+        }
+    }
+
+    /**
+     * @return the number of activated routes of every community in the open bins
+     */
+    CommunityTimeline timeline() {
+        return timeline;
+    }
+
+    /**
+     * @return the number of routes of the monitored generation, 0 before the first generation is monitored
+     */
+    int routeCount() {
+        return monitored == null ? 0 : monitored.routeCount();
+    }
+}
@@ -0,0 +1,114 @@
+package vgiotsas;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing index that assigns dense IDs to keys made of two longs and an int, in the order the keys are
+ * added. The keys are stored in primitive arrays by ID, so an ID can be decoded back to its key, and the hash table
+ * only holds the IDs. Keys are never removed.
+ */
+class LongPairIndex {
+
+    static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] highs;
+    private long[] lows;
+    private int[] metas;
+    private int size = 0;
+    // ID + 1 of the key in every slot, 0 for an empty slot
+    private int[] slots;
+    private int mask;
+
+    LongPairIndex() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of keys the index is expected to hold
+     */
+    LongPairIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        highs = new long[Math.max(4, expectedSize)];
+        lows = new long[highs.length];
+        metas = new int[highs.length];
+    }
+
+    /**
+     * @return the ID of the key, or {@link #MISSING} if the key is not in the index
+     */
+    int get(long high, long low, int meta) {
+        for (int i = slot(high, low, meta); slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (highs[id] == high && lows[id] == low && metas[id] == meta) {
+                return id;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Adds a key to the index if it's not already in it
+     * @return the ID of the key
+     */
+    int add(long high, long low, int meta) {
+        int i = slot(high, low, meta);
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (highs[id] == high && lows[id] == low && metas[id] == meta) {
+                return id;
+            }
+        }
+        if (size == highs.length) {
+            highs = Arrays.copyOf(highs, size * 2);
+            lows = Arrays.copyOf(lows, size * 2);
+            metas = Arrays.copyOf(metas, size * 2);
+        }
+        int id = size++;
+        highs[id] = high;
+        lows[id] = low;
+        metas[id] = meta;
+        slots[i] = id + 1;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length << 1);
+        }
+        return id;
+    }
+
+    long high(int id) {
+        return highs[id];
+    }
+
+    long low(int id) {
+        return lows[id];
+    }
+
+    int meta(int id) {
+        return metas[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int i = slot(highs[id], lows[id], metas[id]);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    private int slot(long high, long low, int meta) {
+        long h = (high * 0x9E3779B97F4A7C15L + low) * 0x9E3779B97F4A7C15L + meta;
+        int x = (int) (h ^ (h >>> 32));
+        return (x ^ (x >>> 16)) & mask;
+    }
+}
@@ -1,20 +1,59 @@
 package vgiotsas;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class Main {
 
     public static void main(String[] args) throws IOException {
 
+        ConfigReader cfgReader = new ConfigReader();
+        // Compile mode: load the reference datasets from their sources and write them in the snapshot file
+        if (args.length > 0 && args[0].equals("compile")) {
+            HashMap<String, String> properties = cfgReader.getPropValues();
+            String snapshotFile = args.length > 1 ? args[1] : properties.get("snapshot_file");
+            if (snapshotFile == null) {
+                System.err.println("Usage: java BGPCommunitiesParser.jar compile [snapshot-file]");
+                System.exit(-1);
+            }
+            Datasets datasets = new CommunitiesParser(properties).loadDatasets();
+            DatasetSnapshot.write(datasets, snapshotFile);
+            System.out.println("Wrote dataset snapshot " + snapshotFile);
+            return;
+        }
+
+        // Bench mode: run the parser against the synthetic bgpreader stand-in and report its throughput
+        boolean bench = args.length > 0 && args[0].equals("bench");
+        if (bench) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         // Read the arguments from the command-line and the configuration file
         CliParser cliParser = new CliParser();
-        ConfigReader cfgReader = new ConfigReader();
         HashMap<String, String> arguments = cliParser.cliParser(args);
         HashMap<String, String> properties = cfgReader.getPropValues();
         arguments.putAll(properties);
+
+        // Load the reference datasets from the compiled snapshot if it's newer than their source files
+        Datasets datasets = null;
+        String snapshotFile = arguments.get("snapshot_file");
+        if (snapshotFile != null && DatasetSnapshot.isFresh(snapshotFile, arguments)) {
+            long start = System.currentTimeMillis();
+            datasets = DatasetSnapshot.read(snapshotFile);
+            if (datasets != null) {
+                System.out.println("Loaded dataset snapshot " + snapshotFile + " in " +
+                        (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+
+        if (bench) {
+            ReplayHarness.run(arguments, datasets);
+            return;
+        }
+
         // Start the parser
-        Parser parser = new CommunitiesParser(arguments);
+        Parser parser = new CommunitiesParser(arguments, datasets);
         parser.startParser();
     }
 }
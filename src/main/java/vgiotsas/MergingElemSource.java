@@ -0,0 +1,164 @@
+package vgiotsas;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Merges several BGP streams (e.g. the output of one bgpreader process or the MRT archives of one collector) into one
+ * stream ordered by record timestamp. Every input is read and batched on its own thread, and the batches are merged
+ * with a k-way merge on the consumer thread.
+ *
+ * Each input is already ordered by time, so the merge is exact. The queue of each input is
+ * bounded, so a fast collector can be at most queueDepth batches ahead of the slowest one, which also bounds the
+ * memory that is used by the merge.
+ */
+class MergingElemSource implements ElemSource {
+
+    private static final ElemBatch EOF = new ElemBatch(0, 0);
+
+    private final List<Input> inputs = new ArrayList<>();
+    private final PriorityQueue<Input> heads;
+    private Input current = null;
+    private boolean started = false;
+
+    /**
+     * One input stream and the thread that cuts it into batches
+     */
+    private static class Input {
+        final int order;
+        final String name;
+        final ElemSource source;
+        final BlockingQueue<ElemBatch> queue;
+        final Thread thread;
+        volatile IOException error = null;
+        ElemBatch batch;
+        int index;
+
+        Input(int order, String name, ElemSource source, int batchSize, int queueDepth) {
+            this.order = order;
+            this.name = name;
+            this.source = source;
+            this.queue = new ArrayBlockingQueue<>(queueDepth);
+            this.thread = new Thread(() -> read(batchSize), "reader-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void read(int batchSize) {
+            try (ElemSource reader = source) {
+                BgpElem elem = new BgpElem();
+                ElemBatch batch = new ElemBatch(batchSize, batchSize * 256);
+                while (reader.next(elem)) {
+                    if (!batch.add(elem)) {
+                        queue.put(batch);
+                        batch = new ElemBatch(batchSize, batchSize * 256);
+                        batch.add(elem);
+                    }
+                }
+                if (batch.count > 0) {
+                    queue.put(batch);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    queue.put(EOF);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        int timestamp() {
+            return batch.timestamps[index];
+        }
+    }
+
+    /**
+     * @param sources the input streams, each ordered by time
+     * @param names the names of the inputs, used to name the reader threads and in the error messages
+     * @param batchSize the number of lines per batch
+     * @param queueDepth the maximum number of batches of every input that are read ahead
+     */
+    MergingElemSource(List<? extends ElemSource> sources, List<String> names, int batchSize, int queueDepth) {
+        for (int i = 0; i < sources.size(); i++) {
+            inputs.add(new Input(i, names.get(i), sources.get(i), batchSize, queueDepth));
+        }
+        heads = new PriorityQueue<>(Math.max(1, inputs.size()), (a, b) -> {
+            int cmp = Integer.compare(a.timestamp(), b.timestamp());
+            return cmp != 0 ? cmp : Integer.compare(a.order, b.order);
+        });
+        for (Input input : inputs) {
+            input.thread.start();
+        }
+    }
+
+    /**
+     * Loads the next batch of an input
+     * @return false if the input is finished
+     */
+    private boolean nextBatch(Input input) throws IOException {
+        ElemBatch batch;
+        try {
+            batch = input.queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + input.name, e);
+        }
+        if (batch == EOF) {
+            if (input.error != null) {
+                throw new IOException("Error reading " + input.name, input.error);
+            }
+            return false;
+        }
+        input.batch = batch;
+        input.index = 0;
+        return true;
+    }
+
+    @Override
+    public boolean next(BgpElem elem) throws IOException {
+        if (!started) {
+            for (Input input : inputs) {
+                if (nextBatch(input)) {
+                    heads.add(input);
+                }
+            }
+            started = true;
+        } else if (current != null) {
+            // The previous elem is not used anymore, move its input forward
+            current.index++;
+            if (current.index < current.batch.count || nextBatch(current)) {
+                heads.add(current);
+            }
+            current = null;
+        }
+        current = heads.poll();
+        if (current == null) {
+            return false;
+        }
+        current.batch.wrap(current.index, elem);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Input input : inputs) {
+            input.thread.interrupt();
+            try {
+                input.source.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package vgiotsas;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and gauges of the parsing process, exposed as the attributes of a JMX MBean and, if metrics_port is set,
+ * in the Prometheus text format on http://127.0.0.1:&lt;metrics_port&gt;/metrics.
+ *
+ * The counters are {@link LongAdder}s, so the threads that update them don't contend, and the readers of the
+ * streams add their counts in batches. The gauges are computed when they are read, from the sizes that the
+ * components already keep, so reading the metrics never scans the routes.
+ */
+final class Metrics {
+
+    static final String OBJECT_NAME = "vgiotsas:type=Metrics";
+
+    /**
+     * A counter that only increases, with a name and a help text
+     */
+    static final class Counter {
+        final String name;
+        final String help;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+            COUNTERS.add(this);
+        }
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    private static final List<Counter> COUNTERS = new CopyOnWriteArrayList<>();
+
+    static final Counter LINES = new Counter("lines_total", "Lines read from bgpreader");
+    static final Counter LINES_REJECTED = new Counter("lines_rejected_total",
+            "Lines from bgpreader with too few fields, e.g. empty lines and messages");
+    static final Counter LINES_FILTERED = new Counter("lines_filtered_total",
+            "Lines from bgpreader skipped by the in-process prefix filter");
+    static final Counter MRT_RECORDS = new Counter("mrt_records_total", "Records read from MRT archives");
+    static final Counter ELEMS = new Counter("elems_total", "BGP elems passed to the parser");
+    static final Counter LOOKUPS = new Counter("route_lookups_total", "Lookups of annotated routes");
+    static final Counter LOOKUP_HITS = new Counter("route_lookup_hits_total",
+            "Lookups that found an annotated route");
+    static final Counter ROUTES_ADDED = new Counter("routes_added_total", "Annotated routes added");
+    static final Counter ROUTES_REMOVED = new Counter("routes_removed_total",
+            "Annotated routes removed, e.g. unstable routes");
+    static final Counter ACTIVATIONS = new Counter("route_activations_total",
+            "Status changes of the annotated routes to activated");
+    static final Counter WITHDRAWALS = new Counter("route_withdrawals_total",
+            "Status changes of the annotated routes to withdrawn");
+    static final Counter CHANGE_POINTS = new Counter("change_points_total",
+            "Drops and rises of the activated routes of a community or a link detected by the change-point detector");
+
+    // Gauges by name, the value of a gauge is the sum of its suppliers, e.g. one per bgpreader stream
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+    private static final class Gauge {
+        final String help;
+        final List<LongSupplier> suppliers = new CopyOnWriteArrayList<>();
+
+        Gauge(String help) {
+            this.help = help;
+        }
+
+        long get() {
+            long sum = 0;
+            for (LongSupplier supplier : suppliers) {
+                sum += supplier.getAsLong();
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * The start and the end of every phase of one run of the phases, e.g. of the shards of one stream or of one
+     * generation of live routes, in epoch milliseconds, 0 until the phase starts or ends
+     */
+    static final class Phases {
+        private final AtomicLongArray starts = new AtomicLongArray(StreamEngine.PHASE_NAMES.length);
+        private final AtomicLongArray ends = new AtomicLongArray(StreamEngine.PHASE_NAMES.length);
+
+        /**
+         * Marks the start of a phase, which is also the end of the previous phase. Only the first call for a phase
+         * counts, e.g. when every shard enters the phase.
+         * @param phase {@link StreamEngine#BOOTSTRAP}, {@link StreamEngine#STABILITY},
+         *              {@link StreamEngine#MONITORING} or {@link StreamEngine#FINISHED}
+         */
+        void enter(int phase) {
+            long now = System.currentTimeMillis();
+            if (starts.compareAndSet(phase, 0, now)) {
+                for (int p = 0; p < phase; p++) {
+                    if (starts.get(p) != 0) {
+                        ends.compareAndSet(p, 0, now);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the number of seconds in the phase, up to now if the phase hasn't ended, or 0 if it hasn't started
+         */
+        double seconds(int phase) {
+            long start = starts.get(phase);
+            if (start == 0) {
+                return 0;
+            }
+            long end = ends.get(phase);
+            return ((end == 0 ? System.currentTimeMillis() : end) - start) / 1000.0;
+        }
+    }
+
+    // The phases that are exposed, the ones of the latest run that was published
+    private static volatile Phases phases = new Phases();
+    // The arrival of the first elem in System.nanoTime, 0 until a reader returns its first elem
+    private static final AtomicLong FIRST_ELEM = new AtomicLong();
+
+    /**
+     * A sample of the elems counter and the rate of the elems since the previous sample
+     */
+    private static final class RateSample {
+        final long elems;
+        final long at;
+        final double perSecond;
+
+        RateSample(long elems, long at, double perSecond) {
+            this.elems = elems;
+            this.at = at;
+            this.perSecond = perSecond;
+        }
+    }
+
+    private static final AtomicReference<RateSample> ELEMS_RATE =
+            new AtomicReference<>(new RateSample(0, System.nanoTime(), 0));
+    private static final long SAMPLE_NANOS = 10_000_000_000L;
+
+    private static final AtomicBoolean SERVING = new AtomicBoolean();
+
+    private Metrics() {
+    }
+
+    /**
+     * Adds a supplier to a gauge, until the returned registration is closed
+     * @param name the name of the gauge
+     * @param help the help text of the gauge
+     * @param supplier returns the current value, must be cheap and thread-safe
+     * @return the registration
+     */
+    static Registration gauge(String name, String help, LongSupplier supplier) {
+        Gauge gauge = GAUGES.computeIfAbsent(name, n -> new Gauge(help));
+        gauge.suppliers.add(supplier);
+        return () -> gauge.suppliers.remove(supplier);
+    }
+
+    /**
+     * Adds a supplier of a number of annotated routes, e.g. the routes of the shards of a stream
+     * @param supplier returns the number of routes, without scanning them
+     * @return the registration
+     */
+    static Registration annotatedRoutes(LongSupplier supplier) {
+        return gauge("annotated_routes", "Annotated routes that are filtered or monitored", supplier);
+    }
+
+    /**
+     * Removes a supplier from its gauge when closed
+     */
+    interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Exposes the phases of a run instead of the ones of the previous run, e.g. when a new generation of live routes
+     * is monitored
+     * @param current the phases of the run
+     */
+    static void publishPhases(Phases current) {
+        phases = current;
+    }
+
+    /**
+     * Marks the arrival of the first elem of the process. Every reader calls it once, on its first elem, and only
+     * the first call counts.
+     */
+    static void firstElem() {
+        FIRST_ELEM.compareAndSet(0, Math.max(1, System.nanoTime()));
+    }
+
+    /**
+     * @return the System.nanoTime of the first elem, or 0 if no elem has arrived yet
+     */
+    static long firstElemNanos() {
+        return FIRST_ELEM.get();
+    }
+
+    /**
+     * @return the number of seconds in a phase of the published run, up to now if the phase hasn't ended, or 0 if
+     * it hasn't started
+     */
+    static double phaseSeconds(int phase) {
+        return phases.seconds(phase);
+    }
+
+    /**
+     * @return the number of elems per second, averaged over at least the last 10 seconds
+     */
+    static double elemsPerSecond() {
+        long now = System.nanoTime();
+        RateSample last = ELEMS_RATE.get();
+        if (now - last.at < SAMPLE_NANOS) {
+            return last.perSecond;
+        }
+        long elems = ELEMS.get();
+        RateSample next = new RateSample(elems, now, (elems - last.elems) * 1e9 / (now - last.at));
+        // If another reader took the sample first, its rate is as recent as this one
+        return ELEMS_RATE.compareAndSet(last, next) ? next.perSecond : ELEMS_RATE.get().perSecond;
+    }
+
+    /**
+     * @return the lookups that found a route, as a fraction of all the lookups
+     */
+    static double lookupHitRate() {
+        long lookups = LOOKUPS.get();
+        return lookups == 0 ? 0 : (double) LOOKUP_HITS.get() / lookups;
+    }
+
+    /**
+     * Registers the MBean of the metrics, and starts the HTTP endpoint if a port is given
+     * @param httpPort the local port of the Prometheus endpoint, 0 to not start it
+     */
+    static void expose(int httpPort) {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by a concurrent call
+        } catch (Exception e) {
+            System.err.println("Unable to register the metrics MBean: " + e.getMessage());
+        }
+        if (httpPort <= 0 || !SERVING.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            // Started from a daemon thread, so the dispatcher thread of the server is a daemon too and doesn't keep
+            // the JVM running after the parser is done
+            Thread thread = new Thread(server::start, "metrics-http");
+            thread.setDaemon(true);
+            thread.start();
+            System.out.println("Serving the metrics on http://127.0.0.1:" + httpPort + "/metrics");
+        } catch (IOException e) {
+            System.err.println("Unable to serve the metrics on port " + httpPort + ": " + e.getMessage());
+            SERVING.set(false);
+        }
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text exposition format
+     */
+    static String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Counter counter : COUNTERS) {
+            append(sb, counter.name, counter.help, "counter", counter.get());
+        }
+        append(sb, "elems_per_second", "BGP elems passed to the parser per second", "gauge", elemsPerSecond());
+        append(sb, "route_lookup_hit_rate", "Lookups that found an annotated route, as a fraction of the lookups",
+                "gauge", lookupHitRate());
+        for (Map.Entry<String, Gauge> e : GAUGES.entrySet()) {
+            append(sb, e.getKey(), e.getValue().help, "gauge", e.getValue().get());
+        }
+        sb.append("# HELP bgpcw_phase_seconds Duration of the phases of the parsing process\n");
+        sb.append("# TYPE bgpcw_phase_seconds gauge\n");
+        for (int p = 0; p < StreamEngine.PHASE_NAMES.length - 1; p++) {
+            sb.append("bgpcw_phase_seconds{phase=\"").append(StreamEngine.PHASE_NAMES[p]).append("\"} ")
+                    .append(phaseSeconds(p)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, String help, String type, Object value) {
+        sb.append("# HELP bgpcw_").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE bgpcw_").append(name).append(' ').append(type).append('\n');
+        sb.append("bgpcw_").append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * The metrics as the read-only attributes of an MBean, named as in the Prometheus format
+     */
+    private static final class MBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Counter counter : COUNTERS) {
+                if (counter.name.equals(attribute)) {
+                    return counter.get();
+                }
+            }
+            Gauge gauge = GAUGES.get(attribute);
+            if (gauge != null) {
+                return gauge.get();
+            }
+            if (attribute.equals("elems_per_second")) {
+                return elemsPerSecond();
+            }
+            if (attribute.equals("route_lookup_hit_rate")) {
+                return lookupHitRate();
+            }
+            for (int p = 0; p < StreamEngine.PHASE_NAMES.length - 1; p++) {
+                if (attribute.equals(StreamEngine.PHASE_NAMES[p] + "_seconds")) {
+                    return phaseSeconds(p);
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("The metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // skipped, as the contract of getAttributes allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Counter counter : COUNTERS) {
+                attributes.add(new MBeanAttributeInfo(counter.name, "long", counter.help, true, false, false));
+            }
+            for (Map.Entry<String, Gauge> e : GAUGES.entrySet()) {
+                attributes.add(new MBeanAttributeInfo(e.getKey(), "long", e.getValue().help, true, false, false));
+            }
+            attributes.add(new MBeanAttributeInfo("elems_per_second", "double",
+                    "BGP elems passed to the parser per second", true, false, false));
+            attributes.add(new MBeanAttributeInfo("route_lookup_hit_rate", "double",
+                    "Lookups that found an annotated route, as a fraction of the lookups", true, false, false));
+            for (int p = 0; p < StreamEngine.PHASE_NAMES.length - 1; p++) {
+                attributes.add(new MBeanAttributeInfo(StreamEngine.PHASE_NAMES[p] + "_seconds", "double",
+                        "Duration of the " + StreamEngine.PHASE_NAMES[p] + " phase", true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of the parsing process",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
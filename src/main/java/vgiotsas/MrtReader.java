@@ -0,0 +1,966 @@
+package vgiotsas;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes local MRT archives (RFC 6396) of one collector in the JVM, instead of running bgpreader and parsing its
+ * text output. TABLE_DUMP_V2 RIBs and BGP4MP updates are supported, uncompressed files are memory-mapped and
+ * bz2/gz files are decompressed from a file channel.
+ *
+ * Every elem is rendered in the bgpreader v2 line format into a reused buffer and wrapped in the {@link BgpElem}, so
+ * the rest of the parser sees the same elems as with bgpreader, without starting a process and without allocating
+ * per elem.
+ */
+class MrtReader implements ElemSource {
+
+    // MRT types and subtypes
+    private static final int TABLE_DUMP_V2 = 13;
+    private static final int BGP4MP = 16;
+    private static final int BGP4MP_ET = 17;
+
+    private static final int PEER_INDEX_TABLE = 1;
+    private static final int RIB_IPV4_UNICAST = 2;
+    private static final int RIB_IPV6_UNICAST = 4;
+    private static final int RIB_IPV4_UNICAST_ADDPATH = 8;
+    private static final int RIB_IPV6_UNICAST_ADDPATH = 10;
+
+    private static final int STATE_CHANGE = 0;
+    private static final int MESSAGE = 1;
+    private static final int MESSAGE_AS4 = 4;
+    private static final int STATE_CHANGE_AS4 = 5;
+    private static final int MESSAGE_ADDPATH = 8;
+    private static final int MESSAGE_AS4_ADDPATH = 9;
+
+    // BGP message type and path attributes
+    private static final int UPDATE = 2;
+    private static final int AS_PATH = 2;
+    private static final int NEXT_HOP = 3;
+    private static final int COMMUNITIES = 8;
+    private static final int MP_REACH_NLRI = 14;
+    private static final int MP_UNREACH_NLRI = 15;
+    private static final int AS4_PATH = 17;
+    private static final int LARGE_COMMUNITIES = 32;
+
+    private static final int AS_SET = 1;
+    private static final int AS_CONFED_SET = 4;
+    private static final int AFI_IPV4 = 1;
+    private static final int AFI_IPV6 = 2;
+
+    private static final String[] STATES = {"unknown", "idle", "connect", "active", "opensent", "openconfirm",
+            "established"};
+
+    // Timestamp of the archive, e.g. updates.20180407.0005.bz2 or bview.20180407.0000.gz
+    private static final Pattern FILE_TIME = Pattern.compile("(\\d{8})\\.(\\d{4})");
+    private static final Pattern RIS_COLLECTOR = Pattern.compile("rrc\\d+");
+    private static final Pattern RV_COLLECTOR = Pattern.compile("route-views[\\w.]*(?=/)");
+
+    private final String project;
+    private final String collector;
+    private final Iterator<File> files;
+    private final int start;
+    private final int end;
+    private final PrefixTrie prefixFilter;
+    private final AddressParser parser = new AddressParser();
+
+    // The current file, either decompressed from a stream or memory-mapped
+    private DataInputStream in = null;
+    private ByteBuffer mapped = null;
+    private byte[] recordBuf = new byte[1 << 16];
+    private ByteBuffer body;
+    private int ts;
+    private int usec;
+    private int type;
+    private int subtype;
+    private long malformed = 0;
+    // The elems since the last flush to the metrics
+    private long elems = 0;
+
+    // Peer index table of the current RIB file
+    private long[] peerAsns = new long[0];
+    private byte[][] peerIps = new byte[0][];
+
+    // Peer of the current record
+    private long peerAsn;
+    private final Text peerIp = new Text();
+
+    // Pending elems of the current record
+    private int ribEntries = 0;
+    private boolean ribAddPath = false;
+    private final Text ribPrefix = new Text();
+    private final PrefixList withdrawn = new PrefixList();
+    private final PrefixList announced = new PrefixList();
+    private int oldState = -1;
+    private int newState = -1;
+
+    // Decoded attributes of the current route
+    private final Path path = new Path();
+    private final Path as4Path = new Path();
+    private final Text asPath = new Text();
+    private final Text origin = new Text();
+    private final Text communities = new Text();
+    private final Text nextHop = new Text();
+    private final Text mpNextHop = new Text();
+
+    private final Text line = new Text();
+    private final byte[] address = new byte[16];
+    // Scratch of the prefixes and of the groups of the IPv6 addresses being rendered
+    private final byte[] prefixAddress = new byte[16];
+    private final int[] groups = new int[8];
+
+    /**
+     * @param project the project name printed in the elems, e.g. ris or routeviews
+     * @param collector the collector name printed in the elems
+     * @param files the archives of the collector in time order
+     * @param start the start of the time window in epoch seconds, older records are skipped
+     * @param end the end of the time window in epoch seconds, newer records are skipped
+     * @param prefixFilter the prefixes of the elems to keep, or null to keep all the elems. The RIB entries of the
+     *                     other prefixes are not decoded, and the state messages are skipped.
+     */
+    MrtReader(String project, String collector, List<File> files, int start, int end, PrefixTrie prefixFilter) {
+        this.project = project;
+        this.collector = collector;
+        this.files = files.iterator();
+        this.start = start;
+        this.end = end;
+        this.prefixFilter = prefixFilter;
+    }
+
+    /**
+     * Finds the MRT archives under the given paths and opens one reader per collector. The archives of each
+     * collector are read in the order of the timestamps in their names, RIBs before updates of the same time, and
+     * multiple collectors are merged by timestamp.
+     * @param paths comma-separated list of MRT files or directories, the directories are searched recursively for
+     *              files with a timestamp in their name (e.g. updates.20180407.0005.bz2) or the .mrt extension
+     * @param collectors comma-separated list of collectors to read, or "all"
+     * @param start the start of the time window in epoch seconds
+     * @param end the end of the time window in epoch seconds
+     * @param ribs true to read the RIB archives
+     * @param updates true to read the update archives
+     * @param batchSize the number of elems per batch when merging several collectors
+     * @param queueDepth the number of batches read ahead by every collector when merging several collectors
+     * @param prefixFilter the prefixes of the elems to keep, or null to keep all the elems
+     * @return the stream of elems of all the archives
+     */
+    static ElemSource open(String paths, String collectors, int start, int end, boolean ribs, boolean updates,
+                           int batchSize, int queueDepth, PrefixTrie prefixFilter) {
+        HashSet<String> requested = new HashSet<>();
+        if (!collectors.equals(CliParser.getDefaultCollectors())) {
+            for (String c : collectors.split(",")) {
+                requested.add(c.trim());
+            }
+        }
+        List<File> archives = new ArrayList<>();
+        for (String path : paths.split(",")) {
+            File f = new File(path.trim());
+            if (f.isFile()) {
+                archives.add(f);
+            } else {
+                collect(f, archives);
+            }
+        }
+        TreeMap<String, List<File>> byCollector = new TreeMap<>();
+        for (File f : archives) {
+            boolean rib = isRib(f);
+            if (rib && !ribs || !rib && !updates) {
+                continue;
+            }
+            String c = collectorOf(f);
+            if (requested.isEmpty() || requested.contains(c)) {
+                byCollector.computeIfAbsent(c, k -> new ArrayList<>()).add(f);
+            }
+        }
+        List<ElemSource> readers = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int selected = 0;
+        for (Map.Entry<String, List<File>> e : byCollector.entrySet()) {
+            List<File> files = e.getValue();
+            selected += files.size();
+            files.sort(Comparator.comparing(MrtReader::fileTime)
+                    .thenComparing(f -> isRib(f) ? 0 : 1)
+                    .thenComparing(File::getName));
+            String project = e.getKey().startsWith("rrc") ? "ris"
+                    : e.getKey().startsWith("route-views") ? "routeviews" : "mrt";
+            readers.add(new MrtReader(project, e.getKey(), files, start, end, prefixFilter));
+            names.add(e.getKey());
+        }
+        System.out.println("Reading " + selected + " MRT archives of " + readers.size() + " collectors");
+        if (readers.size() == 1) {
+            return readers.get(0);
+        }
+        return new MergingElemSource(readers, names, batchSize, queueDepth);
+    }
+
+    private static void collect(File f, List<File> archives) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, archives);
+                }
+            }
+        } else if (f.isFile() && (FILE_TIME.matcher(f.getName()).find() || f.getName().endsWith(".mrt"))) {
+            // Only the files named like archives are taken from the directories
+            archives.add(f);
+        }
+    }
+
+    private static boolean isRib(File f) {
+        String name = f.getName();
+        return name.startsWith("bview") || name.startsWith("rib");
+    }
+
+    private static String fileTime(File f) {
+        Matcher m = FILE_TIME.matcher(f.getName());
+        return m.find() ? m.group(1) + m.group(2) : "";
+    }
+
+    /**
+     * Infers the collector from the path of an archive, e.g. .../rrc00/2018.04/bview.20180407.0000.gz or
+     * .../route-views.linx/bgpdata/2018.04/UPDATES/updates.20180407.0000.bz2. The archives of route-views2 are
+     * under bgpdata/ without the collector name, otherwise the name of the parent directory is used.
+     */
+    static String collectorOf(File f) {
+        File parent = f.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return "mrt";
+        }
+        String path = parent.getPath().replace(File.separatorChar, '/') + "/";
+        Matcher ris = RIS_COLLECTOR.matcher(path);
+        String collector = null;
+        while (ris.find()) {
+            collector = ris.group();
+        }
+        if (collector != null) {
+            return collector;
+        }
+        Matcher rv = RV_COLLECTOR.matcher(path);
+        while (rv.find()) {
+            collector = rv.group();
+        }
+        if (collector != null) {
+            return collector;
+        }
+        if (path.contains("/bgpdata/")) {
+            return "route-views2";
+        }
+        return parent.getName();
+    }
+
+    @Override
+    public boolean next(BgpElem elem) throws IOException {
+        while (true) {
+            if (ribEntries > 0) {
+                ribEntries--;
+                if (nextRibEntry()) {
+                    elem.wrap(line.buf, 0, line.length);
+                    elems++;
+                    return true;
+                }
+                continue;
+            }
+            if (withdrawn.hasNext()) {
+                int i = withdrawn.next++;
+                if (!keep(withdrawn.text, withdrawn.start(i), withdrawn.ends[i])) {
+                    continue;
+                }
+                render('U', 'W', withdrawn.text, withdrawn.start(i), withdrawn.ends[i], null, false);
+                elem.wrap(line.buf, 0, line.length);
+                elems++;
+                return true;
+            }
+            if (announced.hasNext()) {
+                int i = announced.next++;
+                if (!keep(announced.text, announced.start(i), announced.ends[i])) {
+                    continue;
+                }
+                render('U', 'A', announced.text, announced.start(i), announced.ends[i],
+                        announced.mp[i] ? mpNextHop : nextHop, true);
+                elem.wrap(line.buf, 0, line.length);
+                elems++;
+                return true;
+            }
+            if (newState >= 0) {
+                renderState();
+                newState = -1;
+                elem.wrap(line.buf, 0, line.length);
+                elems++;
+                return true;
+            }
+            if (!nextRecord()) {
+                if (malformed > 0) {
+                    System.err.println("Skipped " + malformed + " malformed MRT records of " + collector);
+                }
+                return false;
+            }
+            try {
+                decodeRecord();
+            } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                malformed++;
+                ribEntries = 0;
+                withdrawn.clear();
+                announced.clear();
+                newState = -1;
+            }
+        }
+    }
+
+    /**
+     * Reads the header and the body of the next record, opening the next file when the current one ends
+     * @return false when all the files have been read
+     */
+    private boolean nextRecord() throws IOException {
+        // The elems are added to the metrics once per record
+        Metrics.ELEMS.add(elems);
+        elems = 0;
+        while (true) {
+            if (mapped != null) {
+                if (mapped.remaining() >= 12) {
+                    int recTs = mapped.getInt();
+                    int typeAndSubtype = mapped.getInt();
+                    int length = mapped.getInt();
+                    if (length >= 0 && length <= mapped.remaining()) {
+                        ByteBuffer slice = mapped.slice();
+                        slice.limit(length);
+                        mapped.position(mapped.position() + length);
+                        return startRecord(recTs, typeAndSubtype, slice);
+                    }
+                    System.err.println("Truncated MRT record in an archive of " + collector);
+                }
+                mapped = null;
+            } else if (in != null) {
+                try {
+                    int recTs = in.readInt();
+                    int typeAndSubtype = in.readInt();
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException();
+                    }
+                    if (length > recordBuf.length) {
+                        recordBuf = new byte[Math.max(length, recordBuf.length * 2)];
+                    }
+                    in.readFully(recordBuf, 0, length);
+                    return startRecord(recTs, typeAndSubtype, ByteBuffer.wrap(recordBuf, 0, length));
+                } catch (EOFException e) {
+                    in.close();
+                    in = null;
+                }
+            }
+            if (!openNextFile()) {
+                return false;
+            }
+        }
+    }
+
+    private boolean startRecord(int recTs, int typeAndSubtype, ByteBuffer recordBody) {
+        Metrics.MRT_RECORDS.increment();
+        ts = recTs;
+        usec = 0;
+        type = typeAndSubtype >>> 16;
+        subtype = typeAndSubtype & 0xFFFF;
+        body = recordBody;
+        return true;
+    }
+
+    private boolean openNextFile() throws IOException {
+        if (!files.hasNext()) {
+            return false;
+        }
+        File f = files.next();
+        String name = f.getName();
+        // The peer index table only applies to the RIB file that contains it
+        peerAsns = new long[0];
+        peerIps = new byte[0][];
+        FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        if (name.endsWith(".gz") || name.endsWith(".bz2")) {
+            try {
+                InputStream raw = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+                in = new DataInputStream(new BufferedInputStream(
+                        new CompressorStreamFactory().createCompressorInputStream(raw), 1 << 16));
+            } catch (CompressorException e) {
+                channel.close();
+                System.err.println("Unable to decompress " + f + ": " + e.getMessage());
+            }
+        } else {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+        }
+        return true;
+    }
+
+    private void decodeRecord() {
+        if (type == TABLE_DUMP_V2) {
+            if (subtype == PEER_INDEX_TABLE) {
+                decodePeerIndex();
+            } else if (ts >= start && ts <= end && (subtype == RIB_IPV4_UNICAST || subtype == RIB_IPV6_UNICAST
+                    || subtype == RIB_IPV4_UNICAST_ADDPATH || subtype == RIB_IPV6_UNICAST_ADDPATH)) {
+                int afi = subtype == RIB_IPV4_UNICAST || subtype == RIB_IPV4_UNICAST_ADDPATH ? AFI_IPV4 : AFI_IPV6;
+                ribAddPath = subtype >= RIB_IPV4_UNICAST_ADDPATH;
+                body.getInt(); // sequence number
+                ribPrefix.clear();
+                appendPrefix(ribPrefix, body, afi);
+                if (keep(ribPrefix, 0, ribPrefix.length)) {
+                    ribEntries = body.getShort() & 0xFFFF;
+                }
+            }
+        } else if ((type == BGP4MP || type == BGP4MP_ET) && ts >= start && ts <= end) {
+            if (type == BGP4MP_ET) {
+                usec = body.getInt();
+            }
+            decodeBgp4mp(subtype);
+        }
+    }
+
+    private void decodePeerIndex() {
+        body.getInt(); // collector BGP ID
+        int viewNameLength = body.getShort() & 0xFFFF;
+        body.position(body.position() + viewNameLength);
+        int count = body.getShort() & 0xFFFF;
+        peerAsns = new long[count];
+        peerIps = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int peerType = body.get() & 0xFF;
+            body.getInt(); // peer BGP ID
+            peerIps[i] = new byte[(peerType & 1) != 0 ? 16 : 4];
+            body.get(peerIps[i]);
+            peerAsns[i] = (peerType & 2) != 0 ? body.getInt() & 0xFFFFFFFFL : body.getShort() & 0xFFFF;
+        }
+    }
+
+    /**
+     * @return true if the prefix passes the prefix filter
+     */
+    private boolean keep(Text prefixes, int from, int to) {
+        return prefixFilter == null || prefixFilter.matches(parser, prefixes.buf, from, to);
+    }
+
+    /**
+     * Decodes the next entry of the current RIB record and renders it in the line buffer
+     * @return false if the entry was skipped
+     */
+    private boolean nextRibEntry() {
+        try {
+            int peerIndex = body.getShort() & 0xFFFF;
+            body.getInt(); // originated time
+            if (ribAddPath) {
+                body.getInt(); // path identifier
+            }
+            int attrLength = body.getShort() & 0xFFFF;
+            int attrEnd = body.position() + attrLength;
+            if (peerIndex >= peerAsns.length) {
+                body.position(attrEnd);
+                malformed++;
+                return false;
+            }
+            peerAsn = peerAsns[peerIndex];
+            peerIp.clear();
+            appendIp(peerIp, peerIps[peerIndex], peerIps[peerIndex].length);
+            decodeAttributes(attrEnd, true, true, false);
+            body.position(attrEnd);
+            render('R', 'R', ribPrefix, 0, ribPrefix.length, mpNextHop.length > 0 ? mpNextHop : nextHop, true);
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            malformed++;
+            ribEntries = 0;
+            return false;
+        }
+    }
+
+    private void decodeBgp4mp(int subtype) {
+        boolean as4 = subtype == MESSAGE_AS4 || subtype == STATE_CHANGE_AS4 || subtype == MESSAGE_AS4_ADDPATH;
+        boolean addPath = subtype == MESSAGE_ADDPATH || subtype == MESSAGE_AS4_ADDPATH;
+        if (subtype != STATE_CHANGE && subtype != STATE_CHANGE_AS4 && subtype != MESSAGE && subtype != MESSAGE_AS4
+                && !addPath) {
+            // messages sent by the collector itself are skipped
+            return;
+        }
+        peerAsn = as4 ? body.getInt() & 0xFFFFFFFFL : body.getShort() & 0xFFFF;
+        body.position(body.position() + (as4 ? 4 : 2) + 2); // local AS and interface index
+        int afi = body.getShort() & 0xFFFF;
+        int ipLength = afi == AFI_IPV6 ? 16 : 4;
+        body.get(address, 0, ipLength);
+        peerIp.clear();
+        appendIp(peerIp, address, ipLength);
+        body.position(body.position() + ipLength); // local IP
+
+        if (subtype == STATE_CHANGE || subtype == STATE_CHANGE_AS4) {
+            // State messages have no prefix, so they never pass a prefix filter
+            if (prefixFilter == null) {
+                oldState = body.getShort() & 0xFFFF;
+                newState = body.getShort() & 0xFFFF;
+            }
+            return;
+        }
+        body.position(body.position() + 16); // marker
+        int messageEnd = body.position() - 16 + (body.getShort() & 0xFFFF);
+        if ((body.get() & 0xFF) != UPDATE) {
+            return;
+        }
+        messageEnd = Math.min(messageEnd, body.limit());
+        withdrawn.clear();
+        announced.clear();
+        int withdrawnEnd = (body.getShort() & 0xFFFF) + body.position();
+        while (body.position() < withdrawnEnd) {
+            withdrawn.add(body, AFI_IPV4, addPath, false);
+        }
+        int attrEnd = (body.getShort() & 0xFFFF) + body.position();
+        decodeAttributes(attrEnd, as4, false, addPath);
+        body.position(attrEnd);
+        while (body.position() < messageEnd) {
+            announced.add(body, AFI_IPV4, addPath, false);
+        }
+    }
+
+    /**
+     * Decodes the path attributes of a route into the text of the elem fields
+     * @param attrEnd the position after the last attribute
+     * @param as4 true if the AS_PATH has 4-byte ASNs
+     * @param tableDump true for the abbreviated MP_REACH_NLRI of the RIB entries
+     * @param addPath true if the NLRI have path identifiers
+     */
+    private void decodeAttributes(int attrEnd, boolean as4, boolean tableDump, boolean addPath) {
+        path.clear();
+        as4Path.clear();
+        communities.clear();
+        nextHop.clear();
+        mpNextHop.clear();
+        boolean hasAs4Path = false;
+        while (body.position() < attrEnd) {
+            int flags = body.get() & 0xFF;
+            int code = body.get() & 0xFF;
+            int length = (flags & 0x10) != 0 ? body.getShort() & 0xFFFF : body.get() & 0xFF;
+            int valueEnd = body.position() + length;
+            if (valueEnd > attrEnd) {
+                throw new IllegalArgumentException("Attribute longer than the attributes");
+            }
+            switch (code) {
+                case AS_PATH:
+                    path.decode(body, valueEnd, as4 ? 4 : 2);
+                    break;
+                case AS4_PATH:
+                    as4Path.decode(body, valueEnd, 4);
+                    hasAs4Path = true;
+                    break;
+                case NEXT_HOP:
+                    if (length == 4) {
+                        body.get(address, 0, 4);
+                        appendIp(nextHop, address, 4);
+                    }
+                    break;
+                case COMMUNITIES:
+                    while (body.position() + 4 <= valueEnd) {
+                        communities.space().appendUnsigned(body.getShort() & 0xFFFF).append(':')
+                                .appendUnsigned(body.getShort() & 0xFFFF);
+                    }
+                    break;
+                case LARGE_COMMUNITIES:
+                    while (body.position() + 12 <= valueEnd) {
+                        communities.space().appendUnsigned(body.getInt() & 0xFFFFFFFFL).append(':')
+                                .appendUnsigned(body.getInt() & 0xFFFFFFFFL).append(':')
+                                .appendUnsigned(body.getInt() & 0xFFFFFFFFL);
+                    }
+                    break;
+                case MP_REACH_NLRI:
+                    int afi = AFI_IPV6;
+                    if (!tableDump) {
+                        afi = body.getShort() & 0xFFFF;
+                        body.get(); // SAFI
+                    }
+                    int nextHopLength = body.get() & 0xFF;
+                    int nextHopEnd = body.position() + nextHopLength;
+                    if (nextHopLength == 16 || nextHopLength == 32) {
+                        body.get(address, 0, 16);
+                        appendIp(mpNextHop, address, 16);
+                    } else if (nextHopLength == 4) {
+                        body.get(address, 0, 4);
+                        appendIp(mpNextHop, address, 4);
+                    }
+                    body.position(nextHopEnd);
+                    if (!tableDump) {
+                        body.get(); // reserved
+                        while (body.position() < valueEnd) {
+                            announced.add(body, afi, addPath, true);
+                        }
+                    }
+                    break;
+                case MP_UNREACH_NLRI:
+                    if (tableDump) {
+                        break;
+                    }
+                    int unreachAfi = body.getShort() & 0xFFFF;
+                    body.get(); // SAFI
+                    while (body.position() < valueEnd) {
+                        withdrawn.add(body, unreachAfi, addPath, false);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            body.position(valueEnd);
+        }
+        // On 2-byte sessions the 4-byte ASNs are in AS4_PATH, merged as in RFC 6793
+        if (hasAs4Path && !as4) {
+            path.merge(as4Path);
+        }
+        asPath.clear();
+        origin.clear();
+        path.render(asPath, origin);
+    }
+
+    /**
+     * Renders an elem in the bgpreader v2 line format:
+     * rec-type|elem-type|ts.usec|project|collector|router|router-ip|peer-ASN|peer-IP|prefix|next-hop|AS-path|
+     * origin-AS|communities|old-state|new-state
+     */
+    private void render(char recType, char elemType, Text prefixes, int from, int to, Text hop, boolean attributes) {
+        header(recType, elemType);
+        line.append(prefixes.buf, from, to).append('|');
+        if (attributes) {
+            line.append(hop).append('|').append(asPath).append('|').append(origin).append('|').append(communities);
+        } else {
+            line.append("|||");
+        }
+        line.append("||");
+    }
+
+    private void renderState() {
+        header('U', 'S');
+        line.append("|||||");
+        line.append(STATES[oldState < STATES.length ? oldState : 0]).append('|')
+                .append(STATES[newState < STATES.length ? newState : 0]);
+    }
+
+    private void header(char recType, char elemType) {
+        line.clear();
+        line.append(recType).append('|').append(elemType).append('|').appendUnsigned(ts & 0xFFFFFFFFL).append('.');
+        for (int digits = 100000; digits > 1 && usec < digits; digits /= 10) {
+            line.append('0');
+        }
+        line.appendUnsigned(usec).append('|').append(project).append('|').append(collector).append("|||")
+                .appendUnsigned(peerAsn).append('|').append(peerIp).append('|');
+    }
+
+    /**
+     * Parses an NLRI prefix from the buffer and appends it as text
+     */
+    private void appendPrefix(Text text, ByteBuffer b, int afi) {
+        int bits = b.get() & 0xFF;
+        int maxBits = afi == AFI_IPV6 ? 128 : 32;
+        if (bits > maxBits) {
+            throw new IllegalArgumentException("Invalid prefix length " + bits);
+        }
+        int bytes = (bits + 7) / 8;
+        b.get(prefixAddress, 0, bytes);
+        Arrays.fill(prefixAddress, bytes, maxBits / 8, (byte) 0);
+        appendIp(text, prefixAddress, maxBits / 8);
+        text.append('/').appendUnsigned(bits);
+    }
+
+    /**
+     * Appends an IPv4 address in dotted decimal, or an IPv6 address in the compressed form of inet_ntop
+     */
+    private void appendIp(Text text, byte[] addr, int length) {
+        if (length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    text.append('.');
+                }
+                text.appendUnsigned(addr[i] & 0xFF);
+            }
+            return;
+        }
+        for (int i = 0; i < 8; i++) {
+            groups[i] = ((addr[2 * i] & 0xFF) << 8) | (addr[2 * i + 1] & 0xFF);
+        }
+        // The longest run of at least two zero groups is replaced by ::
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = j;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                text.append(i == 0 ? "::" : ":");
+                i += bestLength - 1;
+                continue;
+            }
+            text.appendHex(groups[i]);
+            if (i < 7) {
+                text.append(':');
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Metrics.ELEMS.add(elems);
+        elems = 0;
+        mapped = null;
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Growable ASCII buffer
+     */
+    private static final class Text {
+        byte[] buf = new byte[256];
+        int length = 0;
+
+        void clear() {
+            length = 0;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+            }
+        }
+
+        Text append(char c) {
+            ensure(1);
+            buf[length++] = (byte) c;
+            return this;
+        }
+
+        Text append(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+            return append(bytes, 0, bytes.length);
+        }
+
+        Text append(byte[] bytes, int from, int to) {
+            ensure(to - from);
+            System.arraycopy(bytes, from, buf, length, to - from);
+            length += to - from;
+            return this;
+        }
+
+        Text append(Text other) {
+            return append(other.buf, 0, other.length);
+        }
+
+        Text appendUnsigned(long value) {
+            ensure(20);
+            if (value == 0) {
+                buf[length++] = '0';
+                return this;
+            }
+            int from = length;
+            while (value > 0) {
+                buf[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            reverse(from);
+            return this;
+        }
+
+        Text appendHex(int value) {
+            ensure(4);
+            if (value == 0) {
+                buf[length++] = '0';
+                return this;
+            }
+            int from = length;
+            while (value > 0) {
+                buf[length++] = (byte) Character.forDigit(value & 0xF, 16);
+                value >>>= 4;
+            }
+            reverse(from);
+            return this;
+        }
+
+        /**
+         * Appends a space if the buffer is not empty, to separate the tokens of a field
+         */
+        Text space() {
+            return length > 0 ? append(' ') : this;
+        }
+
+        private void reverse(int from) {
+            for (int i = from, j = length - 1; i < j; i++, j--) {
+                byte tmp = buf[i];
+                buf[i] = buf[j];
+                buf[j] = tmp;
+            }
+        }
+    }
+
+    /**
+     * The prefixes of an update as text, with the end offset of every prefix
+     */
+    private final class PrefixList {
+        final Text text = new Text();
+        int[] ends = new int[64];
+        boolean[] mp = new boolean[64];
+        int count = 0;
+        int next = 0;
+
+        void clear() {
+            text.clear();
+            count = 0;
+            next = 0;
+        }
+
+        boolean hasNext() {
+            return next < count;
+        }
+
+        int start(int i) {
+            return i == 0 ? 0 : ends[i - 1];
+        }
+
+        void add(ByteBuffer b, int afi, boolean addPath, boolean fromMp) {
+            if (addPath) {
+                b.getInt(); // path identifier
+            }
+            appendPrefix(text, b, afi);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+                mp = Arrays.copyOf(mp, count * 2);
+            }
+            ends[count] = text.length;
+            mp[count] = fromMp;
+            count++;
+        }
+    }
+
+    /**
+     * Decoded AS path. Every hop of an AS_SEQUENCE is a token, and every AS_SET is a single token with all its ASNs,
+     * as in RFC 6793 where a set counts as one hop.
+     */
+    private static final class Path {
+        long[] asns = new long[64];
+        int[] tokenEnds = new int[64];
+        boolean[] sets = new boolean[64];
+        int tokens = 0;
+        int count = 0;
+
+        void clear() {
+            tokens = 0;
+            count = 0;
+        }
+
+        void decode(ByteBuffer b, int valueEnd, int asnSize) {
+            clear();
+            while (b.position() + 2 <= valueEnd) {
+                int segmentType = b.get() & 0xFF;
+                int n = b.get() & 0xFF;
+                boolean set = segmentType == AS_SET || segmentType == AS_CONFED_SET;
+                for (int i = 0; i < n; i++) {
+                    long asn = asnSize == 4 ? b.getInt() & 0xFFFFFFFFL : b.getShort() & 0xFFFF;
+                    addAsn(asn);
+                    if (!set) {
+                        endToken(false);
+                    }
+                }
+                if (set && n > 0) {
+                    endToken(true);
+                }
+            }
+        }
+
+        private void addAsn(long asn) {
+            if (count == asns.length) {
+                asns = Arrays.copyOf(asns, count * 2);
+            }
+            asns[count++] = asn;
+        }
+
+        private void endToken(boolean set) {
+            if (tokens == tokenEnds.length) {
+                tokenEnds = Arrays.copyOf(tokenEnds, tokens * 2);
+                sets = Arrays.copyOf(sets, tokens * 2);
+            }
+            tokenEnds[tokens] = count;
+            sets[tokens] = set;
+            tokens++;
+        }
+
+        /**
+         * Replaces the last hops of the path with the hops of the AS4_PATH, if the AS4_PATH is not longer
+         */
+        void merge(Path as4) {
+            if (as4.tokens == 0 || as4.tokens > tokens) {
+                return;
+            }
+            int keepTokens = tokens - as4.tokens;
+            count = keepTokens == 0 ? 0 : tokenEnds[keepTokens - 1];
+            tokens = keepTokens;
+            for (int t = 0; t < as4.tokens; t++) {
+                for (int i = t == 0 ? 0 : as4.tokenEnds[t - 1]; i < as4.tokenEnds[t]; i++) {
+                    addAsn(as4.asns[i]);
+                }
+                endToken(as4.sets[t]);
+            }
+        }
+
+        /**
+         * Renders the path as space-separated hops with the sets in braces, and the last hop as the origin
+         */
+        void render(Text text, Text origin) {
+            int lastToken = text.length;
+            for (int t = 0; t < tokens; t++) {
+                if (t > 0) {
+                    text.append(' ');
+                }
+                lastToken = text.length;
+                int from = t == 0 ? 0 : tokenEnds[t - 1];
+                if (sets[t]) {
+                    text.append('{');
+                    for (int i = from; i < tokenEnds[t]; i++) {
+                        if (i > from) {
+                            text.append(',');
+                        }
+                        text.appendUnsigned(asns[i]);
+                    }
+                    text.append('}');
+                } else {
+                    text.appendUnsigned(asns[from]);
+                }
+            }
+            if (tokens > 0) {
+                origin.append(text.buf, lastToken, text.length);
+            }
+        }
+    }
+}
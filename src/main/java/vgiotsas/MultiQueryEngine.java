@@ -0,0 +1,96 @@
+package vgiotsas;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the routes of several queries through their phases in one pass over the stream, with one
+ * {@link StreamEngine} per query. The target communities of all the queries are kept in one {@link CommunitySet}
+ * with an inverted index from every community to the queries that subscribe to it, so the communities of an elem
+ * are matched once for all the queries instead of once per query. Every engine is then told whether the elem has one
+ * of its targets: only the engines of the subscribed queries annotate the route, the others can only discard or
+ * withdraw the route of the peer and prefix, which takes one check while they have no routes.
+ *
+ * When the stream is sharded with a {@link ShardedPipeline}, every shard has its own engine, and the engines of a
+ * query in all the shards share its timeline.
+ */
+class MultiQueryEngine implements ShardedPipeline.Worker {
+
+    private static final int[] NO_QUERIES = new int[0];
+
+    private final List<StreamEngine> engines;
+    private final CommunitySet communities = new CommunitySet();
+    // The queries that subscribe to every community of the set
+    private final int[][] subscribers;
+    private final boolean[] tagged;
+
+    /**
+     * @param engines the engine of every query
+     * @param targets the target communities of every query, in the same order as the engines
+     */
+    MultiQueryEngine(List<StreamEngine> engines, List<CommunitySet> targets) {
+        this.engines = engines;
+        this.tagged = new boolean[engines.size()];
+        List<int[]> index = new ArrayList<>();
+        for (int q = 0; q < targets.size(); q++) {
+            CommunitySet queryTargets = targets.get(q);
+            for (int i = 0; i < queryTargets.size(); i++) {
+                int c = communities.add(queryTargets.get(i));
+                if (c == index.size()) {
+                    index.add(NO_QUERIES);
+                }
+                int[] queries = Arrays.copyOf(index.get(c), index.get(c).length + 1);
+                queries[queries.length - 1] = q;
+                index.set(c, queries);
+            }
+        }
+        this.subscribers = index.toArray(new int[0][]);
+    }
+
+    /**
+     * Matches the communities of an elem against the targets of all the queries, and moves the route of the elem
+     * through the phases of every query
+     * @param elem a RIB entry, an announcement or a withdrawal
+     */
+    @Override
+    public void accept(BgpElem elem) {
+        Arrays.fill(tagged, false);
+        byte[] buf = elem.buffer();
+        BgpElem.Cursor cursor = elem.communities();
+        while (cursor.next()) {
+            int c = communities.find(buf, cursor.start(), cursor.end());
+            if (c != CommunitySet.MISSING) {
+                for (int q : subscribers[c]) {
+                    tagged[q] = true;
+                }
+            }
+        }
+        for (int q = 0; q < engines.size(); q++) {
+            StreamEngine engine = engines.get(q);
+            if (!engine.done()) {
+                engine.accept(elem, tagged[q]);
+            }
+        }
+    }
+
+    /**
+     * @return true if none of the queries can annotate a route anymore
+     */
+    @Override
+    public boolean done() {
+        for (StreamEngine engine : engines) {
+            if (!engine.done()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of distinct target communities of all the queries
+     */
+    int communityCount() {
+        return communities.size();
+    }
+}
@@ -0,0 +1,127 @@
+package vgiotsas;
+
+import org.json.simple.parser.ContentHandler;
+
+/**
+ * Streaming handler of the PeeringDB netfac response. The records of the "data" array are added to the colocation
+ * map as soon as each one has been parsed, so only the fields of the current record are kept in memory instead of
+ * the whole response as a string and as a JSON tree.
+ */
+class NetfacHandler implements ContentHandler {
+
+    // Nesting depths of the data array and of its records
+    private static final int DATA = 2;
+    private static final int RECORD = 3;
+
+    private final PeeringCartographer.ColocationMap coloMap;
+    private int depth = 0;
+    private boolean inData = false;
+    private String key = null;
+    private int records = 0;
+
+    // Fields of the current record
+    private long asn;
+    private String name;
+    private String city;
+    private String country;
+
+    /**
+     * @param coloMap the colocation map to which the facility memberships are added
+     */
+    NetfacHandler(PeeringCartographer.ColocationMap coloMap) {
+        this.coloMap = coloMap;
+    }
+
+    /**
+     * @return the number of records added to the colocation map
+     */
+    int records() {
+        return records;
+    }
+
+    @Override
+    public void startJSON() {
+    }
+
+    @Override
+    public void endJSON() {
+    }
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        if (inData && depth == RECORD) {
+            asn = -1;
+            name = null;
+            city = null;
+            country = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObject() {
+        if (inData && depth == RECORD && asn > 0 && name != null) {
+            // Add the Facility-to-AS presence, and the facility to the city
+            int facility = coloMap.addFacility(name, city + ":" + country);
+            coloMap.addFacilityMember(facility, (int) asn);
+            records++;
+        }
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        this.key = key;
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        key = null;
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        depth++;
+        if (depth == DATA && "data".equals(key)) {
+            inData = true;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        if (depth == DATA) {
+            inData = false;
+        }
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (!inData || depth != RECORD || key == null || value == null) {
+            return true;
+        }
+        switch (key) {
+            case "local_asn":
+                if (value instanceof Long) {
+                    asn = (Long) value;
+                }
+                break;
+            case "name":
+                name = value.toString();
+                break;
+            case "city":
+                city = value.toString();
+                break;
+            case "country":
+                country = value.toString();
+                break;
+        }
+        return true;
+    }
+}
@@ -11,12 +11,14 @@ public interface Parser {
 
     ArrayList<String> removePrepending(String[] path);
 
-    HashMap<String, Integer> readRelationships(String fileIn);
+    AsRelationships readRelationships(String fileIn);
 
     String constructOptionalArgs(String collectors, String communities, String peers, String prefixes);
 
     String[] mapCommunityToLink(ArrayList<String> path, String communityTop16);
 
+    long mapCommunityToLink(int[] path, int pathLength, int communityAsn);
+
     Result getAnnotatedPaths(String optionalArgs, int init_start, int init_end, List<String> targetFacilities, int requestedOverlap);
 
     void filterUnstablePaths(
@@ -9,106 +9,149 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 public interface PeeringCartographer {
-    static ColocationMap getColoMap(String pdbFacUrl, String ix_file, String ixasn_file) {
-        ColocationMap coloMap = new ColocationMap();
+    static ColocationMap getColoMap(HttpCache cache, String pdbFacUrl, String ix_file, String ixasn_file) {
+        ColocationMap coloMap = getFacilityMap(cache, pdbFacUrl);
+        getIXPMembers(ix_file, ixasn_file).forEach(coloMap::addIxp);
 
-        ArrayList<String> pdbResponse = PeeringCartographer.sendGet(pdbFacUrl);
-        JSONObject pdbData = PeeringCartographer.parseJson(String.join("", pdbResponse));
-        JSONArray nets_array = (JSONArray) pdbData.get("data");
-        if (nets_array != null) {
-            for (Object obj : nets_array) {
-                if (obj instanceof JSONObject) {
-                    JSONObject jsonObj = (JSONObject) obj;
+        return coloMap;
+    }
 
-                    String asn = Integer.toString((int) (long) jsonObj.get("local_asn"));
-                    String name = jsonObj.get("name").toString();
-                    String city = jsonObj.get("city").toString();
-                    String country = jsonObj.get("country").toString();
-                    String location = city+":"+country;
-                    // Add the Facility-to-AS presence
-                    if (!coloMap.facMembers.containsKey(name)) {
-                        coloMap.facMembers.put(name, new ArrayList<>());
-                    }
-                    coloMap.facMembers.get(name).add(asn);
-                    // Add the city-to-facility presence
-                    if (!coloMap.cityFacilities.containsKey(location)) {
-                        coloMap.cityFacilities.put(location, new ArrayList<>());
-                    }
-                    coloMap.cityFacilities.get(location).add(name);
-                    // Add the facility to city mapping
-                    coloMap.facilityCity.put(name, location);
-                    // Add the AS-to-Facility presence
-                    if (!coloMap.autsysFacilities.containsKey(asn)) {
-                        coloMap.autsysFacilities.put(asn, new HashMap<>());
-                    }
-                    if (!coloMap.autsysFacilities.get(asn).containsKey(location)){
-                        coloMap.autsysFacilities.get(asn).put(location, new ArrayList<>());
-                    }
-                    coloMap.autsysFacilities.get(asn).get(location).add(name);
-                }
-            }
+    /**
+     * Queries PeeringDB to map facilities to their AS members and cities. The response is parsed as a stream and
+     * the records are added to the map as they are read. The IXP members of the returned map are left empty, they
+     * are loaded separately by {@link #getIXPMembers(String, String)}.
+     * @param cache The cache of the HTTP responses
+     * @param pdbFacUrl The URL to the PeeringDB endpoint that returns the AS-to-Facility memberships
+     * @return the colocation map with the facility memberships
+     */
+    static ColocationMap getFacilityMap(HttpCache cache, String pdbFacUrl) {
+        ColocationMap coloMap = new ColocationMap();
+        if (pdbFacUrl == null || pdbFacUrl.isEmpty()) {
+            return coloMap;
         }
 
-        coloMap.ixpMembers = getIXPMembers(ix_file, ixasn_file);
+        NetfacHandler handler = new NetfacHandler(coloMap);
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(cache.open(pdbFacUrl), StandardCharsets.UTF_8), 1 << 16)) {
+            new JSONParser().parse(in, handler);
+        } catch (IOException e) {
+            System.err.println("Couldn't reach URL " + pdbFacUrl + ": " + e.getMessage());
+        } catch (ParseException pe) {
+            System.err.println("Malformed PeeringDB response at position " + pe.getPosition() + ", kept the first " +
+                    handler.records() + " records");
+        }
 
         return coloMap;
     }
 
     /**
-     * Parses the CAIDA IX dataset to map IXPs to their AS members
+     * Parses the CAIDA IX dataset to map IXPs to their AS members. The two files are parsed in parallel and joined
+     * on the IXP ID.
      * @param ix_file File that contains information about individual IXPs
      * @param ixasn_file File that maps ASes to the IXPs where they are present
-     * @return the mapping between each IXP and the list of ASNs connected to the IXP
+     * @return the mapping between each IXP and the ASNs connected to the IXP
      */
-    static HashMap<String, List<String>> getIXPMembers(String ix_file, String ixasn_file) {
-        HashMap<String, List<String>> ixpMembers = new HashMap<>();
-        HashMap<String, String> ixpIdNames = new HashMap<>();
+    static HashMap<String, int[]> getIXPMembers(String ix_file, String ixasn_file) {
+        HashMap<String, int[]> ixpMembers = new HashMap<>();
 
-        try {
-            Files.lines(new File(ix_file).toPath())
-                    .map(String::trim)
-                    .filter(s -> !s.startsWith("#"))
-                    .map(s-> parseJson(s.trim()))
-                    .forEach(item -> {
-                        ixpIdNames.put(item.get("ix_id").toString(), item.get("name").toString());
-                        ixpMembers.put(item.get("name").toString(), new ArrayList<>());
-                    });
-
-            Files.lines(new File(ixasn_file).toPath())
-                    .map(String::trim)
-                    .filter(s -> !s.startsWith("#"))
-                    .map(s-> parseJson(s.trim()))
-                    .forEach(item -> {
-                        String ixpName = ixpIdNames.get(item.get("ix_id").toString());
-                        ixpMembers.get(ixpName).add(item.get("asn").toString());
-                    });
+        // Maps IXP ID -> IXP name
+        CompletableFuture<HashMap<Long, String>> ixpIdNames = CompletableFuture.supplyAsync(() -> {
+            HashMap<Long, String> names = new HashMap<>();
+            try (Stream<String> lines = Files.lines(new File(ix_file).toPath())) {
+                lines.map(String::trim)
+                        .filter(s -> !s.startsWith("#"))
+                        .map(s-> parseJson(s.trim()))
+                        .forEach(item -> names.put((Long) item.get("ix_id"), item.get("name").toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return names;
+        });
+        // The (IXP ID, ASN) memberships packed in longs
+        CompletableFuture<long[]> memberships = CompletableFuture.supplyAsync(() -> {
+            long[][] packed = {new long[1 << 16]};
+            int[] count = {0};
+            try (Stream<String> lines = Files.lines(new File(ixasn_file).toPath())) {
+                lines.map(String::trim)
+                        .filter(s -> !s.startsWith("#"))
+                        .map(s-> parseJson(s.trim()))
+                        .forEach(item -> {
+                            if (count[0] == packed[0].length) {
+                                packed[0] = Arrays.copyOf(packed[0], count[0] * 2);
+                            }
+                            long ixId = (Long) item.get("ix_id");
+                            long asn = (Long) item.get("asn");
+                            packed[0][count[0]++] = (ixId << 32) | (asn & 0xFFFFFFFFL);
+                        });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            long[] result = Arrays.copyOf(packed[0], count[0]);
+            Arrays.sort(result);
+            return result;
+        });
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        try {
+            HashMap<Long, String> names = ixpIdNames.join();
+            for (String name : names.values()) {
+                ixpMembers.put(name, new int[0]);
+            }
+            long[] pairs = memberships.join();
+            // The memberships are sorted by IXP ID, so the members of each IXP are consecutive
+            int from = 0;
+            while (from < pairs.length) {
+                long ixId = pairs[from] >>> 32;
+                int to = from;
+                while (to < pairs.length && pairs[to] >>> 32 == ixId) {
+                    to++;
+                }
+                String ixpName = names.get(ixId);
+                if (ixpName != null) {
+                    int[] previous = ixpMembers.get(ixpName);
+                    int[] asns = Arrays.copyOf(previous, previous.length + to - from);
+                    for (int i = from; i < to; i++) {
+                        asns[previous.length + i - from] = (int) pairs[i];
+                    }
+                    ixpMembers.put(ixpName, asns);
+                }
+                from = to;
+            }
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
         }
         return ixpMembers;
     }
 
     /**
      * Queries the PeeringDB and Euro-IX data to collect the ASNs used by IXP route servers
+     * @param cache The cache of the HTTP responses
      * @param pdbUrl The URL to the PeeringDB endpoint to query ASNs of type Route Server
      * @param euroixUrl The URL to the Euro-IX endpoint that provides data about IXP properties
      * @return HashMap<String, String> The mapping between Route Server ASNs and the corresponding IXP names
      */
-    static HashMap<String, String> getRouteServerASNs(String pdbUrl, String euroixUrl) {
-        ArrayList<String> pdbResponse = PeeringCartographer.sendGet(pdbUrl);
-        ArrayList<String> euroixResponse = PeeringCartographer.sendGet(euroixUrl);
-        JSONObject pdbData = PeeringCartographer.parseJson(String.join("", pdbResponse));
-        HashMap<String, String> rsASNs = PeeringCartographer.parsePdbRsAutsysData(pdbData);
+    static HashMap<String, String> getRouteServerASNs(HttpCache cache, String pdbUrl, String euroixUrl) {
+        ArrayList<String> pdbResponse = PeeringCartographer.sendGet(cache, pdbUrl);
+        ArrayList<String> euroixResponse = PeeringCartographer.sendGet(cache, euroixUrl);
+        HashMap<String, String> rsASNs = new HashMap<>();
+        if (pdbResponse != null) {
+            JSONObject pdbData = PeeringCartographer.parseJson(String.join("", pdbResponse));
+            if (pdbData != null) {
+                rsASNs = PeeringCartographer.parsePdbRsAutsysData(pdbData);
+            }
+        }
         if (euroixResponse != null){
             rsASNs.putAll(PeeringCartographer.parseEuroIXData(euroixResponse));
         }
@@ -116,32 +159,24 @@ public interface PeeringCartographer {
     }
 
     /**
-     * Issues an HTTP GET request and returns the body of the reply as list of lines
-     * @param url The URL to which the GET request is sent
-     * @return ArrayList<String> The list of lines in the response body
+     * Issues an HTTP GET request, or serves it from the cache, and returns the body of the reply as list of lines
+     * @param cache The cache of the HTTP responses
+     * @param url The URL to which the GET request is sent, or the path of a local file
+     * @return ArrayList<String> The list of lines in the response body, or null if the URL is unreachable
      */
-    static ArrayList<String> sendGet(String url) {
-        String USER_AGENT = "Mozilla/5.0";
-
-        URL obj;
-        ArrayList<String> response = null;
-        try {
-            obj = new URL(url);
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("GET");
-            con.setRequestProperty("User-Agent", USER_AGENT);
-            //int responseCode = con.getResponseCode();
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(con.getInputStream()));
+    static ArrayList<String> sendGet(HttpCache cache, String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        ArrayList<String> response = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(cache.open(url), StandardCharsets.UTF_8))) {
             String inputLine;
-            // StringBuffer response = new StringBuffer();
-            response = new ArrayList<>();
             while ((inputLine = in.readLine()) != null) {
                 response.add(inputLine);
             }
-            in.close();
         } catch (IOException e) {
-            System.err.println("Couldn't reach URL " + url);
+            System.err.println("Couldn't reach URL " + url + ": " + e.getMessage());
+            return null;
         }
 
         return response;
@@ -220,15 +255,167 @@ public interface PeeringCartographer {
         return asns;
     }
 
+    /**
+     * Maps facilities, IXPs and cities to their member ASes. Facilities, IXPs, cities and ASNs get dense integer IDs
+     * in the order they are added, and the memberships are bitsets indexed by these IDs, so checking if an AS is
+     * present at a facility or an IXP is constant time.
+     */
     class ColocationMap{
-        // Maps facility -> ASes in this facility
-        HashMap<String, List<String>> facMembers = new HashMap<>();
-        HashMap<String, List<String>> ixpMembers = new HashMap<>();
-        // Maps city -> Facilities in this city
-        HashMap<String, List<String>> cityFacilities = new HashMap<>();
-        // Maps facility -> city
-        HashMap<String, String> facilityCity = new HashMap<>();
-        // Maps AS -> location -> Facilities in this location
-        HashMap<String, HashMap<String, List<String>>> autsysFacilities = new HashMap<>();
+        // Maps facility/IXP/city name -> ID, and the names indexed by ID
+        HashMap<String, Integer> facilityIds = new HashMap<>();
+        ArrayList<String> facilityNames = new ArrayList<>();
+        HashMap<String, Integer> ixpIds = new HashMap<>();
+        ArrayList<String> ixpNames = new ArrayList<>();
+        HashMap<String, Integer> cityIds = new HashMap<>();
+        ArrayList<String> cityNames = new ArrayList<>();
+        // Maps ASN -> ASN ID, and the ASNs indexed by ID
+        IntIntMap asnIds = new IntIntMap(1 << 14);
+        int[] asns = new int[1 << 14];
+        int asnCount = 0;
+        // Maps facility ID -> city ID
+        int[] facilityCity = new int[1 << 10];
+        // Maps facility ID -> IDs of the ASes in this facility
+        ArrayList<BitSet> facMembers = new ArrayList<>();
+        // Maps IXP ID -> IDs of the ASes connected to this IXP
+        ArrayList<BitSet> ixpMembers = new ArrayList<>();
+        // Maps city ID -> IDs of the facilities in this city
+        ArrayList<BitSet> cityFacilities = new ArrayList<>();
+
+        /**
+         * @param name the facility name
+         * @return the facility ID, or -1 if the facility is unknown
+         */
+        int facilityId(String name) {
+            Integer id = facilityIds.get(name);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @param name the IXP name
+         * @return the IXP ID, or -1 if the IXP is unknown
+         */
+        int ixpId(String name) {
+            Integer id = ixpIds.get(name);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @param asn the ASN
+         * @return the ASN ID, or -1 if the ASN is not present in any facility or IXP
+         */
+        int asnId(int asn) {
+            return asnIds.get(asn);
+        }
+
+        int facilityCity(int facility) {
+            return facilityCity[facility];
+        }
+
+        /**
+         * @param facility the facility ID
+         * @param asn the ASN
+         * @return true if the AS is present in the facility
+         */
+        boolean isFacilityMember(int facility, int asn) {
+            int id = asnIds.get(asn);
+            return id >= 0 && facMembers.get(facility).get(id);
+        }
+
+        /**
+         * @param ixp the IXP ID
+         * @param asn the ASN
+         * @return true if the AS is connected to the IXP
+         */
+        boolean isIxpMember(int ixp, int asn) {
+            int id = asnIds.get(asn);
+            return id >= 0 && ixpMembers.get(ixp).get(id);
+        }
+
+        /**
+         * Counts the facilities where an AS is present in a city
+         * @param asn the ASN
+         * @param city the city ID
+         * @return the number of facilities of the AS in the city
+         */
+        int facilitiesInCity(int asn, int city) {
+            int id = asnIds.get(asn);
+            if (id < 0) {
+                return 0;
+            }
+            int count = 0;
+            BitSet facilities = cityFacilities.get(city);
+            for (int f = facilities.nextSetBit(0); f >= 0; f = facilities.nextSetBit(f + 1)) {
+                if (facMembers.get(f).get(id)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Adds a facility if it's not known yet
+         * @param name the facility name
+         * @param location the city of the facility, in the format city:country
+         * @return the facility ID
+         */
+        int addFacility(String name, String location) {
+            Integer id = facilityIds.get(name);
+            if (id != null) {
+                return id;
+            }
+            int facility = facilityNames.size();
+            facilityIds.put(name, facility);
+            facilityNames.add(name);
+            facMembers.add(new BitSet());
+            Integer city = cityIds.get(location);
+            if (city == null) {
+                city = cityNames.size();
+                cityIds.put(location, city);
+                cityNames.add(location);
+                cityFacilities.add(new BitSet());
+            }
+            if (facility == facilityCity.length) {
+                facilityCity = Arrays.copyOf(facilityCity, facility * 2);
+            }
+            facilityCity[facility] = city;
+            cityFacilities.get(city).set(facility);
+            return facility;
+        }
+
+        void addFacilityMember(int facility, int asn) {
+            facMembers.get(facility).set(addAsn(asn));
+        }
+
+        /**
+         * Adds an IXP and its members, or adds the members to the IXP if it's already known
+         * @param name the IXP name
+         * @param members the ASNs of the IXP members
+         */
+        void addIxp(String name, int[] members) {
+            Integer ixp = ixpIds.get(name);
+            if (ixp == null) {
+                ixp = ixpNames.size();
+                ixpIds.put(name, ixp);
+                ixpNames.add(name);
+                ixpMembers.add(new BitSet());
+            }
+            BitSet bits = ixpMembers.get(ixp);
+            for (int asn : members) {
+                bits.set(addAsn(asn));
+            }
+        }
+
+        private int addAsn(int asn) {
+            int id = asnIds.get(asn);
+            if (id < 0) {
+                id = asnCount;
+                asnIds.put(asn, id);
+                if (id == asns.length) {
+                    asns = Arrays.copyOf(asns, id * 2);
+                }
+                asns[asnCount++] = asn;
+            }
+            return id;
+        }
     }
 }
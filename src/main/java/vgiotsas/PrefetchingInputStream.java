@@ -0,0 +1,136 @@
+package vgiotsas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains a stream on a background thread into a bounded queue of chunks. It is used on the stdout of bgpreader, so
+ * that bgpreader keeps downloading and decoding while the consumer is not reading yet (e.g. while the reference
+ * datasets are loading) instead of blocking on a full pipe.
+ */
+class PrefetchingInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final InputStream source;
+    private final BlockingQueue<ByteBuffer> chunks;
+    private final Thread pump;
+    private volatile IOException error = null;
+    // bytes in the queue, the bytes left in the current chunk are not included
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Metrics.Registration backlog;
+
+    private ByteBuffer chunk = EOF;
+    private boolean eof = false;
+
+    /**
+     * @param source the stream to drain
+     * @param maxBufferedBytes the maximum number of bytes that are buffered before the source is not read anymore
+     * @param name the name of the background thread
+     */
+    PrefetchingInputStream(InputStream source, int maxBufferedBytes, String name) {
+        this.source = source;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(2, maxBufferedBytes / CHUNK_SIZE));
+        this.pump = new Thread(this::pump, name);
+        this.pump.setDaemon(true);
+        this.pump.start();
+        this.backlog = Metrics.gauge("bgpreader_buffered_bytes",
+                "Bytes read from bgpreader that are waiting to be parsed", queuedBytes::get);
+    }
+
+    private void pump() {
+        try {
+            while (true) {
+                byte[] buf = new byte[CHUNK_SIZE];
+                int n = 0;
+                // Fill the chunk with what is available without blocking after the first read
+                while (n < CHUNK_SIZE) {
+                    int r = source.read(buf, n, CHUNK_SIZE - n);
+                    if (r == -1) {
+                        break;
+                    }
+                    n += r;
+                    if (source.available() == 0) {
+                        break;
+                    }
+                }
+                if (n == 0) {
+                    break;
+                }
+                queuedBytes.addAndGet(n);
+                chunks.put(ByteBuffer.wrap(buf, 0, n));
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                chunks.put(EOF);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes that have been read from the source but not consumed yet
+     */
+    long bufferedBytes() {
+        return queuedBytes.get() + chunk.remaining();
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input", e);
+        }
+        if (chunk == EOF) {
+            eof = true;
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        queuedBytes.addAndGet(-chunk.remaining());
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!chunk.hasRemaining() && !nextChunk()) {
+            return -1;
+        }
+        return chunk.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!chunk.hasRemaining() && !nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        backlog.close();
+        pump.interrupt();
+        source.close();
+    }
+}
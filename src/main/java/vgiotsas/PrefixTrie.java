@@ -0,0 +1,226 @@
+package vgiotsas;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Binary Patricia trie over IPv4 and IPv6 prefixes, used to filter the elems of a BGP stream by prefix in-process,
+ * like the -k filter of bgpreader. An elem matches if its prefix is one of the prefixes of the trie or a more
+ * specific prefix of one of them.
+ *
+ * The addresses are 128-bit keys in two longs, with the IPv4 addresses in the top 32 bits, and every family has its
+ * own root. The nodes are path-compressed, so a lookup visits at most one node per stored prefix length on the path,
+ * and they are stored in primitive arrays. The trie is read-only once it's built, so it can be shared by the reader
+ * threads, each with its own {@link AddressParser}.
+ */
+class PrefixTrie {
+
+    private static final int NO_NODE = -1;
+
+    private long[] highs = new long[16];
+    private long[] lows = new long[16];
+    private int[] lengths = new int[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    // true for the nodes that are prefixes of the set, false for the branching nodes
+    private boolean[] terminal = new boolean[16];
+    private int nodes = 0;
+    private int size = 0;
+    private int rootV4 = NO_NODE;
+    private int rootV6 = NO_NODE;
+
+    /**
+     * Builds a trie from prefixes given as text, the invalid prefixes are skipped
+     * @param prefixes the prefixes, e.g. 192.0.2.0/24 or 2001:db8::/32
+     * @return the trie
+     */
+    static PrefixTrie fromPrefixes(Collection<String> prefixes) {
+        PrefixTrie trie = new PrefixTrie();
+        AddressParser parser = new AddressParser();
+        for (String prefix : prefixes) {
+            byte[] text = prefix.trim().getBytes(StandardCharsets.ISO_8859_1);
+            int family = parser.parsePrefix(text, 0, text.length);
+            if (family == 0) {
+                System.err.println("Ignoring invalid prefix " + prefix);
+                continue;
+            }
+            trie.add(family, parser.high, parser.low, parser.length);
+        }
+        return trie;
+    }
+
+    /**
+     * @return the number of distinct prefixes in the trie
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a prefix to the trie
+     * @param family 4 or 6
+     * @param high the upper 64 bits of an IPv6 prefix, 0 for IPv4
+     * @param low the lower 64 bits of an IPv6 prefix, or the IPv4 prefix in the lowest 32 bits
+     * @param length the prefix length
+     */
+    void add(int family, long high, long low, int length) {
+        if (family == 4) {
+            high = low << 32;
+            low = 0;
+            rootV4 = insert(rootV4, mask(high, length, 0), mask(low, length, 64), length);
+        } else {
+            rootV6 = insert(rootV6, mask(high, length, 0), mask(low, length, 64), length);
+        }
+    }
+
+    /**
+     * @param family 4 or 6, as returned by {@link AddressParser#parsePrefix}
+     * @param high the upper 64 bits of an IPv6 prefix, 0 for IPv4
+     * @param low the lower 64 bits of an IPv6 prefix, or the IPv4 prefix in the lowest 32 bits
+     * @param length the prefix length
+     * @return true if the prefix or a less specific prefix is in the trie
+     */
+    boolean matches(int family, long high, long low, int length) {
+        int node;
+        if (family == 4) {
+            high = low << 32;
+            low = 0;
+            node = rootV4;
+        } else {
+            node = rootV6;
+        }
+        while (node != NO_NODE) {
+            int nodeLength = lengths[node];
+            if (nodeLength > length || commonBits(highs[node], lows[node], high, low) < nodeLength) {
+                return false;
+            }
+            if (terminal[node]) {
+                return true;
+            }
+            node = bit(high, low, nodeLength) == 0 ? left[node] : right[node];
+        }
+        return false;
+    }
+
+    /**
+     * Parses a prefix from text and checks it against the trie
+     * @param parser the scratch parser of the calling thread
+     * @param b the buffer with the text of the prefix
+     * @param from the offset of the first character of the prefix
+     * @param to the offset after the last character of the prefix
+     * @return true if the prefix is valid and matches the trie
+     */
+    boolean matches(AddressParser parser, byte[] b, int from, int to) {
+        int family = parser.parsePrefix(b, from, to);
+        return family != 0 && matches(family, parser.high, parser.low, parser.length);
+    }
+
+    /**
+     * Inserts a prefix in the subtree of a node
+     * @return the new root of the subtree
+     */
+    private int insert(int node, long high, long low, int length) {
+        if (node == NO_NODE) {
+            size++;
+            return newNode(high, low, length, true);
+        }
+        int nodeLength = lengths[node];
+        int common = Math.min(commonBits(highs[node], lows[node], high, low), Math.min(nodeLength, length));
+        if (common == nodeLength) {
+            if (length == nodeLength) {
+                if (!terminal[node]) {
+                    terminal[node] = true;
+                    size++;
+                }
+                return node;
+            }
+            // The prefix is below the node
+            if (bit(high, low, nodeLength) == 0) {
+                int child = insert(left[node], high, low, length);
+                left[node] = child;
+            } else {
+                int child = insert(right[node], high, low, length);
+                right[node] = child;
+            }
+            return node;
+        }
+        size++;
+        if (common == length) {
+            // The prefix is above the node
+            int parent = newNode(high, low, length, true);
+            if (bit(highs[node], lows[node], length) == 0) {
+                left[parent] = node;
+            } else {
+                right[parent] = node;
+            }
+            return parent;
+        }
+        // The prefix and the node diverge, they become the children of a new branching node
+        int leaf = newNode(high, low, length, true);
+        int branch = newNode(mask(high, common, 0), mask(low, common, 64), common, false);
+        if (bit(high, low, common) == 0) {
+            left[branch] = leaf;
+            right[branch] = node;
+        } else {
+            left[branch] = node;
+            right[branch] = leaf;
+        }
+        return branch;
+    }
+
+    private int newNode(long high, long low, int length, boolean isTerminal) {
+        if (nodes == lengths.length) {
+            int capacity = nodes * 2;
+            highs = Arrays.copyOf(highs, capacity);
+            lows = Arrays.copyOf(lows, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            terminal = Arrays.copyOf(terminal, capacity);
+        }
+        int node = nodes++;
+        highs[node] = high;
+        lows[node] = low;
+        lengths[node] = length;
+        left[node] = NO_NODE;
+        right[node] = NO_NODE;
+        terminal[node] = isTerminal;
+        return node;
+    }
+
+    /**
+     * @return the number of leading bits that two 128-bit keys have in common
+     */
+    private static int commonBits(long high1, long low1, long high2, long low2) {
+        long diff = high1 ^ high2;
+        if (diff != 0) {
+            return Long.numberOfLeadingZeros(diff);
+        }
+        return 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+    }
+
+    /**
+     * @return the bit of a 128-bit key at the given position, counted from the most significant bit
+     */
+    private static int bit(long high, long low, int position) {
+        if (position < 64) {
+            return (int) (high >>> (63 - position)) & 1;
+        }
+        return (int) (low >>> (127 - position)) & 1;
+    }
+
+    /**
+     * Clears the bits of one half of a key after the prefix length
+     * @param half the upper or the lower 64 bits of the key
+     * @param length the prefix length
+     * @param offset the position of the first bit of the half, 0 or 64
+     */
+    private static long mask(long half, int length, int offset) {
+        int bits = length - offset;
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 64 ? half : half & (-1L << (64 - bits));
+    }
+}
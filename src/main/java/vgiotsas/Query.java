@@ -0,0 +1,153 @@
+package vgiotsas;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * One query of a queries file: the target communities, facilities and overlap of a run, and the output directory of
+ * its results. The queries of a file are answered together in one pass over the stream, see
+ * {@link CommunitiesParser#queryAnnotatedPaths}.
+ *
+ * The file has one query per line with the same options as the command line, e.g.
+ * <pre>
+ * # Outages of the NTT links in Frankfurt
+ * --communities 2914:1201,2914:1202 --facilities "Equinix Frankfurt (FR5)" --overlap 1 --outdir out/ntt
+ * </pre>
+ * Empty lines and lines that start with # are ignored, and values with spaces are quoted.
+ */
+class Query extends QueryOptions {
+
+    private Query() {
+        // Every query writes its results in its own output directory, so a query has no default one
+        this.outdir = "";
+    }
+
+    /**
+     * Reads the queries of a queries file
+     * @param file the path to the queries file
+     * @return the queries, or null if the file can't be read or a query is invalid
+     */
+    static List<Query> read(String file) {
+        List<Query> queries = new ArrayList<>();
+        HashSet<String> outdirs = new HashSet<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                Query query = new Query();
+                try {
+                    new CmdLineParser(query).parseArgument(tokenize(line));
+                } catch (CmdLineException | IllegalArgumentException e) {
+                    System.err.println("Invalid query at line " + lineNumber + " of " + file + ": " + e.getMessage());
+                    return null;
+                }
+                if (query.communities.isEmpty() || query.outdir.isEmpty()) {
+                    System.err.println("Invalid query at line " + lineNumber + " of " + file + ": " +
+                            (query.communities.isEmpty() ? "--communities" : "--outdir") + " is required");
+                    return null;
+                }
+                // Every query writes its own results, so two queries can't share an output directory
+                if (!outdirs.add(query.outdir)) {
+                    System.err.println("Invalid query at line " + lineNumber + " of " + file +
+                            ": the output directory " + query.outdir + " is used by another query");
+                    return null;
+                }
+                queries.add(query);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (queries.isEmpty()) {
+            System.err.println("The queries file " + file + " has no queries");
+            return null;
+        }
+        return queries;
+    }
+
+    /**
+     * Splits a line in whitespace-separated tokens, the double-quoted tokens can contain whitespace
+     * @param line the line of a query
+     * @return the tokens without the quotes
+     */
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * @param base the command-line arguments and the configuration properties of the run
+     * @return the properties of the parser of the query, the properties of the run with the arguments of the query
+     */
+    HashMap<String, String> properties(HashMap<String, String> base) {
+        HashMap<String, String> properties = new HashMap<>(base);
+        properties.remove("queries");
+        properties.put("communities", this.communities);
+        properties.put("facilities", this.facilities);
+        properties.put("overlap", Integer.toString(this.overlap));
+        properties.put("outdir", this.outdir);
+        // The change points of every query are written in its own output directory
+        properties.remove("changepoint_file");
+        return properties;
+    }
+
+    /**
+     * @return the names of the target facilities, empty for all the facilities
+     */
+    List<String> facilities() {
+        if (this.facilities.equals(CliParser.getDefaultFacilities())) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(this.facilities.split(","));
+    }
+
+    int overlap() {
+        return this.overlap;
+    }
+
+    String outdir() {
+        return this.outdir;
+    }
+}
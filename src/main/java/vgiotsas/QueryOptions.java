@@ -0,0 +1,34 @@
+package vgiotsas;
+
+import org.kohsuke.args4j.Option;
+
+/**
+ * The options that define a query: the target communities, facilities and overlap, and the output directory of the
+ * results. They are shared by the command line ({@link CliParser}) and the lines of a queries file ({@link Query}),
+ * since args4j also parses the options of the superclasses of a bean.
+ */
+class QueryOptions {
+
+    @Option(name="--communities",
+            required=false,
+            usage="Comma-separated list of BGP Community values, standard (asn:value) or large (global:local1:local2), " +
+                    "required unless --queries is given.")
+    String communities = "";
+
+    @Option(name="--outdir",
+            required=false,
+            usage="Path to the output directory.")
+    String outdir = ".";
+
+    @Option(name="--facilities",
+            required=false,
+            usage="Comma-separated list of facility names to restrict the scope of the analyzed AS links.")
+    String facilities = CliParser.getDefaultFacilities();
+
+    @Option(name="--overlap",
+            required=false,
+            depends={"--facilities"},
+            usage="Number of maximum overlapping facilities between the near-end and far-end ASes " +
+                    "in the cities of the facilities defined in the `--facilities` parameter.")
+    int overlap = -1;
+}
@@ -0,0 +1,142 @@
+package vgiotsas;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * End-to-end run of the parser against the {@link SyntheticBgpReader}, which replaces the bgpreader_bin, to measure
+ * the throughput of {@link CommunitiesParser#startParser()} offline and in CI. The stand-in generates the stream
+ * with the options of the synthetic_options property, or replays the recorded bgpreader output of replay_file.
+ *
+ * The report has the elems per second over the whole run, the latency until the first elem is parsed, the duration
+ * of every phase (the finished phase is the time to write the output), the peak heap sampled during the run and the
+ * time spent in GC. It is printed, and written as JSON to bench_report if the property is set.
+ */
+class ReplayHarness {
+
+    private static final long SAMPLE_MILLIS = 10;
+
+    private ReplayHarness() {
+    }
+
+    /**
+     * @param arguments the arguments and properties of the parser
+     * @return the bgpreader_bin that runs the stand-in with the classpath of this JVM
+     */
+    static String standInCommand(HashMap<String, String> arguments) {
+        StringBuilder command = new StringBuilder();
+        command.append(System.getProperty("java.home")).append(File.separator).append("bin").append(File.separator)
+                .append("java -cp ").append(System.getProperty("java.class.path"))
+                .append(' ').append(SyntheticBgpReader.class.getName());
+        String replayFile = arguments.getOrDefault("replay_file", "");
+        if (!replayFile.isEmpty()) {
+            command.append(" --replay ").append(replayFile);
+        }
+        String options = arguments.getOrDefault("synthetic_options", "");
+        if (!options.trim().isEmpty()) {
+            command.append(' ').append(options.trim());
+        }
+        return command.toString();
+    }
+
+    /**
+     * Runs the parser against the stand-in and reports the measurements
+     * @param arguments the arguments and properties of the parser
+     * @param datasets the reference datasets loaded from the snapshot, or null to load them from their sources
+     */
+    static void run(HashMap<String, String> arguments, Datasets datasets) {
+        arguments.put("bgpreader_bin", standInCommand(arguments));
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] peakHeap = {memory.getHeapMemoryUsage().getUsed()};
+        long gcMillis = gcMillis();
+        long gcCount = gcCount();
+        long elems = Metrics.ELEMS.get();
+        long started = System.nanoTime();
+
+        // Sample the heap on a daemon thread while the parser runs
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                long used = memory.getHeapMemoryUsage().getUsed();
+                synchronized (peakHeap) {
+                    peakHeap[0] = Math.max(peakHeap[0], used);
+                }
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "bench-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        new CommunitiesParser(arguments, datasets).startParser();
+
+        long finished = System.nanoTime();
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        double seconds = (finished - started) / 1e9;
+        long parsed = Metrics.ELEMS.get() - elems;
+        LinkedHashMap<String, Object> report = new LinkedHashMap<>();
+        report.put("stream", arguments.getOrDefault("replay_file", "").isEmpty() ? "synthetic" : "replay");
+        report.put("seconds", seconds);
+        report.put("elems", parsed);
+        report.put("elems_per_second", seconds > 0 ? parsed / seconds : 0);
+        long firstElem = Metrics.firstElemNanos();
+        report.put("first_elem_ms", firstElem == 0 ? -1 : (firstElem - started) / 1000000);
+        synchronized (peakHeap) {
+            report.put("peak_heap_mb", peakHeap[0] >> 20);
+        }
+        for (int p = StreamEngine.BOOTSTRAP; p <= StreamEngine.FINISHED; p++) {
+            report.put(StreamEngine.PHASE_NAMES[p] + "_seconds", Metrics.phaseSeconds(p));
+        }
+        report.put("gc_ms", gcMillis() - gcMillis);
+        report.put("gc_count", gcCount() - gcCount);
+
+        System.out.println("Bench: " + parsed + " elems in " + String.format("%.1f", seconds) + " s (" +
+                String.format("%.0f", seconds > 0 ? parsed / seconds : 0) + " elems/s), first elem after " +
+                report.get("first_elem_ms") + " ms, peak heap " + report.get("peak_heap_mb") + " MB, GC " +
+                report.get("gc_ms") + " ms");
+        String reportFile = arguments.get("bench_report");
+        if (reportFile != null && !reportFile.isEmpty()) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+                out.write(JSONValue.toJSONString(report));
+                out.write('\n');
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+}
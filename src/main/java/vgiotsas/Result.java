@@ -4,20 +4,31 @@ import java.util.*;
 
 class Result {
 
-    class TimeLine{
-        HashMap<Integer, Integer> pathsByTs = new HashMap<>();
+    /**
+     * The number of activated routes of a community at the end of each bin of the measurement period
+     */
+    static class TimeLine{
+        final int origin;
+        final int width;
+        final int[] paths;
+
+        TimeLine(int origin, int width, int[] paths){
+            this.origin = origin;
+            this.width = width;
+            this.paths = paths;
+        }
     }
 
     private HashSet<String> collectors;
     private HashSet<String> peers;
     private HashSet<String> prefixes;
-    private HashMap<String, HashMap<String, Route>> routes;
-    private HashMap<String, TimeLine> communitiesTimeline;
+    private RouteTable routes;
+    private CommunityTimeline timeline;
 
     Result(HashSet<String> collectors,
            HashSet<String> peers,
            HashSet<String> prefixes,
-           HashMap<String, HashMap<String, Route>> routes){
+           RouteTable routes){
         this.collectors = collectors;
         this.peers = peers;
         this.prefixes = prefixes;
@@ -25,36 +36,85 @@ class Result {
     }
 
 
-    private void updateTimeline(String key, List<Integer> timestamps, int value){
-        for (int ts : timestamps){
-            HashMap<Integer, Integer> pathsByTs =  this.communitiesTimeline.get(key).pathsByTs;
-            if (!pathsByTs.containsKey(ts)){
-                this.communitiesTimeline.get(key).pathsByTs.put(ts, value);
-            }
-            else{
-                if (this.communitiesTimeline.get(key).pathsByTs.containsKey(ts)){
-                    int previous_paths = this.communitiesTimeline.get(key).pathsByTs.get(ts);
-                    this.communitiesTimeline.get(key).pathsByTs.put(ts, previous_paths + value);
-                }
+    /**
+     * Merges the results of disjoint sets of routes, e.g. the results of the shards of a sharded pipeline
+     * @param results the results to merge
+     * @return the merged result
+     */
+    static Result merge(List<Result> results){
+        HashSet<String> collectors = new HashSet<>();
+        HashSet<String> peers = new HashSet<>();
+        HashSet<String> prefixes = new HashSet<>();
+        RouteTable routes = new RouteTable();
+        CommunityTimeline timeline = null;
+        for (Result r : results){
+            collectors.addAll(r.collectors);
+            peers.addAll(r.peers);
+            prefixes.addAll(r.prefixes);
+            routes.addAll(r.routes);
+            // The results that track a timeline share it
+            if (r.timeline != null){
+                timeline = r.timeline;
             }
         }
+        Result merged = new Result(collectors, peers, prefixes, routes);
+        merged.timeline = timeline;
+        return merged;
     }
 
-    HashMap<String, TimeLine> getCommunitiesTimeline(){
-        this.communitiesTimeline = new HashMap<>();
-        for (String peerIp : this.routes.keySet()){
-            for (String prefix : this.routes.get(peerIp).keySet()){
-                String community = this.routes.get(peerIp).get(prefix).getTargetCommunity();
-                List<Integer> activated = this.routes.get(peerIp).get(prefix).getTsActivated();
-                List<Integer> withdrawn = this.routes.get(peerIp).get(prefix).getTsWithdrawn();
-                if (!this.communitiesTimeline.containsKey(community)){
-                    this.communitiesTimeline.put(community, new TimeLine());
-                }
-                updateTimeline(community, activated, 1);
-                updateTimeline(community, withdrawn, -1);
-            }
+    /**
+     * Starts aggregating the status changes of the routes in a timeline, usually when the monitoring period starts
+     * @param timeline the timeline, which can be shared by the results of several shards
+     * @param keepHistory false to drop the status changes of every route once they are added to the timeline
+     */
+    void trackTimeline(CommunityTimeline timeline, boolean keepHistory){
+        this.routes.trackTimeline(timeline, keepHistory);
+        this.timeline = timeline;
+    }
+
+    /**
+     * Continues aggregating the status changes of the routes in a timeline that already contains their previous
+     * changes, e.g. after both are restored from a checkpoint
+     * @param timeline the timeline
+     * @param keepHistory false to drop the status changes of every route once they are added to the timeline
+     */
+    void resumeTimeline(CommunityTimeline timeline, boolean keepHistory){
+        this.routes.resumeTimeline(timeline, keepHistory);
+        this.timeline = timeline;
+    }
+
+    /**
+     * Checks the next status changes of the routes with a change-point detector, e.g. after the routes and their
+     * timeline are restored from a checkpoint
+     * @param detector the detector
+     */
+    void detectChanges(ChangeDetector detector){
+        if (this.timeline != null){
+            this.timeline.detectChanges(detector);
+            this.routes.countActivated(detector, 1);
         }
-        return this.communitiesTimeline;
+    }
+
+    CommunityTimeline getTimeline(){
+        return this.timeline;
+    }
+
+    /**
+     * Withdraws the activated routes from the timeline and stops tracking it, e.g. when the routes are replaced by
+     * the routes of a new bootstrap
+     * @param ts the epoch timestamp at which the routes leave the timeline
+     */
+    void untrackTimeline(int ts){
+        this.routes.untrackTimeline(ts);
+        this.timeline = null;
+    }
+
+    /**
+     * @return the timeline of the routes of every target community with routes, as of now. Empty if no timeline is
+     * tracked.
+     */
+    HashMap<String, TimeLine> getCommunitiesTimeline(){
+        return this.timeline == null ? new HashMap<>() : this.timeline.snapshot();
     }
 
     HashSet<String> getCollectors() {
@@ -69,22 +129,31 @@ class Result {
         return prefixes;
     }
 
-    HashMap<String, HashMap<String, Route>> getRoutes() {
+    RouteTable getRoutes() {
         return routes;
     }
 
-    void setRoutes(HashMap<String, HashMap<String, Route>> routes) {
-        this.routes = routes;
+    /**
+     * @return the number of annotated routes
+     */
+    int routeCount() {
+        return routes.size();
     }
 
-    void setRoute(String peerIp, String prefix, Route r){
-        this.routes.get(peerIp).put(prefix, r);
+    /**
+     * @param peerIp the peer IP of the route
+     * @param prefix the prefix of the route
+     * @return the route, or null if there is no such annotated route
+     */
+    Route getRoute(String peerIp, String prefix){
+        int row = this.routes.find(peerIp, prefix);
+        return row == RouteTable.NONE ? null : new Route(this.routes, row);
     }
 
     void removeRoute(String peerIp, String prefix){
-        this.routes.get(peerIp).remove(prefix);
-        if (this.routes.get(peerIp).size() == 0){
-            this.routes.remove(peerIp);
+        int row = this.routes.find(peerIp, prefix);
+        if (row != RouteTable.NONE){
+            this.routes.remove(row);
         }
     }
 }
@@ -0,0 +1,229 @@
+package vgiotsas;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the timelines of the target communities to the output directory, either as one text file per community
+ * with a line per bin (the bin start and the number of activated routes, tab-separated), or as a single binary file
+ * with all the communities.
+ *
+ * The binary file starts with an index, so a reader can seek to the series of one community without reading the
+ * others. All the numbers are big-endian:
+ * <pre>
+ *     magic "BCWT", int version, int number of communities
+ *     for every community: UTF community, int origin, int bin width, int number of bins, long offset of the series
+ *     for every community, at its offset: int number of activated routes of every bin
+ * </pre>
+ */
+class ResultWriter {
+
+    static final String TEXT = "text";
+    static final String BINARY = "binary";
+    static final String BINARY_FILE = "results.bin";
+
+    private static final int MAGIC = 0x42435754;
+    private static final int VERSION = 1;
+
+    private final File outdir;
+    private final int threads;
+
+    /**
+     * @param outdir the output directory, created if it doesn't exist
+     * @param threads the maximum number of text files that are written in parallel
+     */
+    ResultWriter(String outdir, int threads) {
+        this.outdir = new File(outdir);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param timelines the timelines by community
+     * @param format {@link #TEXT} or {@link #BINARY}
+     * @throws IOException if a file can't be written
+     */
+    void write(HashMap<String, Result.TimeLine> timelines, String format) throws IOException {
+        if (!outdir.isDirectory() && !outdir.mkdirs()) {
+            throw new IOException("Can't create the output directory " + outdir);
+        }
+        if (BINARY.equals(format)) {
+            writeBinary(timelines, new File(outdir, BINARY_FILE));
+        } else {
+            writeText(timelines);
+        }
+    }
+
+    /**
+     * Writes a text file for every community, several files in parallel
+     */
+    private void writeText(HashMap<String, Result.TimeLine> timelines) throws IOException {
+        List<String> communities = new ArrayList<>(timelines.keySet());
+        if (communities.size() <= 1 || threads == 1) {
+            for (String community : communities) {
+                writeText(community, timelines.get(community));
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, communities.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String community : communities) {
+                futures.add(executor.submit(() -> {
+                    writeText(community, timelines.get(community));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the results", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void writeText(String community, Result.TimeLine timeline) throws IOException {
+        File file = new File(outdir, community + "-results.txt");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            // The lines are formatted in a reused buffer instead of concatenating Strings
+            char[] line = new char[24];
+            for (int bin = 0; bin < timeline.paths.length; bin++) {
+                int length = appendInt(line, 0, timeline.origin + bin * timeline.width);
+                line[length++] = '\t';
+                length = appendInt(line, length, timeline.paths[bin]);
+                line[length++] = '\n';
+                writer.write(line, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Appends the bins of the timelines to the text files of the communities as they close, for an unbounded
+     * stream. The files are kept open and flushed after every closed bin.
+     */
+    class Appender implements CommunityTimeline.BinListener, Closeable {
+
+        private final HashMap<Community, Writer> writers = new HashMap<>();
+        private final char[] line = new char[24];
+
+        @Override
+        public void closed(Community community, int binStart, int paths) {
+            try {
+                Writer writer = writers.get(community);
+                if (writer == null) {
+                    if (!outdir.isDirectory() && !outdir.mkdirs()) {
+                        throw new IOException("Can't create the output directory " + outdir);
+                    }
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                            new File(outdir, community + "-results.txt"), true), StandardCharsets.UTF_8));
+                    writers.put(community, writer);
+                }
+                int length = appendInt(line, 0, binStart);
+                line[length++] = '\t';
+                length = appendInt(line, length, paths);
+                line[length++] = '\n';
+                writer.write(line, 0, length);
+                writer.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Writer writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+        }
+    }
+
+    /**
+     * @return a listener that appends the closed bins of a timeline to the text files of the communities
+     */
+    Appender appender() {
+        return new Appender();
+    }
+
+    /**
+     * Formats an int in decimal
+     * @return the offset after the last digit
+     */
+    private static int appendInt(char[] buf, int offset, int value) {
+        long v = value;
+        if (v < 0) {
+            buf[offset++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        return offset + digits;
+    }
+
+    private void writeBinary(HashMap<String, Result.TimeLine> timelines, File file) throws IOException {
+        List<String> communities = new ArrayList<>(timelines.keySet());
+        Collections.sort(communities);
+        // The offsets are fixed-size, so the size of the index is known before the offsets are
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        writeIndex(new DataOutputStream(index), communities, timelines, 0);
+        long dataStart = index.size();
+        index.reset();
+        writeIndex(new DataOutputStream(index), communities, timelines, dataStart);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                1 << 16))) {
+            index.writeTo(out);
+            for (String community : communities) {
+                for (int paths : timelines.get(community).paths) {
+                    out.writeInt(paths);
+                }
+            }
+        }
+    }
+
+    private static void writeIndex(DataOutputStream out, List<String> communities,
+                                   HashMap<String, Result.TimeLine> timelines, long dataStart) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(communities.size());
+        long offset = dataStart;
+        for (String community : communities) {
+            Result.TimeLine timeline = timelines.get(community);
+            out.writeUTF(community);
+            out.writeInt(timeline.origin);
+            out.writeInt(timeline.width);
+            out.writeInt(timeline.paths.length);
+            out.writeLong(offset);
+            offset += 4L * timeline.paths.length;
+        }
+        out.flush();
+    }
+}
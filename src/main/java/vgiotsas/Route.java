@@ -1,79 +1,70 @@
 package vgiotsas;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
+/**
+ * View of a route that is stored in a {@link RouteTable}. The values are decoded from the columns of the table on
+ * every call, and the status updates are written to the table.
+ */
 public class Route {
 
-    private String targetCommunity;
-    private List<String> communities;
-    private List<Integer> tsWithdrawn;
-    private List<Integer> tsActivated;
-    private String nearEnd;
-    private String farEnd;
-    private String prefix;
-    private String peerIp;
-    private int status;
-
-    public Route(String tc, String[] communities, String ne, String fe, String pfx, String pip){
-        this.targetCommunity = tc;
-        this.communities = Arrays.asList(communities);
-        this.nearEnd = ne;
-        this.farEnd = fe;
-        this.prefix = pfx;
-        this.peerIp = pip;
-        tsWithdrawn = new ArrayList<>();
-        tsActivated = new ArrayList<>();
-        status = 0; // 1 indicates activated route, 0 indicates withdrawn route
+    private final RouteTable table;
+    private final int row;
+
+    Route(RouteTable table, int row){
+        this.table = table;
+        this.row = row;
     }
 
     // GETTERS
 
     public String getTargetCommunity() {
-        return targetCommunity;
+        return table.targetCommunity(row).toString();
     }
 
     public List<String> getCommunities() {
-        return communities;
+        return Community.unpackAll(table.communities(row));
     }
 
     public List<Integer> getTsWithdrawn() {
-        return tsWithdrawn;
+        return timestamps(false);
     }
 
     public List<Integer> getTsActivated() {
-        return tsActivated;
+        return timestamps(true);
+    }
+
+    private List<Integer> timestamps(boolean activated) {
+        List<Integer> timestamps = new ArrayList<>();
+        for (int i = 0; i < table.changeCount(row); i++) {
+            int change = table.change(row, i);
+            if (RouteTable.isActivation(change) == activated) {
+                timestamps.add(RouteTable.changeTimestamp(change));
+            }
+        }
+        return timestamps;
     }
 
     public String getNearEnd() {
-        return nearEnd;
+        return AsPath.toString(table.nearEnd(row));
     }
 
     public String getFarEnd() {
-        return farEnd;
+        return AsPath.toString(table.farEnd(row));
     }
 
     public String getPrefix() {
-        return prefix;
+        return table.prefix(row);
     }
 
     public String getPeerIp() {
-        return peerIp;
+        return table.peerIp(row);
     }
 
     // SETTERS
 
-    public void updateStatus(int status, String ts) {
-
-        if (status != this.status){
-            this.status = status;
-            if (status == 0){
-                tsWithdrawn.add(Integer.parseInt(ts));
-            }
-            else{
-                tsActivated.add(Integer.parseInt(ts));
-            }
-        }
+    public void updateStatus(int status, int ts) {
+        table.updateStatus(row, status, ts);
     }
 }
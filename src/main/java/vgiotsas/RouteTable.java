@@ -0,0 +1,696 @@
+package vgiotsas;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Columnar store of the annotated routes. Every route is a row, identified by a dense row ID, with its columns in
+ * primitive arrays:
+ * <ul>
+ *     <li>the peer IP and the prefix are interned as binary IPv4/IPv6 keys, and the row ID is the ID of the
+ *     (peer, prefix) pair, so the routes are looked up without building Strings from the elems;</li>
+ *     <li>the near-end and far-end ASNs are ints, encoded as in {@link AsPath};</li>
+ *     <li>the target community is interned, and the attached communities are interned as packed ints (see
+ *     {@link Community#packAll(BgpElem)}), shared by all the routes with the same values;</li>
+ *     <li>the status changes of every route are appended to a growable int array, the activations as timestamps
+ *     and the withdrawals as the complement of the timestamps.</li>
+ * </ul>
+ * Once a {@link CommunityTimeline} is tracked, the status changes are also added to the timeline as they happen, and
+ * the history of the routes can be dropped to keep the memory flat.
+ * The rows are not reused for other routes, a removed route keeps its row ID and gets it back if it's added again.
+ *
+ * Rows are only added and removed by one thread. The status of different rows can be updated by different threads
+ * (e.g. the shards of a {@link ShardedPipeline}), as long as every row is only updated by one thread.
+ */
+class RouteTable {
+
+    static final int NONE = -1;
+
+    private static final byte REMOVED = -1;
+    private static final int[] NO_CHANGES = new int[0];
+
+    private final LongPairIndex peers = new LongPairIndex();
+    private final LongPairIndex prefixes = new LongPairIndex();
+    // (peer ID, prefix ID) of every row
+    private final LongPairIndex keys = new LongPairIndex();
+    private final ArrayList<Community> targetValues = new ArrayList<>();
+    private final HashMap<Community, Integer> targetIds = new HashMap<>();
+    private final ArrayList<int[]> communityValues = new ArrayList<>();
+    private final HashMap<PackedCommunities, Integer> communityIds = new HashMap<>();
+
+    private int[] targets = new int[16];
+    private int[] communities = new int[16];
+    private int[] nearEnds = new int[16];
+    private int[] farEnds = new int[16];
+    private byte[] status = new byte[16];
+    private int[][] changes = new int[16][];
+    private int[] changeCounts = new int[16];
+    // rows that dropped part of their history in evictHistory
+    private final BitSet evicted = new BitSet();
+    private int size = 0;
+    private CommunityTimeline timeline = null;
+    private boolean keepHistory = true;
+
+    /**
+     * Binary encoding of the peer IP and the prefix of a route. A key is scratch space that is reused for every
+     * lookup, so every thread needs its own. The key also counts the lookups of its thread, which are added to the
+     * shared metrics in batches rather than per elem.
+     */
+    static final class Key {
+        // Lookups between two flushes to the metrics
+        private static final int METRICS_BATCH = 1024;
+
+        long peerHigh;
+        long peerLow;
+        int peerFamily;
+        long prefixHigh;
+        long prefixLow;
+        // The family of the prefix in the upper bits and the prefix length in the lowest byte
+        int prefixMeta;
+
+        private final AddressParser parser = new AddressParser();
+        // The lookups and hits since the last flush to the metrics
+        private int lookups = 0;
+        private int hits = 0;
+
+        /**
+         * Encodes the peer IP and the prefix of an elem without copying them out of the line
+         * @param elem the elem
+         * @return false if the peer IP or the prefix is not a valid address
+         */
+        boolean parse(BgpElem elem) {
+            return parse(elem.buffer(), elem.fieldStart(BgpElem.PEER_IP), elem.fieldEnd(BgpElem.PEER_IP),
+                    elem.fieldStart(BgpElem.PREFIX), elem.fieldEnd(BgpElem.PREFIX));
+        }
+
+        /**
+         * @param peerIp the peer IP as text
+         * @param prefix the prefix as text, e.g. 192.0.2.0/24
+         * @return false if the peer IP or the prefix is not a valid address
+         */
+        boolean parse(String peerIp, String prefix) {
+            byte[] peer = peerIp.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] pfx = prefix.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] buf = Arrays.copyOf(peer, peer.length + pfx.length);
+            System.arraycopy(pfx, 0, buf, peer.length, pfx.length);
+            return parse(buf, 0, peer.length, peer.length, buf.length);
+        }
+
+        private boolean parse(byte[] buf, int peerFrom, int peerTo, int prefixFrom, int prefixTo) {
+            peerFamily = parser.parse(buf, peerFrom, peerTo);
+            if (peerFamily == 0) {
+                return false;
+            }
+            peerHigh = parser.high;
+            peerLow = parser.low;
+            int family = parser.parsePrefix(buf, prefixFrom, prefixTo);
+            if (family == 0) {
+                return false;
+            }
+            prefixHigh = parser.high;
+            prefixLow = parser.low;
+            prefixMeta = family << 8 | parser.length;
+            return true;
+        }
+
+        private void countLookup(boolean hit) {
+            if (hit) {
+                hits++;
+            }
+            if (++lookups == METRICS_BATCH) {
+                flushMetrics();
+            }
+        }
+
+        /**
+         * Adds the lookups counted since the last flush to the metrics, called when the thread stops using the key
+         */
+        void flushMetrics() {
+            Metrics.LOOKUPS.add(lookups);
+            Metrics.LOOKUP_HITS.add(hits);
+            lookups = hits = 0;
+        }
+    }
+
+    /**
+     * Packed communities as a hash key, compared by value
+     */
+    private static final class PackedCommunities {
+        private final int[] values;
+
+        PackedCommunities(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PackedCommunities && Arrays.equals(values, ((PackedCommunities) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * Adds a route, or replaces the route with the same peer IP and prefix. The new route has no status changes.
+     * @param key the encoded peer IP and prefix of the route
+     * @param targetCommunity the target community that annotates the route
+     * @param attachedCommunities all the communities of the route, packed with {@link Community#packAll(BgpElem)}
+     * @param nearEnd the near-end ASN of the annotated link
+     * @param farEnd the far-end ASN of the annotated link
+     * @return the row of the route
+     */
+    int add(Key key, Community targetCommunity, int[] attachedCommunities, int nearEnd, int farEnd) {
+        int peer = peers.add(key.peerHigh, key.peerLow, key.peerFamily);
+        int prefix = prefixes.add(key.prefixHigh, key.prefixLow, key.prefixMeta);
+        int row = keys.add(peer, prefix, 0);
+        if (row >= status.length) {
+            grow(Math.max(row + 1, status.length * 2));
+        }
+        if (!isLive(row)) {
+            size++;
+            Metrics.ROUTES_ADDED.increment();
+        } else if (timeline != null) {
+            retract(row);
+        }
+        targets[row] = intern(targetCommunity);
+        communities[row] = intern(attachedCommunities);
+        nearEnds[row] = nearEnd;
+        farEnds[row] = farEnd;
+        status[row] = 0;
+        changeCounts[row] = 0;
+        evicted.clear(row);
+        if (changes[row] == null) {
+            changes[row] = NO_CHANGES;
+        }
+        return row;
+    }
+
+    private void grow(int capacity) {
+        targets = Arrays.copyOf(targets, capacity);
+        communities = Arrays.copyOf(communities, capacity);
+        nearEnds = Arrays.copyOf(nearEnds, capacity);
+        farEnds = Arrays.copyOf(farEnds, capacity);
+        status = Arrays.copyOf(status, capacity);
+        changes = Arrays.copyOf(changes, capacity);
+        changeCounts = Arrays.copyOf(changeCounts, capacity);
+    }
+
+    private int intern(Community community) {
+        Integer id = targetIds.get(community);
+        if (id == null) {
+            id = targetValues.size();
+            targetValues.add(community);
+            targetIds.put(community, id);
+        }
+        return id;
+    }
+
+    private int intern(int[] packed) {
+        PackedCommunities key = new PackedCommunities(packed);
+        Integer id = communityIds.get(key);
+        if (id == null) {
+            id = communityValues.size();
+            communityValues.add(packed);
+            communityIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param key the encoded peer IP and prefix
+     * @return the row of the route, or {@link #NONE} if there is no such route
+     */
+    int find(Key key) {
+        int peer = peers.get(key.peerHigh, key.peerLow, key.peerFamily);
+        if (peer == LongPairIndex.MISSING) {
+            return NONE;
+        }
+        int prefix = prefixes.get(key.prefixHigh, key.prefixLow, key.prefixMeta);
+        if (prefix == LongPairIndex.MISSING) {
+            return NONE;
+        }
+        int row = keys.get(peer, prefix, 0);
+        return row == LongPairIndex.MISSING || !isLive(row) ? NONE : row;
+    }
+
+    /**
+     * Looks up the route of an elem
+     * @param elem the elem
+     * @param key the scratch key in which the peer IP and the prefix of the elem are encoded, and the lookup counted
+     * @return the row of the route, or {@link #NONE} if there is no such route
+     */
+    int find(BgpElem elem, Key key) {
+        int row = key.parse(elem) ? find(key) : NONE;
+        key.countLookup(row != NONE);
+        return row;
+    }
+
+    int find(String peerIp, String prefix) {
+        Key key = new Key();
+        return key.parse(peerIp, prefix) ? find(key) : NONE;
+    }
+
+    void remove(int row) {
+        if (isLive(row)) {
+            if (timeline != null) {
+                retract(row);
+            }
+            status[row] = REMOVED;
+            changes[row] = NO_CHANGES;
+            changeCounts[row] = 0;
+            evicted.clear(row);
+            size--;
+            Metrics.ROUTES_REMOVED.increment();
+        }
+    }
+
+    /**
+     * Records a change of the status of a route
+     * @param row the row of the route
+     * @param newStatus 1 for an activated route, 0 for a withdrawn route
+     * @param ts the epoch timestamp of the change
+     */
+    void updateStatus(int row, int newStatus, int ts) {
+        if (newStatus == status[row]) {
+            return;
+        }
+        status[row] = (byte) newStatus;
+        (newStatus == 0 ? Metrics.WITHDRAWALS : Metrics.ACTIVATIONS).increment();
+        if (timeline != null) {
+            timeline.add(targetCommunity(row), ts, newStatus == 0 ? -1 : 1);
+            ChangeDetector detector = timeline.detector();
+            if (detector != null) {
+                detector.observe(targetCommunity(row), nearEnds[row], farEnds[row], ts, newStatus == 0 ? -1 : 1);
+            }
+            if (!keepHistory) {
+                return;
+            }
+        }
+        int count = changeCounts[row];
+        int[] rowChanges = changes[row];
+        if (count == rowChanges.length) {
+            rowChanges = Arrays.copyOf(rowChanges, Math.max(2, count * 2));
+            changes[row] = rowChanges;
+        }
+        rowChanges[count] = newStatus == 0 ? ~ts : ts;
+        changeCounts[row] = count + 1;
+    }
+
+    /**
+     * Starts adding the status changes of the routes to a timeline. The changes that the routes already have are
+     * added to the timeline first.
+     * @param timeline the timeline, which can be shared by several tables
+     * @param keepHistory false to stop recording the status changes in the routes, so the memory doesn't grow with
+     *                    the number of changes. The routes can't be removed or replaced anymore then.
+     */
+    void trackTimeline(CommunityTimeline timeline, boolean keepHistory) {
+        for (int row = 0; row < rows(); row++) {
+            if (!isLive(row)) {
+                continue;
+            }
+            Community target = targetCommunity(row);
+            for (int i = 0; i < changeCounts[row]; i++) {
+                int change = changes[row][i];
+                timeline.add(target, changeTimestamp(change), isActivation(change) ? 1 : -1);
+            }
+            if (!keepHistory) {
+                changes[row] = NO_CHANGES;
+                changeCounts[row] = 0;
+            }
+        }
+        this.timeline = timeline;
+        this.keepHistory = keepHistory;
+        if (timeline.detector() != null) {
+            countActivated(timeline.detector(), 1);
+        }
+    }
+
+    /**
+     * Adds the next status changes of the routes to a timeline that already contains their previous changes, e.g. a
+     * timeline restored from a checkpoint together with the routes
+     * @param timeline the timeline
+     * @param keepHistory false to stop recording the status changes in the routes
+     */
+    void resumeTimeline(CommunityTimeline timeline, boolean keepHistory) {
+        this.timeline = timeline;
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * Stops adding the status changes of the routes to the timeline, and withdraws all the activated routes from the
+     * timeline at the given time, e.g. when the routes are replaced by the routes of a new bootstrap
+     * @param ts the epoch timestamp at which the routes leave the timeline
+     */
+    void untrackTimeline(int ts) {
+        if (timeline == null) {
+            return;
+        }
+        for (int row = 0; row < rows(); row++) {
+            if (isLive(row) && status[row] == 1) {
+                timeline.add(targetCommunity(row), ts, -1);
+            }
+        }
+        if (timeline.detector() != null) {
+            countActivated(timeline.detector(), -1);
+        }
+        timeline = null;
+    }
+
+    /**
+     * Adds or subtracts the activated routes to the series of a change-point detector, without checking them
+     * @param detector the detector
+     * @param delta 1 to add the routes, -1 to subtract them
+     */
+    void countActivated(ChangeDetector detector, int delta) {
+        for (int row = 0; row < rows(); row++) {
+            if (isLive(row) && status[row] == 1) {
+                detector.adjust(targetCommunity(row), nearEnds[row], farEnds[row], delta);
+            }
+        }
+    }
+
+    /**
+     * Drops the status changes that are older than a timestamp from the history of the routes. The status of the
+     * routes is kept. Routes whose history has been evicted can't be removed from a tracked timeline anymore, and
+     * removing or replacing them throws an IllegalStateException.
+     * @param before the epoch timestamp of the oldest change to keep
+     */
+    void evictHistory(int before) {
+        for (int row = 0; row < rows(); row++) {
+            int count = changeCounts[row];
+            if (!isLive(row) || count == 0 || changeTimestamp(changes[row][0]) >= before) {
+                continue;
+            }
+            int[] rowChanges = changes[row];
+            int first = 0;
+            while (first < count && changeTimestamp(rowChanges[first]) < before) {
+                first++;
+            }
+            changes[row] = first == count ? NO_CHANGES : Arrays.copyOfRange(rowChanges, first, count);
+            changeCounts[row] = count - first;
+            evicted.set(row);
+        }
+    }
+
+    /**
+     * Subtracts the status changes of a route that is removed from the timeline
+     */
+    private void retract(int row) {
+        if (!keepHistory) {
+            throw new IllegalStateException("Routes can't be removed from the timeline without their history");
+        }
+        if (evicted.get(row)) {
+            throw new IllegalStateException("Route " + peerIp(row) + " " + prefix(row) +
+                    " can't be removed from the timeline after its history was evicted");
+        }
+        Community target = targetCommunity(row);
+        for (int i = 0; i < changeCounts[row]; i++) {
+            int change = changes[row][i];
+            timeline.add(target, changeTimestamp(change), isActivation(change) ? -1 : 1);
+        }
+        if (status[row] == 1 && timeline.detector() != null) {
+            timeline.detector().adjust(target, nearEnds[row], farEnds[row], -1);
+        }
+    }
+
+    /**
+     * @return the number of row IDs, including the removed routes, to iterate over the rows with {@link #isLive}
+     */
+    int rows() {
+        return keys.size();
+    }
+
+    boolean isLive(int row) {
+        // the columns of a row that was never added are still empty
+        return changes[row] != null && status[row] != REMOVED;
+    }
+
+    /**
+     * @return the number of routes in the table
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    String peerIp(int row) {
+        int peer = (int) keys.high(row);
+        StringBuilder sb = new StringBuilder(40);
+        appendAddress(sb, peers.high(peer), peers.low(peer), peers.meta(peer));
+        return sb.toString();
+    }
+
+    String prefix(int row) {
+        int prefix = (int) keys.low(row);
+        int meta = prefixes.meta(prefix);
+        StringBuilder sb = new StringBuilder(44);
+        appendAddress(sb, prefixes.high(prefix), prefixes.low(prefix), meta >>> 8);
+        return sb.append('/').append(meta & 0xFF).toString();
+    }
+
+    Community targetCommunity(int row) {
+        return targetValues.get(targets[row]);
+    }
+
+    /**
+     * @return the attached communities of the route, packed as in {@link Community#packAll(BgpElem)}, not to be
+     * modified
+     */
+    int[] communities(int row) {
+        return communityValues.get(communities[row]);
+    }
+
+    int nearEnd(int row) {
+        return nearEnds[row];
+    }
+
+    int farEnd(int row) {
+        return farEnds[row];
+    }
+
+    /**
+     * @return 1 if the route is activated, 0 if it's withdrawn
+     */
+    int status(int row) {
+        return status[row];
+    }
+
+    int changeCount(int row) {
+        return changeCounts[row];
+    }
+
+    /**
+     * @param row the row of the route
+     * @param i the index of the change, in the order of the changes
+     * @return the change, to be decoded with {@link #isActivation(int)} and {@link #changeTimestamp(int)}
+     */
+    int change(int row, int i) {
+        return changes[row][i];
+    }
+
+    static boolean isActivation(int change) {
+        return change >= 0;
+    }
+
+    static int changeTimestamp(int change) {
+        return change >= 0 ? change : ~change;
+    }
+
+    /**
+     * Copies the routes of another table, replacing the routes with the same peer IP and prefix
+     * @param other the table to copy
+     */
+    void addAll(RouteTable other) {
+        Key key = new Key();
+        for (int row = 0; row < other.rows(); row++) {
+            if (!other.isLive(row)) {
+                continue;
+            }
+            int peer = (int) other.keys.high(row);
+            int prefix = (int) other.keys.low(row);
+            key.peerHigh = other.peers.high(peer);
+            key.peerLow = other.peers.low(peer);
+            key.peerFamily = other.peers.meta(peer);
+            key.prefixHigh = other.prefixes.high(prefix);
+            key.prefixLow = other.prefixes.low(prefix);
+            key.prefixMeta = other.prefixes.meta(prefix);
+            int copy = add(key, other.targetCommunity(row), other.communities(row), other.nearEnds[row],
+                    other.farEnds[row]);
+            status[copy] = other.status[row];
+            changes[copy] = Arrays.copyOf(other.changes[row], other.changeCounts[row]);
+            changeCounts[copy] = other.changeCounts[row];
+            evicted.set(copy, other.evicted.get(row));
+        }
+    }
+
+    /**
+     * Copy of the columns that change while the routes are monitored, i.e. the status and the history of the
+     * routes. The keys and the annotations of the routes only change when routes are added, so they are not copied,
+     * and the change arrays are only appended to, or replaced, so the copy shares them.
+     */
+    static final class StatusSnapshot {
+        private final int rows;
+        private final byte[] status;
+        private final int[] changeCounts;
+        private final int[][] changes;
+
+        private StatusSnapshot(RouteTable table) {
+            rows = table.rows();
+            status = Arrays.copyOf(table.status, rows);
+            changeCounts = Arrays.copyOf(table.changeCounts, rows);
+            changes = Arrays.copyOf(table.changes, rows);
+        }
+
+        private boolean isLive(int row) {
+            return changes[row] != null && status[row] != REMOVED;
+        }
+    }
+
+    /**
+     * Copies the status of the routes, to be written with {@link #write(DataOutputStream, StatusSnapshot)} while
+     * the routes keep being monitored. Routes must not be added until the snapshot is written.
+     * @return the copy
+     */
+    StatusSnapshot snapshotStatus() {
+        return new StatusSnapshot(this);
+    }
+
+    /**
+     * Writes the live routes with their status as of a snapshot (big-endian):
+     * <route-count>|for every route: <peer family>|<peer high>|<peer low>|<prefix meta>|<prefix high>|<prefix low>|
+     *  <target large flag>|<target fields as 3 ints>|<attached count>|<attached as ints>|<near-end>|<far-end>|
+     *  <status>|<change count>|<changes as ints>
+     * @param out the output
+     * @param snapshot the status of the routes
+     * @throws IOException if the output fails
+     */
+    void write(DataOutputStream out, StatusSnapshot snapshot) throws IOException {
+        int live = 0;
+        for (int row = 0; row < snapshot.rows; row++) {
+            if (snapshot.isLive(row)) {
+                live++;
+            }
+        }
+        out.writeInt(live);
+        for (int row = 0; row < snapshot.rows; row++) {
+            if (!snapshot.isLive(row)) {
+                continue;
+            }
+            int peer = (int) keys.high(row);
+            int prefix = (int) keys.low(row);
+            out.writeInt(peers.meta(peer));
+            out.writeLong(peers.high(peer));
+            out.writeLong(peers.low(peer));
+            out.writeInt(prefixes.meta(prefix));
+            out.writeLong(prefixes.high(prefix));
+            out.writeLong(prefixes.low(prefix));
+            Community target = targetCommunity(row);
+            out.writeBoolean(target.large);
+            out.writeInt(target.global);
+            out.writeInt(target.local1);
+            out.writeInt(target.local2);
+            int[] attached = communities(row);
+            out.writeInt(attached.length);
+            for (int value : attached) {
+                out.writeInt(value);
+            }
+            out.writeInt(nearEnds[row]);
+            out.writeInt(farEnds[row]);
+            out.writeByte(snapshot.status[row]);
+            int count = snapshot.changeCounts[row];
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(snapshot.changes[row][i]);
+            }
+        }
+    }
+
+    /**
+     * Reads routes written by {@link #write(DataOutputStream, StatusSnapshot)} into the table
+     * @param in the input
+     * @throws IOException if the input fails
+     */
+    void read(DataInputStream in) throws IOException {
+        Key key = new Key();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            key.peerFamily = in.readInt();
+            key.peerHigh = in.readLong();
+            key.peerLow = in.readLong();
+            key.prefixMeta = in.readInt();
+            key.prefixHigh = in.readLong();
+            key.prefixLow = in.readLong();
+            Community target = Community.of(in.readBoolean(), in.readInt(), in.readInt(), in.readInt());
+            int[] attached = new int[in.readInt()];
+            for (int j = 0; j < attached.length; j++) {
+                attached[j] = in.readInt();
+            }
+            int row = add(key, target, attached, in.readInt(), in.readInt());
+            status[row] = in.readByte();
+            int changeCount = in.readInt();
+            int[] rowChanges = new int[changeCount];
+            for (int j = 0; j < changeCount; j++) {
+                rowChanges[j] = in.readInt();
+            }
+            changes[row] = changeCount == 0 ? NO_CHANGES : rowChanges;
+            changeCounts[row] = changeCount;
+        }
+    }
+
+    /**
+     * Appends an IPv4 address in dotted decimal, or an IPv6 address in the compressed form of inet_ntop
+     */
+    private static void appendAddress(StringBuilder sb, long high, long low, int family) {
+        if (family == 4) {
+            sb.append(low >>> 24 & 0xFF).append('.').append(low >>> 16 & 0xFF).append('.')
+                    .append(low >>> 8 & 0xFF).append('.').append(low & 0xFF);
+            return;
+        }
+        int[] groups = new int[8];
+        for (int g = 0; g < 4; g++) {
+            groups[g] = (int) (high >>> (48 - 16 * g) & 0xFFFF);
+            groups[g + 4] = (int) (low >>> (48 - 16 * g) & 0xFFFF);
+        }
+        // The longest run of at least two zero groups is replaced by ::
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = j;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append(i == 0 ? "::" : ":");
+                i += bestLength - 1;
+                continue;
+            }
+            sb.append(Integer.toHexString(groups[i]));
+            if (i < 7) {
+                sb.append(':');
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package vgiotsas;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Producer/consumer pipeline that parses a BGP stream on several threads. The reader stage (the calling thread) cuts
+ * the stream into batches of lines, one batch per shard, and every worker stage consumes the batches of its shard on
+ * its own thread. The shard of an elem is the hash of its (peer IP, prefix), so all the elems of a route are
+ * processed in order by the same worker and the route state needs no locks.
+ */
+class ShardedPipeline {
+
+    /**
+     * The stage that processes the elems of one shard. A worker is only called from its own thread.
+     */
+    interface Worker {
+        void accept(BgpElem elem);
+
+        /**
+         * @return true if the worker doesn't need more elems
+         */
+        boolean done();
+    }
+
+    /**
+     * A point of the stream where all the workers must have processed all the previous elems, e.g. to take a
+     * consistent checkpoint of their state. Both methods are called from the reader stage.
+     */
+    interface Barrier {
+        /**
+         * @param ts the timestamp of the next elem
+         * @return true if the workers must be stopped before the elem
+         */
+        boolean due(int ts);
+
+        /**
+         * Called while the workers are idle, after they have processed all the elems before the next one
+         * @param ts the timestamp of the next elem
+         */
+        void reached(int ts);
+    }
+
+    private static final ElemBatch EOF = new ElemBatch(0, 0);
+    private static final ElemBatch BARRIER = new ElemBatch(0, 0);
+
+    private final List<? extends Worker> workers;
+    private final int batchSize;
+    private final List<BlockingQueue<ElemBatch>> queues = new ArrayList<>();
+    private final AtomicLongArray processed;
+    private final int reportSeconds;
+    // The number of workers that don't need more elems
+    private final AtomicInteger doneWorkers = new AtomicInteger();
+    private volatile RuntimeException failure = null;
+    private volatile CountDownLatch barrierLatch = null;
+
+    /**
+     * @param workers one worker per shard
+     * @param batchSize the number of lines per batch
+     * @param queueDepth the maximum number of batches that are queued for every worker
+     * @param reportSeconds the interval between the reports of the queue depths, 0 to disable the reports
+     */
+    ShardedPipeline(List<? extends Worker> workers, int batchSize, int queueDepth, int reportSeconds) {
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.reportSeconds = reportSeconds;
+        this.processed = new AtomicLongArray(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueDepth));
+        }
+    }
+
+    /**
+     * Dispatches all the elems of the source to the workers and waits until the workers have processed them
+     * @param source the BGP stream
+     * @throws IOException if reading from the source fails
+     */
+    void run(ElemSource source) throws IOException {
+        run(source, null);
+    }
+
+    /**
+     * Dispatches all the elems of the source to the workers and waits until the workers have processed them
+     * @param source the BGP stream
+     * @param barrier the points of the stream where the workers are stopped, or null
+     * @throws IOException if reading from the source fails
+     */
+    void run(ElemSource source, Barrier barrier) throws IOException {
+        int shards = workers.size();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            final int shard = i;
+            Thread t = new Thread(() -> work(shard), "shard-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        Thread reporter = null;
+        if (reportSeconds > 0) {
+            reporter = new Thread(this::report, "pipeline-report");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+        Metrics.Registration backlog = Metrics.gauge("pipeline_queued_batches",
+                "Batches of elems queued for the workers of the pipeline", () -> {
+                    long queued = 0;
+                    for (BlockingQueue<ElemBatch> queue : queues) {
+                        queued += queue.size();
+                    }
+                    return queued;
+                });
+
+        ElemBatch[] batches = new ElemBatch[shards];
+        for (int i = 0; i < shards; i++) {
+            batches[i] = newBatch();
+        }
+        BgpElem elem = new BgpElem();
+        try {
+            while (failure == null && source.next(elem)) {
+                if (barrier != null && barrier.due(elem.timestamp())) {
+                    for (int i = 0; i < shards; i++) {
+                        if (batches[i].count > 0) {
+                            put(i, batches[i]);
+                            batches[i] = newBatch();
+                        }
+                    }
+                    awaitWorkers();
+                    if (failure != null) {
+                        break;
+                    }
+                    barrier.reached(elem.timestamp());
+                }
+                int shard = Math.floorMod(routeHash(elem), shards);
+                if (!batches[shard].add(elem)) {
+                    put(shard, batches[shard]);
+                    if (doneWorkers.get() == shards) {
+                        break;
+                    }
+                    batches[shard] = newBatch();
+                    batches[shard].add(elem);
+                }
+            }
+            for (int i = 0; i < shards; i++) {
+                if (batches[i].count > 0) {
+                    put(i, batches[i]);
+                }
+            }
+        } finally {
+            for (int i = 0; i < shards; i++) {
+                put(i, EOF);
+            }
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (reporter != null) {
+                reporter.interrupt();
+            }
+            backlog.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        System.out.println("Elems processed by shard: " + processedByShard());
+    }
+
+    /**
+     * Waits until all the workers have processed the batches that are queued for them
+     */
+    private void awaitWorkers() throws IOException {
+        CountDownLatch latch = new CountDownLatch(workers.size());
+        barrierLatch = latch;
+        for (int i = 0; i < workers.size(); i++) {
+            put(i, BARRIER);
+        }
+        try {
+            while (failure == null && !latch.await(1, TimeUnit.SECONDS)) {
+                // check for a failed worker, which would never reach the barrier
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers", e);
+        }
+    }
+
+    private ElemBatch newBatch() {
+        return new ElemBatch(batchSize, batchSize * 256);
+    }
+
+    private void put(int shard, ElemBatch batch) throws IOException {
+        try {
+            queues.get(shard).put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while dispatching the elems", e);
+        }
+    }
+
+    private void work(int shard) {
+        Worker worker = workers.get(shard);
+        BlockingQueue<ElemBatch> queue = queues.get(shard);
+        BgpElem elem = new BgpElem();
+        boolean done = false;
+        try {
+            while (true) {
+                ElemBatch batch = queue.take();
+                if (batch == EOF) {
+                    break;
+                }
+                if (batch == BARRIER) {
+                    barrierLatch.countDown();
+                    continue;
+                }
+                // Once the worker is done the rest of its batches are only drained
+                if (done) {
+                    continue;
+                }
+                for (int i = 0; i < batch.count; i++) {
+                    batch.wrap(i, elem);
+                    worker.accept(elem);
+                }
+                processed.addAndGet(shard, batch.count);
+                if (worker.done()) {
+                    done = true;
+                    doneWorkers.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure = e;
+            // keep draining the queue, so that the reader stage doesn't block on it
+            queue.clear();
+            while (true) {
+                try {
+                    ElemBatch batch = queue.take();
+                    if (batch == EOF) {
+                        break;
+                    }
+                    if (batch == BARRIER) {
+                        barrierLatch.countDown();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of batches waiting in the queue of every shard
+     */
+    int[] queueDepths() {
+        int[] depths = new int[queues.size()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = queues.get(i).size();
+        }
+        return depths;
+    }
+
+    private String processedByShard() {
+        long[] counts = new long[processed.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = processed.get(i);
+        }
+        return Arrays.toString(counts);
+    }
+
+    private void report() {
+        try {
+            while (true) {
+                Thread.sleep(reportSeconds * 1000L);
+                System.out.println("Pipeline queue depths (batches): " + Arrays.toString(queueDepths()) +
+                        ", elems processed by shard: " + processedByShard());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hashes the peer IP and the prefix of an elem without copying them out of the line
+     * @param elem the elem
+     * @return the hash of the route of the elem
+     */
+    static int routeHash(BgpElem elem) {
+        byte[] buf = elem.buffer();
+        int h = 1;
+        for (int i = elem.fieldStart(BgpElem.PEER_IP); i < elem.fieldEnd(BgpElem.PEER_IP); i++) {
+            h = 31 * h + buf[i];
+        }
+        h = 31 * h + '|';
+        for (int i = elem.fieldStart(BgpElem.PREFIX); i < elem.fieldEnd(BgpElem.PREFIX); i++) {
+            h = 31 * h + buf[i];
+        }
+        // spread the low bits, the shard is the hash modulo a small number
+        return h ^ (h >>> 16);
+    }
+}
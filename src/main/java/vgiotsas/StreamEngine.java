@@ -0,0 +1,260 @@
+package vgiotsas;
+
+import java.util.HashSet;
+
+/**
+ * Single-pass state machine over one time-ordered stream of RIB entries and updates. Instead of running bgpreader
+ * once per phase, every (peer, prefix) route moves through the phases as the timestamps of its own elems advance:
+ * <ul>
+ *     <li>bootstrap, before the start of the measurement period: RIB entries and announcements with a target
+ *     community create the route, the ones without it (and withdrawals) discard it;</li>
+ *     <li>stability, for stability_hours after the start: any change of the route (missing target community or
+ *     withdrawal) discards it as unstable;</li>
+ *     <li>monitoring, until the end of the measurement period: announcements and withdrawals update the status of
+ *     the route.</li>
+ * </ul>
+ * New routes are only discovered during the bootstrap phase, the same as with the separate passes.
+ *
+ * When the stream is sharded with a {@link ShardedPipeline}, every shard has its own engine and the routes of the
+ * engines are merged at the end. The engines can share a {@link CommunityTimeline}, to which the status changes of
+ * the routes are added from the start of the monitoring phase.
+ */
+class StreamEngine implements ShardedPipeline.Worker {
+
+    static final int BOOTSTRAP = 0;
+    static final int STABILITY = 1;
+    static final int MONITORING = 2;
+    static final int FINISHED = 3;
+
+    static final String[] PHASE_NAMES = {"bootstrap", "stability", "monitoring", "finished"};
+
+    private final CommunitiesParser parser;
+    private final int start;
+    private final int stabilityEnd;
+    private final int end;
+    private final boolean report;
+    private final Metrics.Phases phases;
+
+    private final HashSet<String> collectors = new HashSet<>();
+    private final HashSet<String> peers = new HashSet<>();
+    private final HashSet<String> prefixes = new HashSet<>();
+    private final RouteTable routes = new RouteTable();
+    private final Result result = new Result(collectors, peers, prefixes, routes);
+
+    private final AsPath path = new AsPath();
+    private final RouteTable.Key key = new RouteTable.Key();
+    // The phase of the latest elem, used to report when the stream crosses a phase boundary
+    private int phase = BOOTSTRAP;
+    private long elems = 0;
+    private long unstable = 0;
+    private int routesAfterBootstrap = 0;
+    private int routesAfterStability = 0;
+    private CommunityTimeline timeline = null;
+    private boolean keepHistory = true;
+
+    /**
+     * @param parser the parser that annotates the routes, its targets must have been indexed
+     * @param start the start of the measurement period, where the bootstrap phase ends
+     * @param stabilityEnd the end of the stability phase
+     * @param end the end of the measurement period
+     * @param report true to print the number of routes when the stream crosses a phase boundary
+     * @param phases the timing of the phases, shared by the engines of the shards of the stream
+     */
+    StreamEngine(CommunitiesParser parser, int start, int stabilityEnd, int end, boolean report,
+                 Metrics.Phases phases) {
+        this.parser = parser;
+        this.start = start;
+        this.stabilityEnd = stabilityEnd;
+        this.end = end;
+        this.report = report;
+        this.phases = phases;
+        phases.enter(BOOTSTRAP);
+    }
+
+    /**
+     * Sets the timeline that the routes are added to when the stream enters the monitoring phase
+     * @param timeline the timeline, shared by the engines of the shards
+     * @param keepHistory false to drop the status changes of every route once they are added to the timeline
+     */
+    void trackTimeline(CommunityTimeline timeline, boolean keepHistory) {
+        this.timeline = timeline;
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * @param ts an epoch timestamp in seconds
+     * @return the phase of the elems with the given timestamp
+     */
+    int phaseOf(int ts) {
+        if (ts < start) {
+            return BOOTSTRAP;
+        }
+        if (ts < stabilityEnd) {
+            return STABILITY;
+        }
+        return ts < end ? MONITORING : FINISHED;
+    }
+
+    /**
+     * Moves the route of an elem through its phases
+     * @param elem a RIB entry, an announcement or a withdrawal
+     */
+    @Override
+    public void accept(BgpElem elem) {
+        accept(elem, true);
+    }
+
+    /**
+     * Moves the route of an elem through its phases, when it's already known whether the elem has a target
+     * community, e.g. when the communities of the elem have been matched against the targets of several queries
+     * @param elem a RIB entry, an announcement or a withdrawal
+     * @param tagged false if the elem has none of the target communities, so it can only discard or withdraw the
+     *               route of its peer and prefix
+     */
+    void accept(BgpElem elem, boolean tagged) {
+        elems++;
+        int ts = elem.timestamp();
+        int elemPhase = phaseOf(ts);
+        if (elemPhase > phase) {
+            advance(elemPhase);
+        }
+        if (!tagged && routes.isEmpty()) {
+            return;
+        }
+        char elemType = elem.elemType();
+        switch (elemPhase) {
+            case BOOTSTRAP:
+                bootstrap(elem, elemType, tagged);
+                break;
+            case STABILITY:
+                if (routes.isEmpty()) {
+                    return;
+                }
+                int candidate = routes.find(elem, key);
+                if (candidate != RouteTable.NONE && (elemType == 'W' || !tagged ||
+                        !CommunitiesParser.hasCommunity(elem, routes.targetCommunity(candidate)))) {
+                    routes.remove(candidate);
+                    unstable++;
+                }
+                break;
+            case MONITORING:
+                if (routes.isEmpty()) {
+                    return;
+                }
+                int r = routes.find(elem, key);
+                if (r == RouteTable.NONE) {
+                    return;
+                }
+                // Only the updates change the status, the RIB entries of the period are ignored
+                if (elemType == 'A' && elem.fieldCount() > BgpElem.COMMUNITIES) {
+                    routes.updateStatus(r,
+                            tagged && CommunitiesParser.hasCommunity(elem, routes.targetCommunity(r)) ? 1 : 0, ts);
+                } else if (elemType == 'W') {
+                    routes.updateStatus(r, 0, ts);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void bootstrap(BgpElem elem, char elemType, boolean tagged) {
+        if (elemType != 'R' && elemType != 'A' && elemType != 'W' || !key.parse(elem)) {
+            return;
+        }
+        int annotated = elemType == 'W' || !tagged ? RouteTable.NONE : parser.annotate(elem, path, routes, key);
+        if (annotated != RouteTable.NONE) {
+            collectors.add(elem.field(BgpElem.COLLECTOR));
+            peers.add(elem.field(BgpElem.PEER_IP));
+            prefixes.add(elem.field(BgpElem.PREFIX));
+        } else {
+            // The latest state of the route is not annotated
+            int r = routes.find(key);
+            if (r != RouteTable.NONE) {
+                routes.remove(r);
+            }
+        }
+    }
+
+    private void advance(int next) {
+        for (int p = phase + 1; p <= next; p++) {
+            phases.enter(p);
+            if (p == STABILITY) {
+                routesAfterBootstrap = routeCount();
+                if (report) {
+                    System.out.println("Annotated routes after initial pass: " + routesAfterBootstrap);
+                }
+            } else if (p == MONITORING) {
+                routesAfterStability = routeCount();
+                if (timeline != null) {
+                    result.trackTimeline(timeline, keepHistory);
+                }
+                if (report) {
+                    System.out.println("Annotated routes after filtering: " + routesAfterStability + " (" +
+                            unstable + " unstable)");
+                }
+            }
+            if (report) {
+                System.out.println("Stream entered the " + PHASE_NAMES[p] + " phase after " + elems + " elems");
+            }
+        }
+        phase = next;
+    }
+
+    /**
+     * Moves the stream to the phase of a timestamp before any of its elems reaches this engine, e.g. so that every
+     * shard tracks the timeline when the monitored routes are checkpointed
+     * @param ts an epoch timestamp in seconds
+     */
+    void advanceTo(int ts) {
+        int next = phaseOf(ts);
+        if (next > phase) {
+            advance(next);
+        }
+    }
+
+    /**
+     * Closes the phases that the stream didn't reach, e.g. because the stream ended early, and adds the last lookups
+     * of the engine to the metrics
+     */
+    void finish() {
+        advance(FINISHED);
+        key.flushMetrics();
+    }
+
+    /**
+     * @return true if no route can be annotated anymore, so the rest of the stream can be skipped
+     */
+    @Override
+    public boolean done() {
+        return phase == FINISHED || phase > BOOTSTRAP && routes.isEmpty();
+    }
+
+    int phase() {
+        return phase;
+    }
+
+    Metrics.Phases phases() {
+        return phases;
+    }
+
+    int routesAfterBootstrap() {
+        return routesAfterBootstrap;
+    }
+
+    int routesAfterStability() {
+        return routesAfterStability;
+    }
+
+    long unstable() {
+        return unstable;
+    }
+
+    Result result() {
+        return result;
+    }
+
+    int routeCount() {
+        return routes.size();
+    }
+}
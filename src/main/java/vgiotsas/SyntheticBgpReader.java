@@ -0,0 +1,739 @@
+package vgiotsas;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local stand-in for bgpreader, which can be set as the bgpreader_bin to run the parser without a BGPStream install
+ * or remote archives. It prints elems in the output format of bgpreader v2, either generated from a seeded model of
+ * a route collector or replayed from a recorded bgpreader output, and it takes the -w, -t, -P, -c, -y, -j and -k
+ * options that the parser passes to bgpreader, with the same meaning.
+ *
+ * The generated stream has a RIB dump of every collector every dump_hours, with the routes of all the peers that are
+ * up, and between the dumps a constant rate of updates: announcements with the same attributes, announcements with a
+ * new path and communities that may add or drop the target community, and withdrawals that are announced again
+ * later. The sessions of the peers are reset at random, the peer goes down with a state message and when it comes
+ * back it announces all its routes again in a burst. A share of the routes carry one of the target communities, with
+ * the ASN that defines the community in the path so the community can be mapped to a link.
+ *
+ * Every update and every session reset is derived from the seed, the route or the peer and the bucket of absolute
+ * time it falls in, and the state of a route at any time is derived the same way, without generating the stream
+ * from the start of the window. So the elems of a window don't depend on where the window starts: the stream of
+ * -w a,c is the stream of -w a,b followed by the stream of -w b,c.
+ *
+ * Without an end in the window the stream is live: the elems are printed when the wall clock reaches their
+ * timestamp. With --rate the output is also limited to a number of elems per second of wall clock.
+ */
+public class SyntheticBgpReader {
+
+    // The kinds of the update of a route in a bucket
+    private static final int REPEAT = 0;
+    private static final int CHANGE = 1;
+    private static final int FLAP = 2;
+    private static final long WITHDRAWN = Long.MIN_VALUE;
+    // The salts of the hashes of the updates, the change phases, the targets and the sessions
+    private static final long UPDATE = 1;
+    private static final long PHASE = 2;
+    private static final long TARGET = 3;
+    private static final long SESSION = 4;
+
+    private static final int[] TRANSIT = {3356, 1299, 174, 6939, 6453, 3257, 6762, 2828};
+    private static final int ASN_POOL = 60000;
+    private static final int FIRST_PEER_ASN = 64512;
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+            1000000000};
+
+    @Option(name = "-w", required = true, usage = "Time window in epoch seconds: start[,end], live without an end.")
+    private String window = "";
+
+    @Option(name = "-t", usage = "Record type, ribs or updates, repeated for both. Both by default.")
+    private List<String> types = new ArrayList<>();
+
+    @Option(name = "-P", usage = "Minimum interval between the RIB dumps in seconds.")
+    private int ribPeriod = 0;
+
+    @Option(name = "-c", usage = "Collector, repeated for several collectors.")
+    private List<String> collectors = new ArrayList<>();
+
+    @Option(name = "-y", usage = "Community filter, repeated for several communities.")
+    private List<String> communityFilter = new ArrayList<>();
+
+    @Option(name = "-j", usage = "Peer filter (ASN or IP), repeated for several peers.")
+    private List<String> peerFilter = new ArrayList<>();
+
+    @Option(name = "-k", usage = "Prefix filter, matches the prefix and its more specifics, repeated for several " +
+            "prefixes.")
+    private List<String> prefixFilter = new ArrayList<>();
+
+    @Option(name = "--replay", usage = "Replay a recorded bgpreader output (optionally gz/bz2 compressed) instead " +
+            "of generating the elems.")
+    private String replay = "";
+
+    @Option(name = "--collector-count", usage = "Number of collectors when no collector is given with -c.")
+    private int collectorCount = 1;
+
+    @Option(name = "--peers", usage = "Number of full-feed peers of every collector.")
+    private int peers = 24;
+
+    @Option(name = "--prefixes", usage = "Number of prefixes in the table of every peer.")
+    private int prefixes = 50000;
+
+    @Option(name = "--target-communities", usage = "Comma-separated communities of the annotated routes.")
+    private String targetCommunities = "2914:1201";
+
+    @Option(name = "--target-share", usage = "Share of the routes with one of the target communities.")
+    private double targetShare = 0.05;
+
+    @Option(name = "--max-communities", usage = "Maximum number of other communities of a route.")
+    private int maxCommunities = 6;
+
+    @Option(name = "--dump-hours", usage = "Interval between the RIB dumps of a collector in hours.")
+    private int dumpHours = 8;
+
+    @Option(name = "--update-rate", usage = "Updates per second of stream time, over all the collectors.")
+    private double updateRate = 50;
+
+    @Option(name = "--churn", usage = "Share of the updates that change the route, the others repeat the " +
+            "announcement.")
+    private double churn = 0.3;
+
+    @Option(name = "--resets-per-day", usage = "Mean number of session resets of every peer per day.")
+    private double resetsPerDay = 0.5;
+
+    @Option(name = "--reset-seconds", usage = "Time a peer stays down after a session reset.")
+    private int resetSeconds = 300;
+
+    @Option(name = "--rate", usage = "Maximum elems per second of wall clock, 0 for no limit.")
+    private double rate = 0;
+
+    @Option(name = "--seed", usage = "Seed of the generated stream.")
+    private long seed = 1;
+
+    private int start;
+    private int end;
+    private boolean live;
+    private boolean ribs;
+    private boolean updates;
+    // true if the collectors were given with -c, otherwise all the collectors of a replayed output are printed
+    private boolean collectorFilter;
+
+    private final BgpElem elem = new BgpElem();
+    private final AddressParser addressParser = new AddressParser();
+    private PrefixTrie prefixTrie = null;
+    private final List<Community> filterCommunities = new ArrayList<>();
+    // true if any of the peer, prefix and community filters is set
+    private boolean filtered;
+
+    private String[] targets;
+    private int[] targetAsns;
+    private int routeCount;
+    // The bucket of every route in its period of changes, and the change at which its targets are drawn first
+    private int[] routePhases;
+    // The length of the buckets in which every route has one update, 0 without updates
+    private double updateSeconds;
+    // The number of buckets between the changes of a route, 0 if the routes don't change
+    private int changePeriod;
+    // The share of the updates that aren't changes that withdraw the route and announce it again
+    private double flapShare;
+    private int resetLength;
+    // The length of the buckets in which every peer is reset at most once, and the share of the reset buckets
+    private long sessionSeconds;
+    private double resetShare;
+
+    private byte[][] peerFields;
+    private byte[] line = new byte[1024];
+    private int length = 0;
+    private OutputStream out;
+    private long printed = 0;
+    private long startedNanos;
+
+    public static void main(String[] args) {
+        SyntheticBgpReader reader = new SyntheticBgpReader();
+        CmdLineParser parser = new CmdLineParser(reader);
+        try {
+            parser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java -cp BGPCommunitiesParser.jar vgiotsas.SyntheticBgpReader [options...]");
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        try {
+            reader.run(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        } catch (IOException e) {
+            // The parser closes the pipe when it doesn't need the rest of the stream
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Prints the elems of the window
+     * @param output the output of the elems, flushed at the end
+     * @throws IOException if the output fails
+     */
+    void run(OutputStream output) throws IOException {
+        String[] bounds = window.split(",");
+        start = Integer.parseInt(bounds[0].trim());
+        live = bounds.length < 2 || bounds[1].trim().isEmpty();
+        end = live ? Integer.MAX_VALUE : Integer.parseInt(bounds[1].trim());
+        ribs = types.isEmpty() || types.contains("ribs");
+        updates = types.isEmpty() || types.contains("updates");
+        for (String community : communityFilter) {
+            filterCommunities.add(Community.parse(community.trim()));
+        }
+        if (!prefixFilter.isEmpty()) {
+            prefixTrie = PrefixTrie.fromPrefixes(prefixFilter);
+        }
+        filtered = !peerFilter.isEmpty() || !prefixFilter.isEmpty() || !communityFilter.isEmpty();
+        collectorFilter = !collectors.isEmpty();
+        if (collectors.isEmpty()) {
+            for (int c = 0; c < collectorCount; c++) {
+                collectors.add(String.format("rrc%02d", c));
+            }
+        }
+
+        out = output;
+        startedNanos = System.nanoTime();
+        try {
+            if (replay.isEmpty()) {
+                generate();
+            } else {
+                replay();
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Prints the elems of a recorded bgpreader output that pass the filters
+     */
+    private void replay() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(replay), 1 << 16);
+        if (replay.endsWith(".gz") || replay.endsWith(".bz2")) {
+            try {
+                in = new CompressorStreamFactory().createCompressorInputStream(in);
+            } catch (CompressorException e) {
+                in.close();
+                throw new IOException("Unable to decompress " + replay, e);
+            }
+        }
+        try (BgpElemReader reader = new BgpElemReader(in)) {
+            BgpElem recorded = new BgpElem();
+            while (reader.next(recorded)) {
+                int ts = recorded.timestamp();
+                if (ts < start || ts >= end || !recordTypeMatches(recorded) || !collectorMatches(recorded) ||
+                        !accept(recorded)) {
+                    continue;
+                }
+                pace(ts);
+                out.write(recorded.buffer(), recorded.lineStart(), recorded.lineEnd() - recorded.lineStart());
+                out.write('\n');
+                printed++;
+            }
+        }
+    }
+
+    private boolean recordTypeMatches(BgpElem e) {
+        return e.fieldEquals(BgpElem.REC_TYPE, "R") ? ribs : updates;
+    }
+
+    private boolean collectorMatches(BgpElem e) {
+        if (!collectorFilter) {
+            return true;
+        }
+        for (String collector : collectors) {
+            if (e.fieldEquals(BgpElem.COLLECTOR, collector)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the peer, prefix and community filters, which bgpreader applies to every elem
+     * @param e the elem
+     * @return true if the elem passes all the filters
+     */
+    private boolean accept(BgpElem e) {
+        if (!peerFilter.isEmpty()) {
+            boolean matches = false;
+            for (String peer : peerFilter) {
+                if (e.fieldEquals(BgpElem.PEER_ASN, peer) || e.fieldEquals(BgpElem.PEER_IP, peer)) {
+                    matches = true;
+                    break;
+                }
+            }
+            if (!matches) {
+                return false;
+            }
+        }
+        if (prefixTrie != null && (!e.has(BgpElem.PREFIX) ||
+                !prefixTrie.matches(addressParser, e.buffer(), e.fieldStart(BgpElem.PREFIX),
+                        e.fieldEnd(BgpElem.PREFIX)))) {
+            return false;
+        }
+        if (!filterCommunities.isEmpty()) {
+            for (Community community : filterCommunities) {
+                if (CommunitiesParser.hasCommunity(e, community)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Generates the stream in timestamp order: the session resets, the RIB dumps and the updates. At the same
+     * timestamp the session events come first, then the dump, then the updates, and the updates are ordered by route.
+     */
+    private void generate() throws IOException {
+        int peerCount = collectors.size() * peers;
+        long routeCount = (long) peerCount * prefixes;
+        if (routeCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many routes: " + routeCount);
+        }
+        targets = targetCommunities.isEmpty() ? new String[0] : targetCommunities.split(",");
+        targetAsns = new int[targets.length];
+        for (int t = 0; t < targets.length; t++) {
+            targets[t] = targets[t].trim();
+            targetAsns[t] = Community.parse(targets[t]).asn();
+        }
+        peerFields = new byte[peerCount][];
+        this.routeCount = (int) routeCount;
+        updateSeconds = updateRate > 0 && routeCount > 0 ? routeCount / updateRate : 0;
+        changePeriod = churn > 0 ? Math.max(2, (int) Math.round(2 / Math.min(churn, 1))) : 0;
+        flapShare = changePeriod > 0 ? Math.max(0, (churn - 1.0 / changePeriod) / (1 - 1.0 / changePeriod)) : 0;
+        resetLength = Math.max(1, resetSeconds);
+        sessionSeconds = Math.max(3600, 2 * resetLength);
+        resetShare = Math.min(1, resetsPerDay * sessionSeconds / 86400);
+        routePhases = new int[this.routeCount];
+        for (int route = 0; route < routePhases.length; route++) {
+            long h = hash(PHASE, route, 0);
+            routePhases[route] = (int) (changePeriod > 0 ? h % changePeriod : 0) << 1 | (int) (h >>> 62 & 1);
+        }
+
+        // The dumps are at the multiples of their interval, or of the -P period rounded up to the interval
+        int dumpInterval = Math.max(1, dumpHours) * 3600;
+        long ribInterval = (long) dumpInterval * Math.max(1, (ribPeriod + dumpInterval - 1) / dumpInterval);
+        long nextDump = ribs ? ((long) start + ribInterval - 1) / ribInterval * ribInterval : Long.MAX_VALUE;
+        // The updates of a bucket of updateSeconds all fall in the bucket, and so do the session events of a bucket
+        // of sessionSeconds, so the buckets are generated one at a time
+        long updateBucket = updateSeconds > 0 ? (long) Math.floor(start / updateSeconds) - 1 : -1;
+        long sessionBucket = resetShare > 0 ? start / sessionSeconds : -1;
+        EventQueue updateEvents = new EventQueue();
+        EventQueue sessionEvents = new EventQueue();
+        while (true) {
+            while (updates && updateBucket >= 0 && updateEvents.isEmpty() &&
+                    (long) Math.floor(updateBucket * updateSeconds) < end) {
+                fillUpdates(updateBucket++, updateEvents);
+            }
+            while (updates && sessionBucket >= 0 && sessionEvents.isEmpty() && sessionBucket * sessionSeconds < end) {
+                fillSessions(sessionBucket++, sessionEvents);
+            }
+            long ts = Math.min(nextDump, Math.min(updateEvents.nextTs(), sessionEvents.nextTs()));
+            if (ts >= end) {
+                break;
+            }
+            pace((int) ts);
+            if (ts == sessionEvents.nextTs()) {
+                long event = sessionEvents.poll();
+                int peer = (int) (event >>> 1 & 0x7FFFFFFF);
+                boolean up = (event & 1) == 1;
+                printState((int) ts, peer, up);
+                if (up) {
+                    // The peer announces its full table again when the session is established
+                    printRoutes('U', 'A', (int) ts, peer);
+                }
+            } else if (ts == nextDump) {
+                for (int p = 0; p < peerCount; p++) {
+                    if (!isDown(p, ts)) {
+                        printRoutes('R', 'R', (int) ts, p);
+                    }
+                }
+                nextDump += ribInterval;
+            } else {
+                long event = updateEvents.poll();
+                int route = (int) (event >>> 1 & 0x7FFFFFFF);
+                if (isDown(route / prefixes, ts)) {
+                    continue;
+                }
+                if ((event & 1) == 0) {
+                    printRoute('U', 'W', (int) ts, route, 0);
+                } else {
+                    printRoute('U', 'A', (int) ts, route, version(route, updateEvents.bucket));
+                }
+            }
+        }
+    }
+
+    /**
+     * Events of one bucket, encoded as ts &lt;&lt; 32 | id &lt;&lt; 1 | flag and sorted, so the events of a
+     * timestamp are ordered by route or peer and a withdrawal comes before the announcement of the same route
+     */
+    private static final class EventQueue {
+        long[] events = new long[1024];
+        int count = 0;
+        int next = 0;
+        long bucket;
+
+        void reset(long bucket) {
+            this.bucket = bucket;
+            count = 0;
+            next = 0;
+        }
+
+        void add(long ts, int id, boolean flag) {
+            if (count == events.length) {
+                events = Arrays.copyOf(events, count * 2);
+            }
+            events[count++] = ts << 32 | (long) id << 1 | (flag ? 1 : 0);
+        }
+
+        void sort() {
+            Arrays.sort(events, 0, count);
+        }
+
+        boolean isEmpty() {
+            return next == count;
+        }
+
+        long nextTs() {
+            return next == count ? Long.MAX_VALUE : events[next] >>> 32;
+        }
+
+        long poll() {
+            return events[next++];
+        }
+    }
+
+    /**
+     * Adds the updates of a bucket of updateSeconds within the window: every route has one update in every bucket,
+     * at a time derived from the seed, the route and the bucket. The update changes the path and the communities of
+     * the route once every changePeriod buckets, withdraws the route and announces it again in the second half of
+     * the bucket at the flapShare rate, and repeats the announcement otherwise.
+     */
+    private void fillUpdates(long bucket, EventQueue queue) {
+        queue.reset(bucket);
+        for (int route = 0; route < routeCount; route++) {
+            long h = hash(UPDATE, route, bucket);
+            if (kind(route, bucket, h) == FLAP) {
+                addUpdate(queue, flapWithdrawal(bucket, h), route, false);
+                addUpdate(queue, flapAnnouncement(bucket, h), route, true);
+            } else {
+                addUpdate(queue, updateTs(bucket, h), route, true);
+            }
+        }
+        queue.sort();
+    }
+
+    private void addUpdate(EventQueue queue, long ts, int route, boolean announcement) {
+        if (ts >= start && ts < end) {
+            queue.add(ts, route, announcement);
+        }
+    }
+
+    /**
+     * Adds the session events of a bucket of sessionSeconds within the window: every peer is reset at most once in
+     * a bucket, at the resetShare rate, and the session is down for resetLength seconds within the bucket
+     */
+    private void fillSessions(long bucket, EventQueue queue) {
+        queue.reset(bucket);
+        for (int peer = 0; peer < peerFields.length; peer++) {
+            long reset = resetTs(peer, bucket);
+            if (reset >= 0) {
+                if (reset >= start && reset < end) {
+                    queue.add(reset, peer, false);
+                }
+                if (reset + resetLength >= start && reset + resetLength < end) {
+                    queue.add(reset + resetLength, peer, true);
+                }
+            }
+        }
+        queue.sort();
+    }
+
+    /**
+     * @return the time the session of a peer is reset in a bucket of sessionSeconds, or -1 if it isn't reset
+     */
+    private long resetTs(int peer, long bucket) {
+        long h = hash(SESSION, peer, bucket);
+        if (unit(h) >= resetShare) {
+            return -1;
+        }
+        return bucket * sessionSeconds + (long) (unit(mix(h)) * (sessionSeconds - resetLength));
+    }
+
+    /**
+     * @return true if the session of a peer is down at a timestamp, after the session events of the timestamp
+     */
+    private boolean isDown(int peer, long ts) {
+        if (resetShare <= 0) {
+            return false;
+        }
+        long reset = resetTs(peer, ts / sessionSeconds);
+        return reset >= 0 && reset <= ts && ts < reset + resetLength;
+    }
+
+    private int kind(int route, long bucket, long h) {
+        if (changePeriod > 0 && Math.floorMod(bucket - changePhase(route), changePeriod) == 0) {
+            return CHANGE;
+        }
+        return unit(h) < flapShare ? FLAP : REPEAT;
+    }
+
+    private long changePhase(int route) {
+        return routePhases[route] >>> 1;
+    }
+
+    /**
+     * @return the number of changes of a route up to its update in a bucket, which selects its path and communities
+     */
+    private long version(int route, long bucket) {
+        return changePeriod > 0 ? Math.floorDiv(bucket - changePhase(route), changePeriod) : 0;
+    }
+
+    /**
+     * @return true if a version of a route has one of the target communities. The targets are drawn again at every
+     * second change of the route, so half of the changes can add or drop the target community.
+     */
+    private boolean hasTarget(int route, long version) {
+        long draw = Math.floorDiv(version + (routePhases[route] & 1), 2);
+        return targets.length > 0 && unit(hash(TARGET, route, draw)) < targetShare;
+    }
+
+    private long updateTs(long bucket, long h) {
+        return (long) Math.floor((bucket + unit(mix(h))) * updateSeconds);
+    }
+
+    private long flapWithdrawal(long bucket, long h) {
+        return (long) Math.floor((bucket + unit(mix(h)) / 2) * updateSeconds);
+    }
+
+    private long flapAnnouncement(long bucket, long h) {
+        return (long) Math.floor((bucket + 0.5 + unit(mix(mix(h))) / 2) * updateSeconds);
+    }
+
+    /**
+     * @return the version of a route before the updates of a timestamp, or {@link #WITHDRAWN} if the route is
+     * withdrawn then
+     */
+    private long versionAt(int route, long ts) {
+        if (updateSeconds <= 0) {
+            return 0;
+        }
+        long bucket = (long) Math.floor(ts / updateSeconds);
+        long h = hash(UPDATE, route, bucket);
+        if (kind(route, bucket, h) == FLAP) {
+            return flapWithdrawal(bucket, h) < ts && flapAnnouncement(bucket, h) >= ts
+                    ? WITHDRAWN : version(route, bucket);
+        }
+        return version(route, updateTs(bucket, h) < ts ? bucket : bucket - 1);
+    }
+
+    private void printRoutes(char recType, char elemType, int ts, int peer) throws IOException {
+        for (int route = peer * prefixes; route < (peer + 1) * prefixes; route++) {
+            long version = versionAt(route, ts);
+            if (version != WITHDRAWN) {
+                printRoute(recType, elemType, ts, route, version);
+            }
+        }
+    }
+
+    private long hash(long salt, long id, long bucket) {
+        return mix(mix(seed ^ salt << 56 ^ id) ^ bucket * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * @return a double in [0, 1) from the bits of a hash
+     */
+    private static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-52;
+    }
+
+    /**
+     * Prints an elem of a route. The path and the communities are derived from the route and its version, so they
+     * only change when the route changes.
+     */
+    private void printRoute(char recType, char elemType, int ts, int route, long version) throws IOException {
+        int peer = route / prefixes;
+        int prefix = route % prefixes;
+        startLine(recType, elemType, ts, peer);
+        // prefix
+        append(1 + prefix / 65536 % 222).append('.').append(prefix / 256 % 256).append('.').append(prefix % 256)
+                .append(".0/24|");
+        if (elemType == 'W') {
+            append("||||||");
+        } else {
+            long h = mix(seed ^ (long) route << 8 ^ version);
+            int origin = 1 + (int) ((long) prefix * 7919 % ASN_POOL);
+            int target = hasTarget(route, version) ? (prefix & 0x7FFFFFFF) % targets.length : -1;
+            appendPeerIp(peer).append('|');
+            append(FIRST_PEER_ASN + peer).append(' ');
+            append(target >= 0 ? targetAsns[target] : TRANSIT[(int) (h & 7)]).append(' ');
+            int middle = (int) (h >>> 3 & 3);
+            for (int i = 0; i < middle; i++) {
+                append(1 + (int) ((h >>> 5 + 8 * i & 0xFF) * 233 % ASN_POOL)).append(' ');
+            }
+            append(origin);
+            // about 10% of the paths are prepended by the origin
+            if ((h >>> 40 & 0xF) < 2) {
+                append(' ').append(origin).append(' ').append(origin);
+            }
+            append('|').append(origin).append('|');
+            boolean first = true;
+            if (target >= 0) {
+                append(targets[target]);
+                first = false;
+            }
+            int others = maxCommunities > 0 ? (int) ((h >>> 44) % (maxCommunities + 1)) : 0;
+            long c = h;
+            for (int i = 0; i < others; i++) {
+                c = mix(c);
+                if (!first) {
+                    append(' ');
+                }
+                append(TRANSIT[(int) (c & 7)]).append(':').append((int) (c >>> 3 & 0xFFFF));
+                first = false;
+            }
+            append("||");
+        }
+        endLine(ts);
+    }
+
+    private void printState(int ts, int peer, boolean up) throws IOException {
+        startLine('U', 'S', ts, peer);
+        append("|||||").append(up ? "IDLE|ESTABLISHED" : "ESTABLISHED|IDLE");
+        endLine(ts);
+    }
+
+    private void startLine(char recType, char elemType, int ts, int peer) {
+        // The fields from the timestamp to the peer IP only change with the second and the peer
+        length = 0;
+        append(recType).append('|').append(elemType).append('|').append(ts).append(".000000|ris|");
+        if (peerFields[peer] == null) {
+            int from = length;
+            append(collectors.get(peer / peers)).append("|||").append(FIRST_PEER_ASN + peer).append('|');
+            appendPeerIp(peer).append('|');
+            peerFields[peer] = Arrays.copyOfRange(line, from, length);
+        } else {
+            append(peerFields[peer]);
+        }
+    }
+
+    private void endLine(int ts) throws IOException {
+        if (filtered && (!elem.wrap(line, 0, length) || !accept(elem))) {
+            return;
+        }
+        append('\n');
+        out.write(line, 0, length);
+        printed++;
+    }
+
+    private SyntheticBgpReader appendPeerIp(int peer) {
+        return append("10.").append(peer / peers).append('.').append(peer % peers / 256).append('.')
+                .append(peer % peers % 256 + 1);
+    }
+
+    /**
+     * Waits until an elem can be printed: in live mode when the wall clock reaches its timestamp, and with a rate
+     * limit when the elems printed so far are within the rate
+     * @param ts the timestamp of the elem
+     */
+    private void pace(int ts) throws IOException {
+        if (live) {
+            long wait = ts * 1000L - System.currentTimeMillis();
+            if (wait > 0) {
+                out.flush();
+                sleep(wait);
+            }
+        }
+        if (rate > 0 && (printed & 0xFF) == 0) {
+            long ahead = (long) (printed / rate * 1000) - (System.nanoTime() - startedNanos) / 1000000;
+            if (ahead > 0) {
+                out.flush();
+                sleep(ahead);
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ z >>> 33) * 0xff51afd7ed558ccdL;
+        z = (z ^ z >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return (z ^ z >>> 33) & Long.MAX_VALUE;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + extra));
+        }
+    }
+
+    private SyntheticBgpReader append(char c) {
+        ensureCapacity(1);
+        line[length++] = (byte) c;
+        return this;
+    }
+
+    private SyntheticBgpReader append(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, line, length, b.length);
+        length += b.length;
+        return this;
+    }
+
+    private SyntheticBgpReader append(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            line[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    private SyntheticBgpReader append(int n) {
+        ensureCapacity(11);
+        if (n < 0) {
+            line[length++] = '-';
+            n = -n;
+        }
+        int digits = n < 10 ? 1 : n < 100 ? 2 : n < 1000 ? 3 : n < 10000 ? 4 : n < 100000 ? 5 : 10;
+        if (digits == 10) {
+            while (digits > 6 && n < POWERS_OF_TEN[digits - 1]) {
+                digits--;
+            }
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            line[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        length += digits;
+        return this;
+    }
+}
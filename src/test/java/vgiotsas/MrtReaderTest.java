@@ -0,0 +1,61 @@
+package vgiotsas;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decodes the MRT fixture under src/test/resources/mrt, a gzip RIB dump and a bzip2 updates file of rrc03, and
+ * compares every elem with the line that bgpreader prints for it in bgpreader.txt.
+ */
+public class MrtReaderTest {
+
+    private static File fixture(String name) throws URISyntaxException {
+        return new File(MrtReaderTest.class.getResource("/mrt/" + name).toURI());
+    }
+
+    /**
+     * Renders all the elems of the archives under a path
+     * @param path the MRT file or directory to read
+     * @param ribs true to read the RIB archives
+     * @param updates true to read the update archives
+     * @return the lines of the elems in the order they are read
+     */
+    private static List<String> decode(File path, boolean ribs, boolean updates) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BgpElem elem = new BgpElem();
+        try (ElemSource in = MrtReader.open(path.getPath(), CliParser.getDefaultCollectors(), 0, Integer.MAX_VALUE,
+                ribs, updates, 1, 1, null)) {
+            while (in.next(elem)) {
+                lines.add(new String(elem.buffer(), elem.lineStart(), elem.lineEnd() - elem.lineStart(),
+                        StandardCharsets.US_ASCII));
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void decodesTheElemsOfBgpreader() throws IOException, URISyntaxException {
+        List<String> expected = Files.readAllLines(fixture("bgpreader.txt").toPath(), StandardCharsets.US_ASCII);
+        assertEquals(expected, decode(fixture(""), true, true));
+    }
+
+    @Test
+    public void readsOnlyTheRibs() throws IOException, URISyntaxException {
+        List<String> ribs = new ArrayList<>();
+        for (String line : Files.readAllLines(fixture("bgpreader.txt").toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("R|")) {
+                ribs.add(line);
+            }
+        }
+        assertEquals(ribs, decode(fixture(""), true, false));
+    }
+}
@@ -0,0 +1,74 @@
+package vgiotsas;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The status changes of the routes of a {@link RouteTable} in a tracked timeline, when routes are removed and when
+ * their history is evicted.
+ */
+public class RouteTableTest {
+
+    private static final Community TARGET = Community.parse("2914:1201");
+    private static final int ORIGIN = 1523059200;
+    private static final int WIDTH = 180;
+
+    private RouteTable routes;
+    private CommunityTimeline timeline;
+    private int row;
+
+    @Before
+    public void setUp() {
+        CommunitySet communities = new CommunitySet();
+        communities.add(TARGET);
+        timeline = new CommunityTimeline(communities, ORIGIN, ORIGIN + 10 * WIDTH, WIDTH);
+        routes = new RouteTable();
+        RouteTable.Key key = new RouteTable.Key();
+        assertTrue(key.parse("10.0.0.1", "192.0.2.0/24"));
+        row = routes.add(key, TARGET, new int[0], 2914, 1299);
+        routes.trackTimeline(timeline, true);
+        routes.updateStatus(row, 1, ORIGIN);
+        routes.updateStatus(row, 0, ORIGIN + 2 * WIDTH);
+        routes.updateStatus(row, 1, ORIGIN + 4 * WIDTH);
+    }
+
+    @Test
+    public void removeRetractsTheChanges() {
+        assertEquals(1, timeline.snapshot().size());
+        routes.remove(row);
+        assertTrue(timeline.snapshot().isEmpty());
+        assertEquals(0, routes.size());
+    }
+
+    @Test
+    public void removeAfterEvictingNothing() {
+        routes.evictHistory(ORIGIN);
+        assertEquals(3, routes.changeCount(row));
+        routes.remove(row);
+        assertTrue(timeline.snapshot().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void removeAfterEvictHistory() {
+        routes.evictHistory(ORIGIN + 3 * WIDTH);
+        assertEquals(1, routes.changeCount(row));
+        routes.remove(row);
+    }
+
+    @Test
+    public void addAgainAfterEvictHistory() {
+        routes.evictHistory(ORIGIN + 3 * WIDTH);
+        routes.untrackTimeline(ORIGIN + 5 * WIDTH);
+        routes.remove(row);
+        RouteTable.Key key = new RouteTable.Key();
+        assertTrue(key.parse("10.0.0.1", "192.0.2.0/24"));
+        assertEquals(row, routes.add(key, TARGET, new int[0], 2914, 1299));
+        routes.trackTimeline(timeline, true);
+        routes.updateStatus(row, 1, ORIGIN + 6 * WIDTH);
+        routes.remove(row);
+        assertEquals(0, routes.size());
+    }
+}
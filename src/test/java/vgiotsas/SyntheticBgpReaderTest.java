@@ -0,0 +1,69 @@
+package vgiotsas;
+
+import org.junit.Test;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The generated stream of the {@link SyntheticBgpReader} only depends on the time window through the elems it
+ * selects, so the window can be split anywhere.
+ */
+public class SyntheticBgpReaderTest {
+
+    // 2018-04-07 00:00 UTC
+    private static final int START = 1523059200;
+    private static final String[] MODEL = {"--peers", "3", "--prefixes", "200", "--update-rate", "0.5",
+            "--dump-hours", "2", "--resets-per-day", "12", "--reset-seconds", "900", "--seed", "7"};
+
+    private static String generate(String window, String... options) throws IOException, CmdLineException {
+        SyntheticBgpReader reader = new SyntheticBgpReader();
+        String[] args = new String[MODEL.length + options.length + 2];
+        System.arraycopy(MODEL, 0, args, 0, MODEL.length);
+        System.arraycopy(options, 0, args, MODEL.length, options.length);
+        args[args.length - 2] = "-w";
+        args[args.length - 1] = window;
+        new CmdLineParser(reader).parseArgument(args);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.run(out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static void assertSplits(int a, int b, int c, String... options) throws IOException, CmdLineException {
+        String whole = generate(a + "," + c, options);
+        assertEquals(whole, generate(a + "," + b, options) + generate(b + "," + c, options));
+    }
+
+    @Test
+    public void splitWindowsMatchTheWholeWindow() throws IOException, CmdLineException {
+        int c = START + 2 * 86400;
+        // In the middle of an update bucket and a session bucket, on a RIB dump, and in the first second
+        assertSplits(START, START + 31337, c);
+        assertSplits(START, START + 4 * 3600, c);
+        assertSplits(START, START + 1, c);
+        assertSplits(START + 977, START + 86400 + 13, c);
+    }
+
+    @Test
+    public void splitWindowsMatchWithRibPeriodAndRecordTypes() throws IOException, CmdLineException {
+        int c = START + 2 * 86400;
+        assertSplits(START, START + 40000, c, "-P", "86400");
+        assertSplits(START, START + 40000, c, "-t", "ribs");
+        assertSplits(START, START + 40000, c, "-t", "updates");
+    }
+
+    @Test
+    public void generatesEveryKindOfElem() throws IOException, CmdLineException {
+        String stream = generate(START + "," + (START + 86400));
+        for (String kind : new String[]{"R|R|", "U|A|", "U|W|", "U|S|"}) {
+            assertTrue(kind, stream.contains("\n" + kind));
+        }
+        assertTrue(stream.contains("|2914:1201"));
+    }
+}